@@ -393,6 +393,67 @@ public class Array extends Library implements AutoCloseable {
         }
     }
 
+    /**
+     * Gets the data stored in the array converted to double precision, whatever its real type is.
+     *
+     * @return The data of the array.
+     * @throws IllegalArgumentException If the array holds complex numbers.
+     * @throws KhivaException           If the native function call fails.
+     */
+    double[] getDataAsDouble() {
+        Object data = getData();
+        if (data instanceof double[]) {
+            return (double[]) data;
+        }
+        double[] result;
+        if (data instanceof float[]) {
+            float[] values = (float[]) data;
+            result = new double[values.length];
+            for (int i = 0; i < values.length; i++) result[i] = values[i];
+        } else if (data instanceof int[]) {
+            int[] values = (int[]) data;
+            result = new double[values.length];
+            for (int i = 0; i < values.length; i++) result[i] = values[i];
+        } else if (data instanceof long[]) {
+            long[] values = (long[]) data;
+            result = new double[values.length];
+            for (int i = 0; i < values.length; i++) result[i] = values[i];
+        } else if (data instanceof short[]) {
+            short[] values = (short[]) data;
+            result = new double[values.length];
+            for (int i = 0; i < values.length; i++) result[i] = values[i];
+        } else if (data instanceof byte[]) {
+            byte[] values = (byte[]) data;
+            result = new double[values.length];
+            for (int i = 0; i < values.length; i++) result[i] = values[i] & 0xff;
+        } else if (data instanceof boolean[]) {
+            boolean[] values = (boolean[]) data;
+            result = new double[values.length];
+            for (int i = 0; i < values.length; i++) result[i] = values[i] ? 1 : 0;
+        } else {
+            throw new IllegalArgumentException("Complex arrays cannot be converted to double");
+        }
+        return result;
+    }
+
+    /**
+     * Creates a Khiva array of type f64 from double data, or of type f32 if the requested type is f32.
+     *
+     * @param arr  input array to initialize from.
+     * @param dims an array specifying the dimensions of the input array.
+     * @param type The type of the array to be created, f32 or f64.
+     * @return A Khiva array.
+     * @throws KhivaException If the native function call fails.
+     */
+    static Array fromDoubleData(double[] arr, long[] dims, Dtype type) {
+        if (type != Dtype.f32) {
+            return fromPrimitiveArray(arr, dims);
+        }
+        float[] values = new float[arr.length];
+        for (int i = 0; i < arr.length; i++) values[i] = (float) arr[i];
+        return fromPrimitiveArray(values, dims);
+    }
+
     /**
      * Prints the Array.
      *
@@ -9,11 +9,42 @@
 
 package io.shapelets.khiva;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinTask;
+
 /**
  * Khiva Clustering class containing several clustering methods.
  */
 public class Clustering extends Library {
 
+    /**
+     * Linkage criteria of the hierarchical clustering, i.e. the distance between two clusters.
+     */
+    public enum Linkage {
+        /**
+         * The minimum distance between their members.
+         */
+        SINGLE,
+        /**
+         * The maximum distance between their members.
+         */
+        COMPLETE,
+        /**
+         * The average distance between their members.
+         */
+        AVERAGE,
+        /**
+         * The increase of the sum of squared distances to the centroids caused by their merge, which only makes
+         * sense for euclidean distances.
+         */
+        WARD
+    }
+
     private native static long[] kMeans(long tss, int k, float tolerance, int maxIterations);
 
     private native static long[] kShape(long tss, int k, float tolerance, int maxIterations);
@@ -53,4 +84,441 @@ public class Clustering extends Library {
         long[] refs = kShape(tss.getReference(), k, tolerance, maxIterations);
         return new Array[]{Array.fromNative(refs[0]), Array.fromNative(refs[1])};
     }
+
+    /**
+     * Calculates the KMeans algorithm with control over its initialization: k-means++ seeding, which usually needs
+     * fewer iterations to converge, user-supplied initial centroids to warm-start from a previous clustering, and a
+     * seed for reproducible results. The assignments may be accelerated with the triangle inequality bounds of the
+     * Elkan or Hamerly algorithms, which skip most of the distances once the centroids settle, with the same results.
+     * <p>
+     * [1] S. Lloyd. 1982. Least squares quantization in PCM. IEEE Transactions on Information Theory, 28, 2,
+     * Pages 129-137.
+     *
+     * @param tss           The set of time series to be clusterized.
+     * @param k             The number of centroids.
+     * @param tolerance     The maximum error tolerance, compared with the sum of the squared distances moved by the
+     *                      centroids in an iteration.
+     * @param maxIterations The maximum number of iterations.
+     * @param options       The initialization options, the algorithm of the assignments, the number of restarts,
+     *                      the progress listener and the cancellation.
+     * @return An Array of arrays with the resulting centroids and labels.
+     * @throws IllegalArgumentException If k is not between 1 and the number of time series, or the initial centroids
+     *                                  do not match the length of the time series and k.
+     * @throws CancellationException    If the clustering is cancelled.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array[] kMeans(Array tss, int k, float tolerance, int maxIterations, ClusteringOptions options) {
+        long[] dims = tss.getDims();
+        int n = (int) dims[0];
+        int count = (int) dims[1];
+        double[] data = tss.getDataAsDouble();
+        Solution best = fit(Distances.Metric.EUCLIDEAN, DtwWindow.none(), data, n, count, k, options,
+                (centroids, labels, statistics, progress) -> {
+                    ClusteringKernels.kMeans(options.getAlgorithm(), data, n, count, centroids, k, tolerance,
+                            maxIterations, labels, statistics, progress);
+                    return ClusteringKernels.inertia(data, n, count, centroids, labels);
+                });
+        return new Array[]{Array.fromDoubleData(best.centroids, new long[]{n, k}, tss.getType()),
+                           Array.fromPrimitiveArray(best.labels, new long[]{count})};
+    }
+
+    /**
+     * Calculates the KShape algorithm with control over its initialization: k-means++ seeding under the Shape-Based
+     * distance, user-supplied initial centroids to warm-start from a previous clustering, and a seed for reproducible
+     * results.
+     * <p>
+     * The time series are z-normalized once, and for long time series their spectra are calculated once too, so
+     * every assignment needs a single transform per centroid and an inverse transform per time series and centroid.
+     * Both are shared by all the restarts.
+     * <p>
+     * [1] John Paparrizos and Luis Gravano. 2016. k-Shape: Efficient and Accurate Clustering of Time Series.
+     * SIGMOD Rec. 45, 1 (June 2016), 69-76.
+     *
+     * @param tss           The set of time series to be clusterized.
+     * @param k             The number of centroids.
+     * @param tolerance     The maximum error tolerance, compared with the sum of the squared distances moved by the
+     *                      centroids in an iteration.
+     * @param maxIterations The maximum number of iterations.
+     * @param options       The initialization options, the number of restarts, the progress listener and the
+     *                      cancellation.
+     * @return An Array of arrays with the resulting z-normalized centroids and labels.
+     * @throws IllegalArgumentException If k is not between 1 and the number of time series, or the initial centroids
+     *                                  do not match the length of the time series and k.
+     * @throws CancellationException    If the clustering is cancelled.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array[] kShape(Array tss, int k, float tolerance, int maxIterations, ClusteringOptions options) {
+        long[] dims = tss.getDims();
+        int n = (int) dims[0];
+        int count = (int) dims[1];
+        double[] raw = tss.getDataAsDouble();
+        double[] data = DistanceKernels.prepare(Distances.Metric.SBD, raw, n, count);
+        PreparedSbd spectra = n > DistanceKernels.DIRECT_CORRELATION_LENGTH ? new PreparedSbd(raw, n, count) : null;
+        Solution best = fit(Distances.Metric.SBD, DtwWindow.none(), data, n, count, k, options,
+                (centroids, labels, statistics, progress) -> {
+                    int iterations = ClusteringKernels.kShape(data, n, count, centroids, k, tolerance, maxIterations,
+                            labels, spectra, progress);
+                    statistics.record(iterations, 0, 0);
+                    return ClusteringKernels.sbdInertia(data, n, count, centroids, labels);
+                });
+        return new Array[]{Array.fromDoubleData(best.centroids, new long[]{n, k}, tss.getType()),
+                           Array.fromPrimitiveArray(best.labels, new long[]{count})};
+    }
+
+    /**
+     * Calculates the k-means algorithm under the Dynamic Time Warping distance, with the centroids calculated by DTW
+     * Barycenter Averaging (DBA), which clusters time series that are shifted or warped in time. It supports the same
+     * initialization options as {@link #kMeans(Array, int, float, int, ClusteringOptions)}, with the k-means++
+     * seeding under the DTW distance.
+     * <p>
+     * Every iteration assigns every time series to its closest centroid, pruning the centroids with the LB_Kim and
+     * LB_Keogh lower bounds and abandoning the distances that exceed the best one so far, and then replaces every
+     * point of every centroid with the median of the points of its time series aligned with it along the best warping
+     * paths, which minimizes the absolute differences matched by the DTW distance, so the inertia does not increase
+     * between iterations. Both steps are distributed among the threads of the pool of the options.
+     * <p>
+     * [1] F. Petitjean, A. Ketterlin and P. Gancarski. 2011. A global averaging method for dynamic time warping, with
+     * applications to clustering. Pattern Recognition, 44, 3, Pages 678-693.
+     *
+     * @param tss           The set of time series to be clusterized.
+     * @param k             The number of centroids.
+     * @param window        The warping window of the DTW distance.
+     * @param tolerance     The maximum error tolerance, compared with the sum of the squared distances moved by the
+     *                      centroids in an iteration.
+     * @param maxIterations The maximum number of iterations.
+     * @param options       The initialization options, the number of restarts, the pool, the progress listener and
+     *                      the cancellation.
+     * @return An Array of arrays with the resulting centroids and labels.
+     * @throws IllegalArgumentException If k is not between 1 and the number of time series, or the initial centroids
+     *                                  do not match the length of the time series and k.
+     * @throws CancellationException    If the clustering is cancelled.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array[] dbaKMeans(Array tss, int k, DtwWindow window, float tolerance, int maxIterations,
+                                    ClusteringOptions options) {
+        long[] dims = tss.getDims();
+        int n = (int) dims[0];
+        int count = (int) dims[1];
+        double[] data = tss.getDataAsDouble();
+        Solution best = fit(Distances.Metric.DTW, window, data, n, count, k, options,
+                (centroids, labels, statistics, progress) -> DbaKernels.kMeans(data, n, count, centroids, k, window,
+                        tolerance, maxIterations, labels, statistics, progress, options.getPool()));
+        return new Array[]{Array.fromDoubleData(best.centroids, new long[]{n, k}, tss.getType()),
+                           Array.fromPrimitiveArray(best.labels, new long[]{count})};
+    }
+
+    // A clustering run from the given initial centroids, updated in place, returning the inertia of the solution.
+    private interface Run {
+        double run(double[] centroids, int[] labels, ClusteringStatistics statistics,
+                   ClusteringKernels.Progress progress);
+    }
+
+    private static final class Solution {
+        final double[] centroids;
+        final int[] labels;
+        final ClusteringStatistics statistics = new ClusteringStatistics();
+
+        Solution(double[] centroids, int count) {
+            this.centroids = centroids;
+            this.labels = new int[count];
+        }
+    }
+
+    // Runs the restarts given by the options concurrently and keeps the solution with the lowest inertia, the first
+    // one in case of a tie. Every restart draws its initial centroids from its own seed, which is drawn in advance,
+    // so the result does not depend on the scheduling of the restarts, and the first restart is the same as a single
+    // run. If a restart fails, the others are cancelled.
+    private static Solution fit(Distances.Metric metric, DtwWindow window, double[] data, int n, int count, int k,
+                                ClusteringOptions options, Run run) {
+        if (k <= 0 || k > count) {
+            throw new IllegalArgumentException("The number of centroids must be between 1 and " + count);
+        }
+        Random random = options.random();
+        int restarts = options.getRestarts();
+        Thread caller = Thread.currentThread();
+        Solution best;
+        if (restarts == 1) {
+            ClusteringKernels.Progress progress = new ClusteringKernels.Progress(options, caller, 0);
+            progress.check();
+            best = new Solution(initialCentroids(metric, window, data, n, count, k, options, true,
+                    new Random(random.nextLong())), count);
+            best.statistics.setInertia(run.run(best.centroids, best.labels, best.statistics, progress));
+        } else {
+            double[] initial = options.getInitialCentroids() == null ? null
+                    : initialCentroids(metric, window, data, n, count, k, options, true, random);
+            List<ForkJoinTask<Solution>> tasks = new ArrayList<>();
+            List<ClusteringKernels.Progress> progresses = new ArrayList<>();
+            for (int r = 0; r < restarts; r++) {
+                Random restartRandom = new Random(random.nextLong());
+                boolean warm = r == 0 && initial != null;
+                ClusteringKernels.Progress progress = new ClusteringKernels.Progress(options, caller, r);
+                progresses.add(progress);
+                tasks.add(options.getPool().submit(() -> {
+                    progress.check();
+                    Solution solution = new Solution(warm ? initial
+                            : initialCentroids(metric, window, data, n, count, k, options, false, restartRandom),
+                            count);
+                    solution.statistics.setInertia(run.run(solution.centroids, solution.labels, solution.statistics,
+                            progress));
+                    return solution;
+                }));
+            }
+            best = null;
+            try {
+                for (ForkJoinTask<Solution> task : tasks) {
+                    Solution solution = task.join();
+                    if (best == null || solution.statistics.getInertia() < best.statistics.getInertia()) {
+                        best = solution;
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                // The restarts not started yet are dropped and the running ones stop at their next check.
+                for (int r = 0; r < restarts; r++) {
+                    tasks.get(r).cancel(true);
+                    progresses.get(r).cancel();
+                }
+                throw e;
+            }
+        }
+        if (options.getStatistics() != null) {
+            options.getStatistics().record(best.statistics);
+        }
+        return best;
+    }
+
+    // The initial centroids given by the options, prepared for the metric, if allowed, or chosen as the options say.
+    private static double[] initialCentroids(Distances.Metric metric, DtwWindow window, double[] data, int n,
+                                             int count, int k, ClusteringOptions options, boolean given,
+                                             Random random) {
+        Array initial = options.getInitialCentroids();
+        if (given && initial != null) {
+            long[] dims = initial.getDims();
+            if (dims[0] != n || dims[1] != k) {
+                throw new IllegalArgumentException("The initial centroids must be " + k + " time series of length "
+                        + n);
+            }
+            double[] centroids = initial.getDataAsDouble().clone();
+            return metric == Distances.Metric.SBD ? DistanceKernels.prepare(metric, centroids, n, k) : centroids;
+        }
+        if (options.getInitialization() == ClusteringOptions.Initialization.RANDOM) {
+            return ClusteringKernels.randomCentroids(data, n, count, k, random);
+        }
+        return ClusteringKernels.kMeansPlusPlus(metric, window, data, n, count, k, random);
+    }
+
+    /**
+     * Calculates the mini-batch KMeans algorithm. Every iteration draws a batch of time series at random and moves
+     * the centroids towards them, instead of visiting the whole collection, which trades a small loss of accuracy for
+     * a much lower cost per iteration.
+     * <p>
+     * [1] D. Sculley. 2010. Web-scale k-means clustering. WWW 2010, Pages 1177-1178.
+     *
+     * @param tss           The set of time series to be clusterized.
+     * @param k             The number of centroids.
+     * @param batchSize     The number of time series drawn per iteration.
+     * @param tolerance     The maximum error tolerance, compared with the sum of the squared distances moved by the
+     *                      centroids in an iteration.
+     * @param maxIterations The maximum number of iterations.
+     * @param seed          The seed of the random choices, so the results are reproducible.
+     * @return An Array of arrays with the resulting centroids and labels.
+     * @throws IllegalArgumentException If k is not between 1 and the number of time series, or the batch size is not
+     *                                  positive.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array[] miniBatchKMeans(Array tss, int k, int batchSize, float tolerance, int maxIterations,
+                                          long seed) {
+        long[] dims = tss.getDims();
+        int n = (int) dims[0];
+        int count = (int) dims[1];
+        checkMiniBatch(k, count, batchSize);
+        double[] data = tss.getDataAsDouble();
+        Random random = new Random(seed);
+        double[] centroids = ClusteringKernels.randomCentroids(data, n, count, k, random);
+        long[] counts = new long[k];
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            double shift = ClusteringKernels.miniBatchStep(data, n, count, batchSize, centroids, counts, k, random);
+            if (shift <= tolerance) {
+                break;
+            }
+        }
+        int[] labels = new int[count];
+        ClusteringKernels.assign(data, n, count, centroids, k, labels);
+        return new Array[]{Array.fromDoubleData(centroids, new long[]{n, k}, tss.getType()),
+                           Array.fromPrimitiveArray(labels, new long[]{count})};
+    }
+
+    /**
+     * Calculates the mini-batch KMeans algorithm over a collection streamed in chunks, so the whole collection never
+     * needs to be in memory. Every iteration takes the next chunk, starting again from the first one when the chunks
+     * are exhausted, and draws a batch from it. The initial centroids are drawn from the first chunk. Once the
+     * centroids are fitted, the chunks are visited once more to label every time series.
+     * <p>
+     * The chunks are not closed.
+     *
+     * @param chunks        The chunks of time series to be clusterized, all of them with the same length. It is
+     *                      iterated several times, so it must produce the same chunks in the same order every time.
+     * @param k             The number of centroids.
+     * @param batchSize     The number of time series drawn per iteration.
+     * @param tolerance     The maximum error tolerance, compared with the sum of the squared distances moved by the
+     *                      centroids in an iteration.
+     * @param maxIterations The maximum number of iterations.
+     * @param seed          The seed of the random choices, so the results are reproducible.
+     * @return An Array of arrays with the resulting centroids and the labels of all the time series, in the order of
+     * the chunks.
+     * @throws IllegalArgumentException If there are no chunks, the first chunk has less than k time series, the
+     *                                  batch size is not positive or the chunks have different lengths.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array[] miniBatchKMeans(Iterable<Array> chunks, int k, int batchSize, float tolerance,
+                                          int maxIterations, long seed) {
+        Iterator<Array> it = chunks.iterator();
+        if (!it.hasNext()) {
+            throw new IllegalArgumentException("There must be at least one chunk");
+        }
+        Array first = it.next();
+        long[] dims = first.getDims();
+        int n = (int) dims[0];
+        checkMiniBatch(k, (int) dims[1], batchSize);
+        Random random = new Random(seed);
+        double[] centroids = ClusteringKernels.randomCentroids(first.getDataAsDouble(), n, (int) dims[1], k, random);
+        long[] counts = new long[k];
+
+        it = chunks.iterator();
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            if (!it.hasNext()) {
+                it = chunks.iterator();
+            }
+            Array chunk = it.next();
+            int count = chunkCount(chunk, n);
+            double shift = ClusteringKernels.miniBatchStep(chunk.getDataAsDouble(), n, count, batchSize, centroids,
+                    counts, k, random);
+            if (shift <= tolerance) {
+                break;
+            }
+        }
+
+        int[] labels = new int[0];
+        int total = 0;
+        for (Array chunk : chunks) {
+            int count = chunkCount(chunk, n);
+            if (total + count > labels.length) {
+                labels = Arrays.copyOf(labels, Math.max(2 * labels.length, total + count));
+            }
+            int[] chunkLabels = new int[count];
+            ClusteringKernels.assign(chunk.getDataAsDouble(), n, count, centroids, k, chunkLabels);
+            System.arraycopy(chunkLabels, 0, labels, total, count);
+            total += count;
+        }
+        return new Array[]{Array.fromDoubleData(centroids, new long[]{n, k}, first.getType()),
+                           Array.fromPrimitiveArray(Arrays.copyOf(labels, total), new long[]{total})};
+    }
+
+    private static void checkMiniBatch(int k, int count, int batchSize) {
+        if (k <= 0 || k > count) {
+            throw new IllegalArgumentException("The number of centroids must be between 1 and " + count);
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be positive");
+        }
+    }
+
+    // Number of time series of a chunk, checking their length.
+    private static int chunkCount(Array chunk, int n) {
+        long[] dims = chunk.getDims();
+        if (dims[0] != n) {
+            throw new IllegalArgumentException("All the chunks must have the same length");
+        }
+        return (int) dims[1];
+    }
+
+    /**
+     * Calculates the hierarchical agglomerative clustering of a collection from the distances between its members,
+     * e.g. as returned by {@link Distances#condensed} or {@link Distances#dtw}. Starting from one cluster per member,
+     * the two closest clusters are merged until a single cluster remains. The nearest-neighbour chain algorithm
+     * needs O(n^2) time and no memory besides a copy of the distance matrix.
+     * <p>
+     * [1] Daniel Müllner. 2011. Modern hierarchical, agglomerative clustering algorithms. arXiv:1109.2378.
+     *
+     * @param distances Either a condensed distance matrix with n * (n - 1) / 2 elements, or an n x n matrix whose
+     *                  upper triangle holds the distances, as returned by the methods of {@link Distances}.
+     * @param linkage   The linkage criterion.
+     * @return Array of type f64 with 4 x (n - 1) elements, where column j describes merge j: the two clusters
+     * merged, their distance and the number of members of the new cluster. The members are the clusters 0 to n - 1
+     * and merge j creates cluster n + j. The merges are sorted by distance. Infinite distances, such as the pairs
+     * abandoned by {@link Distances#dtw(Array, DtwWindow, double)}, are allowed, and the clusters only separated by
+     * them are merged last, at an infinite distance.
+     * @throws IllegalArgumentException If the distances are neither a condensed nor a square matrix, there are less
+     *                                  than two members, or any distance is NaN.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array hierarchical(Array distances, Linkage linkage) {
+        long[] dims = distances.getDims();
+        double[] values = distances.getDataAsDouble();
+        int n;
+        double[] condensed;
+        if (dims[1] > 1) {
+            if (dims[0] != dims[1] || dims[2] != 1 || dims[3] != 1) {
+                throw new IllegalArgumentException("The distances must be a condensed or a square matrix");
+            }
+            n = (int) dims[0];
+            condensed = new double[n * (n - 1) / 2];
+            for (int j = 1; j < n; j++) {
+                for (int i = 0; i < j; i++) {
+                    condensed[(int) Distances.condensedIndex(n, i, j)] = values[i + j * n];
+                }
+            }
+        } else {
+            long m = dims[0];
+            n = (int) Math.round((1 + Math.sqrt(1 + 8.0 * m)) / 2);
+            if ((long) n * (n - 1) / 2 != m || dims[2] != 1 || dims[3] != 1) {
+                throw new IllegalArgumentException("The distances must be a condensed or a square matrix");
+            }
+            condensed = values;
+        }
+        if (n < 2) {
+            throw new IllegalArgumentException("There must be at least two members");
+        }
+        for (double d : condensed) {
+            if (Double.isNaN(d)) {
+                throw new IllegalArgumentException("The distances cannot be NaN");
+            }
+        }
+        double[] result = ClusteringKernels.linkage(condensed, n, linkage);
+        return Array.fromPrimitiveArray(result, new long[]{4, n - 1});
+    }
+
+    /**
+     * Cuts the dendrogram of a hierarchical clustering into the given number of flat clusters.
+     *
+     * @param linkage  The linkage matrix, as returned by {@link #hierarchical(Array, Linkage)}.
+     * @param clusters The number of flat clusters.
+     * @return Array with the label of every member, numbered from 0 in the order of their first member.
+     * @throws IllegalArgumentException If the number of clusters is not between 1 and the number of members.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array cutTree(Array linkage, int clusters) {
+        double[] values = linkage.getDataAsDouble();
+        int n = values.length / 4 + 1;
+        if (clusters <= 0 || clusters > n) {
+            throw new IllegalArgumentException("The number of clusters must be between 1 and " + n);
+        }
+        return Array.fromPrimitiveArray(ClusteringKernels.cut(values, n, n - clusters), new long[]{n});
+    }
+
+    /**
+     * Cuts the dendrogram of a hierarchical clustering at the given height, so the clusters closer than it are
+     * merged.
+     *
+     * @param linkage The linkage matrix, as returned by {@link #hierarchical(Array, Linkage)}.
+     * @param height  The maximum distance of the merges applied.
+     * @return Array with the label of every member, numbered from 0 in the order of their first member.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array cutTreeAtHeight(Array linkage, double height) {
+        double[] values = linkage.getDataAsDouble();
+        int n = values.length / 4 + 1;
+        int merges = 0;
+        while (merges < n - 1 && values[4 * merges + 2] <= height) merges++;
+        return Array.fromPrimitiveArray(ClusteringKernels.cut(values, n, merges), new long[]{n});
+    }
 }
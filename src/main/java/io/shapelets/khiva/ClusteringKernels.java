@@ -0,0 +1,1005 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Clustering kernels implemented on the Java side. The time series and the centroids are stored one after the other
+ * in a single array.
+ */
+final class ClusteringKernels {
+
+    private ClusteringKernels() {
+    }
+
+    /**
+     * Progress of a clustering run: it reports every iteration to the listener and checks the cancellation.
+     */
+    static final class Progress {
+        private final ClusteringOptions.ProgressListener listener;
+        private final BooleanSupplier cancellation;
+        private final Thread caller;
+        private final int restart;
+        private final long start = System.nanoTime();
+        private volatile boolean cancelled;
+
+        /**
+         * Creates the progress of a run.
+         *
+         * @param options The options of the clustering.
+         * @param caller  The thread that called the clustering, whose interruption cancels the run.
+         * @param restart Index of the restart.
+         */
+        Progress(ClusteringOptions options, Thread caller, int restart) {
+            this.listener = options.getProgressListener();
+            this.cancellation = options.getCancellation();
+            this.caller = caller;
+            this.restart = restart;
+        }
+
+        /**
+         * Checks whether the run is cancelled.
+         *
+         * @throws CancellationException If the run is cancelled.
+         */
+        void check() {
+            if (cancelled || caller.isInterrupted() || (cancellation != null && cancellation.getAsBoolean())) {
+                throw new CancellationException("The clustering was cancelled");
+            }
+        }
+
+        /**
+         * Cancels the run, which stops at its next check.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Reports an iteration. The inertia is only calculated if there is a listener.
+         *
+         * @param iteration Number of the iteration.
+         * @param inertia   Calculation of the inertia.
+         * @param shift     Sum of the squared distances moved by the centroids.
+         * @return Whether to continue.
+         * @throws CancellationException If the run is cancelled.
+         */
+        boolean iterationDone(int iteration, DoubleSupplier inertia, double shift) {
+            if (listener != null && !listener.iterationDone(restart, iteration, inertia.getAsDouble(), shift,
+                    System.nanoTime() - start)) {
+                return false;
+            }
+            check();
+            return true;
+        }
+    }
+
+    /**
+     * Calculates the squared euclidean distance between two time series.
+     *
+     * @param a     First array.
+     * @param aFrom Position of the first time series in a.
+     * @param b     Second array.
+     * @param bFrom Position of the second time series in b.
+     * @param n     Length of the time series.
+     * @return The squared distance.
+     */
+    static double squaredEuclidean(double[] a, int aFrom, double[] b, int bFrom, int n) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double d = a[aFrom + i] - b[bFrom + i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    /**
+     * Finds the centroid closest to a time series, in squared euclidean distance. Ties go to the lowest centroid.
+     *
+     * @param data      Array containing the time series.
+     * @param from      Position of the time series in data.
+     * @param centroids The centroids.
+     * @param k         Number of centroids.
+     * @param n         Length of the time series.
+     * @return The index of the closest centroid.
+     */
+    static int nearest(double[] data, int from, double[] centroids, int k, int n) {
+        int best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            double d = squaredEuclidean(data, from, centroids, c * n, n);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Assigns every time series to its closest centroid.
+     *
+     * @param data      Time series stored one after the other.
+     * @param n         Length of the time series.
+     * @param count     Number of time series.
+     * @param centroids The centroids.
+     * @param k         Number of centroids.
+     * @param labels    Output with the index of the closest centroid of every time series.
+     */
+    static void assign(double[] data, int n, int count, double[] centroids, int k, int[] labels) {
+        for (int i = 0; i < count; i++) {
+            labels[i] = nearest(data, i * n, centroids, k, n);
+        }
+    }
+
+    /**
+     * Chooses k distinct time series uniformly at random as initial centroids.
+     *
+     * @param data   Time series stored one after the other.
+     * @param n      Length of the time series.
+     * @param count  Number of time series, at least k.
+     * @param k      Number of centroids.
+     * @param random Source of randomness.
+     * @return The centroids, stored one after the other.
+     */
+    static double[] randomCentroids(double[] data, int n, int count, int k, Random random) {
+        // Floyd's algorithm, which draws k distinct positions without a permutation of the whole collection.
+        int[] chosen = new int[k];
+        Set<Integer> seen = new HashSet<>();
+        for (int c = 0, j = count - k; c < k; c++, j++) {
+            int t = random.nextInt(j + 1);
+            chosen[c] = seen.add(t) ? t : j;
+            seen.add(chosen[c]);
+        }
+        double[] centroids = new double[k * n];
+        for (int c = 0; c < k; c++) {
+            System.arraycopy(data, chosen[c] * n, centroids, c * n, n);
+        }
+        return centroids;
+    }
+
+    /**
+     * Runs one iteration of mini-batch k-means: draws a batch of time series with replacement (or takes all of them
+     * if there are no more than the batch size), assigns them to the centroids and moves every centroid towards its
+     * time series with a per-centroid learning rate of one over the number of time series it has received so far.
+     * <p>
+     * [1] D. Sculley. 2010. Web-scale k-means clustering. WWW 2010, Pages 1177-1178.
+     *
+     * @param data      Time series stored one after the other.
+     * @param n         Length of the time series.
+     * @param count     Number of time series.
+     * @param batchSize Number of time series drawn.
+     * @param centroids The centroids, updated in place.
+     * @param counts    Number of time series received by every centroid, updated in place.
+     * @param k         Number of centroids.
+     * @param random    Source of randomness.
+     * @return The sum of the squared distances moved by the centroids.
+     */
+    static double miniBatchStep(double[] data, int n, int count, int batchSize, double[] centroids, long[] counts,
+                                int k, Random random) {
+        int size = Math.min(batchSize, count);
+        int[] batch = new int[size];
+        int[] labels = new int[size];
+        // The batch is assigned before any centroid moves, as in the reference algorithm.
+        for (int b = 0; b < size; b++) {
+            batch[b] = count <= batchSize ? b : random.nextInt(count);
+            labels[b] = nearest(data, batch[b] * n, centroids, k, n);
+        }
+        double[] previous = centroids.clone();
+        for (int b = 0; b < size; b++) {
+            int c = labels[b];
+            counts[c]++;
+            double eta = 1.0 / counts[c];
+            int from = batch[b] * n;
+            for (int t = 0; t < n; t++) {
+                centroids[c * n + t] += eta * (data[from + t] - centroids[c * n + t]);
+            }
+        }
+        return squaredEuclidean(previous, 0, centroids, 0, k * n);
+    }
+
+    /**
+     * Chooses k initial centroids with the k-means++ seeding: the first one uniformly at random and every other one
+     * with probability proportional to the squared distance of the time series to its closest centroid so far.
+     *
+     * @param metric The metric, euclidean, SBD or DTW, over prepared time series.
+     * @param window The warping window of the DTW distance.
+     * @param data   Prepared time series stored one after the other.
+     * @param n      Length of the time series.
+     * @param count  Number of time series, at least k.
+     * @param k      Number of centroids.
+     * @param random Source of randomness.
+     * @return The centroids, stored one after the other.
+     */
+    static double[] kMeansPlusPlus(Distances.Metric metric, DtwWindow window, double[] data, int n, int count, int k,
+                                   Random random) {
+        DistanceKernels.Workspace workspace = new DistanceKernels.Workspace(window);
+        double[] centroids = new double[k * n];
+        double[] weights = new double[count];
+        Arrays.fill(weights, Double.POSITIVE_INFINITY);
+        int chosen = random.nextInt(count);
+        for (int c = 0; c < k; c++) {
+            System.arraycopy(data, chosen * n, centroids, c * n, n);
+            if (c == k - 1) {
+                break;
+            }
+            double total = 0;
+            for (int i = 0; i < count; i++) {
+                double d = DistanceKernels.distance(metric, data, i * n, centroids, c * n, n, workspace);
+                weights[i] = Math.min(weights[i], d * d);
+                total += weights[i];
+            }
+            // When every time series coincides with a centroid, the next one is chosen uniformly.
+            chosen = total > 0 ? draw(weights, total, random) : random.nextInt(count);
+        }
+        return centroids;
+    }
+
+    private static int draw(double[] weights, double total, Random random) {
+        double target = random.nextDouble() * total;
+        int last = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] > 0) {
+                last = i;
+                target -= weights[i];
+                if (target < 0) {
+                    return i;
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Runs the Lloyd iterations of k-means: every time series is assigned to its closest centroid and every centroid
+     * is moved to the mean of its time series. A centroid without time series is kept where it is.
+     * <p>
+     * The Elkan and Hamerly algorithms keep bounds of the distances between every time series and the centroids,
+     * updated with the distances moved by the centroids, and skip the distances which cannot change the assignment
+     * according to the triangle inequality. Ties are broken in favour of the lowest centroid in all the algorithms,
+     * so the three of them give the same results.
+     * <p>
+     * [1] Charles Elkan. 2003. Using the Triangle Inequality to Accelerate k-Means. ICML 2003, Pages 147-153.
+     * <p>
+     * [2] Greg Hamerly. 2010. Making k-means even faster. SDM 2010, Pages 130-140.
+     *
+     * @param algorithm     The algorithm of the assignments.
+     * @param data          Time series stored one after the other.
+     * @param n             Length of the time series.
+     * @param count         Number of time series.
+     * @param centroids     The initial centroids, updated in place.
+     * @param k             Number of centroids.
+     * @param tolerance     Sum of the squared distances moved by the centroids below which the iterations stop.
+     * @param maxIterations The maximum number of iterations.
+     * @param labels        Output with the index of the closest final centroid of every time series.
+     * @param statistics    Receives the statistics of the run, if not null.
+     * @param progress      The progress of the run, if not null.
+     * @return The number of iterations run.
+     * @throws CancellationException If the run is cancelled.
+     */
+    static int kMeans(ClusteringOptions.Algorithm algorithm, double[] data, int n, int count, double[] centroids,
+                      int k, double tolerance, int maxIterations, int[] labels, ClusteringStatistics statistics,
+                      Progress progress) {
+        Assignment assignment;
+        switch (algorithm) {
+            case ELKAN:
+                assignment = new ElkanAssignment(data, n, count, centroids, k);
+                break;
+            case HAMERLY:
+                assignment = new HamerlyAssignment(data, n, count, centroids, k);
+                break;
+            default:
+                assignment = new Assignment(data, n, count, centroids, k);
+        }
+        double[] sums = new double[k * n];
+        int[] sizes = new int[k];
+        double[] shifts = new double[k];
+        int iteration = 0;
+        int assignments = 0;
+        while (iteration < maxIterations) {
+            iteration++;
+            assignment.assign(labels);
+            assignments++;
+            Arrays.fill(sums, 0);
+            Arrays.fill(sizes, 0);
+            Arrays.fill(shifts, 0);
+            for (int i = 0; i < count; i++) {
+                int c = labels[i];
+                sizes[c]++;
+                for (int t = 0; t < n; t++) sums[c * n + t] += data[i * n + t];
+            }
+            double shift = 0;
+            for (int c = 0; c < k; c++) {
+                if (sizes[c] == 0) {
+                    continue;
+                }
+                for (int t = 0; t < n; t++) {
+                    double mean = sums[c * n + t] / sizes[c];
+                    double d = mean - centroids[c * n + t];
+                    shift += d * d;
+                    shifts[c] += d * d;
+                    centroids[c * n + t] = mean;
+                }
+            }
+            for (int c = 0; c < k; c++) shifts[c] = Math.sqrt(shifts[c]);
+            assignment.moved(labels, shifts);
+            boolean proceed = progress == null
+                    || progress.iterationDone(iteration, () -> inertia(data, n, count, centroids, labels), shift);
+            if (shift <= tolerance || !proceed) {
+                break;
+            }
+        }
+        assignment.assign(labels);
+        assignments++;
+        if (statistics != null) {
+            statistics.record(iteration, (long) assignments * count * k, assignment.computed);
+        }
+        return iteration;
+    }
+
+    // Assignment of the time series to their closest centroids calculating every distance.
+    //
+    private static class Assignment {
+        final double[] data;
+        final int n;
+        final int count;
+        final double[] centroids;
+        final int k;
+        long computed;
+
+        Assignment(double[] data, int n, int count, double[] centroids, int k) {
+            this.data = data;
+            this.n = n;
+            this.count = count;
+            this.centroids = centroids;
+            this.k = k;
+        }
+
+        void assign(int[] labels) {
+            ClusteringKernels.assign(data, n, count, centroids, k, labels);
+            computed += (long) count * k;
+        }
+
+        // Notifies the distances moved by the centroids since the last assignment.
+        void moved(int[] labels, double[] shifts) {
+        }
+
+        double distance(int i, int c) {
+            computed++;
+            return squaredEuclidean(data, i * n, centroids, c * n, n);
+        }
+
+        // Half of the distance from every centroid to its closest one, and the distances among the centroids.
+        double[] centroidDistances(double[] half) {
+            double[] distances = new double[k * k];
+            Arrays.fill(half, Double.POSITIVE_INFINITY);
+            for (int a = 0; a < k; a++) {
+                for (int b = a + 1; b < k; b++) {
+                    double d = Math.sqrt(squaredEuclidean(centroids, a * n, centroids, b * n, n));
+                    distances[a * k + b] = d;
+                    distances[b * k + a] = d;
+                    half[a] = Math.min(half[a], d / 2);
+                    half[b] = Math.min(half[b], d / 2);
+                }
+            }
+            return distances;
+        }
+
+        // Whether a distance bounded above by upper is certainly lower than one bounded below by lower. The margin
+        // covers the rounding errors of the bounds, so no tie is ever skipped.
+        static boolean below(double upper, double lower) {
+            return upper * (1 + 1e-9) < lower;
+        }
+    }
+
+    // Elkan's assignment: an upper bound of the distance to the assigned centroid and a lower bound of the distance
+    // to every centroid.
+    //
+    private static final class ElkanAssignment extends Assignment {
+        final double[] upper;
+        final double[] lower;
+        final double[] best;
+        final boolean[] tight;
+        final double[] half;
+        boolean initialized;
+
+        ElkanAssignment(double[] data, int n, int count, double[] centroids, int k) {
+            super(data, n, count, centroids, k);
+            upper = new double[count];
+            lower = new double[count * k];
+            best = new double[count];
+            tight = new boolean[count];
+            half = new double[k];
+        }
+
+        @Override
+        void assign(int[] labels) {
+            if (!initialized) {
+                for (int i = 0; i < count; i++) {
+                    int a = 0;
+                    double bestDistance = Double.POSITIVE_INFINITY;
+                    for (int c = 0; c < k; c++) {
+                        double d = distance(i, c);
+                        lower[i * k + c] = Math.sqrt(d);
+                        if (d < bestDistance) {
+                            bestDistance = d;
+                            a = c;
+                        }
+                    }
+                    labels[i] = a;
+                    best[i] = bestDistance;
+                    upper[i] = Math.sqrt(bestDistance);
+                    tight[i] = true;
+                }
+                initialized = true;
+                return;
+            }
+            double[] distances = centroidDistances(half);
+            for (int i = 0; i < count; i++) {
+                int a = labels[i];
+                if (below(upper[i], half[a])) {
+                    continue;
+                }
+                for (int c = 0; c < k; c++) {
+                    if (c == a || below(upper[i], lower[i * k + c]) || below(upper[i], distances[a * k + c] / 2)) {
+                        continue;
+                    }
+                    if (!tight[i]) {
+                        best[i] = distance(i, a);
+                        upper[i] = Math.sqrt(best[i]);
+                        lower[i * k + a] = upper[i];
+                        tight[i] = true;
+                        if (below(upper[i], lower[i * k + c]) || below(upper[i], distances[a * k + c] / 2)) {
+                            continue;
+                        }
+                    }
+                    double d = distance(i, c);
+                    lower[i * k + c] = Math.sqrt(d);
+                    if (d < best[i] || (d == best[i] && c < a)) {
+                        a = c;
+                        best[i] = d;
+                        upper[i] = lower[i * k + c];
+                    }
+                }
+                labels[i] = a;
+            }
+        }
+
+        @Override
+        void moved(int[] labels, double[] shifts) {
+            for (int i = 0; i < count; i++) {
+                int a = labels[i];
+                if (shifts[a] > 0) {
+                    upper[i] += shifts[a];
+                    tight[i] = false;
+                }
+                for (int c = 0; c < k; c++) {
+                    lower[i * k + c] = Math.max(0, lower[i * k + c] - shifts[c]);
+                }
+            }
+        }
+    }
+
+    // Hamerly's assignment: an upper bound of the distance to the assigned centroid and a single lower bound of the
+    // distance to the rest of the centroids.
+    //
+    private static final class HamerlyAssignment extends Assignment {
+        final double[] upper;
+        final double[] lower;
+        final double[] best;
+        final boolean[] tight;
+        final double[] half;
+        boolean initialized;
+
+        HamerlyAssignment(double[] data, int n, int count, double[] centroids, int k) {
+            super(data, n, count, centroids, k);
+            upper = new double[count];
+            lower = new double[count];
+            best = new double[count];
+            tight = new boolean[count];
+            half = new double[k];
+        }
+
+        @Override
+        void assign(int[] labels) {
+            if (initialized) {
+                centroidDistances(half);
+            }
+            for (int i = 0; i < count; i++) {
+                int a = labels[i];
+                if (initialized) {
+                    double bound = Math.max(half[a], lower[i]);
+                    if (below(upper[i], bound)) {
+                        continue;
+                    }
+                    if (!tight[i]) {
+                        best[i] = distance(i, a);
+                        upper[i] = Math.sqrt(best[i]);
+                        tight[i] = true;
+                        if (below(upper[i], bound)) {
+                            continue;
+                        }
+                    }
+                }
+                double first = Double.POSITIVE_INFINITY;
+                double second = Double.POSITIVE_INFINITY;
+                int closest = 0;
+                for (int c = 0; c < k; c++) {
+                    double d = initialized && c == a ? best[i] : distance(i, c);
+                    if (d < first) {
+                        second = first;
+                        first = d;
+                        closest = c;
+                    } else if (d < second) {
+                        second = d;
+                    }
+                }
+                labels[i] = closest;
+                best[i] = first;
+                upper[i] = Math.sqrt(first);
+                lower[i] = Math.sqrt(second);
+                tight[i] = true;
+            }
+            initialized = true;
+        }
+
+        @Override
+        void moved(int[] labels, double[] shifts) {
+            int largest = 0;
+            for (int c = 1; c < k; c++) {
+                if (shifts[c] > shifts[largest]) largest = c;
+            }
+            double secondLargest = 0;
+            for (int c = 0; c < k; c++) {
+                if (c != largest) secondLargest = Math.max(secondLargest, shifts[c]);
+            }
+            for (int i = 0; i < count; i++) {
+                int a = labels[i];
+                if (shifts[a] > 0) {
+                    upper[i] += shifts[a];
+                    tight[i] = false;
+                }
+                lower[i] -= a == largest ? secondLargest : shifts[largest];
+            }
+        }
+    }
+
+    /**
+     * Runs the k-Shape iterations: every time series is assigned to the centroid with the lowest Shape-Based
+     * distance and every centroid is replaced by the shape extracted from its time series. A centroid without time
+     * series is kept where it is.
+     * <p>
+     * [1] John Paparrizos and Luis Gravano. 2016. k-Shape: Efficient and Accurate Clustering of Time Series.
+     * SIGMOD Rec. 45, 1 (June 2016), 69-76.
+     *
+     * @param data          Z-normalized time series stored one after the other.
+     * @param n             Length of the time series.
+     * @param count         Number of time series.
+     * @param centroids     The initial z-normalized centroids, updated in place.
+     * @param k             Number of centroids.
+     * @param tolerance     Sum of the squared distances moved by the centroids below which the iterations stop.
+     * @param maxIterations The maximum number of iterations.
+     * @param labels        Output with the index of the closest final centroid of every time series.
+     * @param spectra       The time series prepared for the Shape-Based distance, so their spectra are not
+     *                      recalculated on every iteration, or null to calculate the distances directly.
+     * @param progress      The progress of the run, if not null.
+     * @return The number of iterations run.
+     * @throws CancellationException If the run is cancelled.
+     */
+    static int kShape(double[] data, int n, int count, double[] centroids, int k, double tolerance,
+                      int maxIterations, int[] labels, PreparedSbd spectra, Progress progress) {
+        DistanceKernels.Workspace workspace = new DistanceKernels.Workspace();
+        int iteration = 0;
+        while (iteration < maxIterations) {
+            iteration++;
+            assignSbd(data, n, count, centroids, k, labels, spectra, workspace);
+            double shift = 0;
+            for (int c = 0; c < k; c++) {
+                double[] shape = shape(data, n, count, labels, c, centroids);
+                if (shape != null) {
+                    shift += squaredEuclidean(shape, 0, centroids, c * n, n);
+                    System.arraycopy(shape, 0, centroids, c * n, n);
+                }
+            }
+            boolean proceed = progress == null
+                    || progress.iterationDone(iteration, () -> sbdInertia(data, n, count, centroids, labels), shift);
+            if (shift <= tolerance || !proceed) {
+                break;
+            }
+        }
+        assignSbd(data, n, count, centroids, k, labels, spectra, workspace);
+        return iteration;
+    }
+
+    /**
+     * Assigns every time series to the centroid with the lowest Shape-Based distance. Ties go to the lowest
+     * centroid.
+     *
+     * @param data      Z-normalized time series stored one after the other.
+     * @param n         Length of the time series.
+     * @param count     Number of time series.
+     * @param centroids The z-normalized centroids.
+     * @param k         Number of centroids.
+     * @param labels    Output with the index of the closest centroid of every time series.
+     * @param spectra   The time series prepared for the Shape-Based distance, or null to calculate the distances
+     *                  directly.
+     * @param workspace Reusable buffers.
+     */
+    static void assignSbd(double[] data, int n, int count, double[] centroids, int k, int[] labels,
+                          PreparedSbd spectra, DistanceKernels.Workspace workspace) {
+        if (spectra != null) {
+            // One transform per centroid and one inverse transform per pair, as the spectra of the time series are
+            // already known.
+            double[] distances = spectra.distances(centroids, k);
+            for (int i = 0; i < count; i++) {
+                int best = 0;
+                for (int c = 1; c < k; c++) {
+                    if (distances[c + i * k] < distances[best + i * k]) best = c;
+                }
+                labels[i] = best;
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            int best = 0;
+            double bestDistance = Double.POSITIVE_INFINITY;
+            for (int c = 0; c < k; c++) {
+                double d = DistanceKernels.distance(Distances.Metric.SBD, data, i * n, centroids, c * n, n,
+                        workspace);
+                if (d < bestDistance) {
+                    bestDistance = d;
+                    best = c;
+                }
+            }
+            labels[i] = best;
+        }
+    }
+
+    /**
+     * Calculates the sum of the squared euclidean distances between the time series and their centroids.
+     *
+     * @param data      Time series stored one after the other.
+     * @param n         Length of the time series.
+     * @param count     Number of time series.
+     * @param centroids The centroids.
+     * @param labels    The index of the centroid of every time series.
+     * @return The inertia.
+     */
+    static double inertia(double[] data, int n, int count, double[] centroids, int[] labels) {
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += squaredEuclidean(data, i * n, centroids, labels[i] * n, n);
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates the sum of the Shape-Based distances between the time series and their centroids.
+     *
+     * @param data      Z-normalized time series stored one after the other.
+     * @param n         Length of the time series.
+     * @param count     Number of time series.
+     * @param centroids The z-normalized centroids.
+     * @param labels    The index of the centroid of every time series.
+     * @return The inertia.
+     */
+    static double sbdInertia(double[] data, int n, int count, double[] centroids, int[] labels) {
+        DistanceKernels.Workspace workspace = new DistanceKernels.Workspace();
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += DistanceKernels.distance(Distances.Metric.SBD, data, i * n, centroids, labels[i] * n, n,
+                    workspace);
+        }
+        return sum;
+    }
+
+    // Shape extraction of a cluster: the members are aligned to the current centroid and z-normalized, and the new
+    // centroid is the direction maximising the sum of their squared correlations, i.e. the leading eigenvector of
+    // Q^T S Q, where S is the sum of the outer products of the members and Q centres the vectors. Returns null for
+    // an empty cluster.
+    //
+    private static double[] shape(double[] data, int n, int count, int[] labels, int cluster, double[] centroids) {
+        int from = cluster * n;
+        boolean flat = squaredEuclidean(centroids, from, new double[n], 0, n) == 0;
+        double[] s = new double[n * n];
+        double[] aligned = new double[n];
+        double[] sum = new double[n];
+        int members = 0;
+        for (int i = 0; i < count; i++) {
+            if (labels[i] != cluster) {
+                continue;
+            }
+            members++;
+            int shift = flat ? 0 : bestShift(data, i * n, centroids, from, n);
+            for (int t = 0; t < n; t++) {
+                int u = t + shift;
+                aligned[t] = u >= 0 && u < n ? data[i * n + u] : 0;
+            }
+            zNormalize(aligned, 0, n);
+            for (int a = 0; a < n; a++) {
+                sum[a] += aligned[a];
+                for (int b = 0; b < n; b++) s[a * n + b] += aligned[a] * aligned[b];
+            }
+        }
+        if (members == 0) {
+            return null;
+        }
+        // Q^T S Q, with Q = I - 1/n, subtracts the row and column means and adds back the overall mean.
+        double[] rowMeans = new double[n];
+        double mean = 0;
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < n; b++) rowMeans[a] += s[a * n + b] / n;
+            mean += rowMeans[a] / n;
+        }
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < n; b++) s[a * n + b] += mean - rowMeans[a] - rowMeans[b];
+        }
+        double[] v = new double[n];
+        if (flat) {
+            System.arraycopy(sum, 0, v, 0, n);
+        } else {
+            System.arraycopy(centroids, from, v, 0, n);
+        }
+        if (!normalize(v)) {
+            for (int t = 0; t < n; t++) v[t] = t - (n - 1) / 2.0;
+            normalize(v);
+        }
+        // Power iterations, which converge to the leading eigenvector as the matrix is positive semi-definite.
+        double[] w = new double[n];
+        for (int iteration = 0; iteration < 1000; iteration++) {
+            for (int a = 0; a < n; a++) {
+                double dot = 0;
+                for (int b = 0; b < n; b++) dot += s[a * n + b] * v[b];
+                w[a] = dot;
+            }
+            if (!normalize(w)) {
+                break;
+            }
+            double change = squaredEuclidean(v, 0, w, 0, n);
+            System.arraycopy(w, 0, v, 0, n);
+            if (change < 1e-20) {
+                break;
+            }
+        }
+        // The eigenvector is defined up to its sign; the one closer to the members is kept.
+        double dot = 0;
+        for (int t = 0; t < n; t++) dot += v[t] * sum[t];
+        if (dot < 0) {
+            for (int t = 0; t < n; t++) v[t] = -v[t];
+        }
+        zNormalize(v, 0, n);
+        return v;
+    }
+
+    // Shift s maximising the cross-correlation sum_t a[t + s] * b[t], so a shifted by s is aligned to b.
+    //
+    private static int bestShift(double[] a, int aFrom, double[] b, int bFrom, int n) {
+        int best = 0;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int shift = 1 - n; shift < n; shift++) {
+            double cc = 0;
+            for (int t = Math.max(0, -shift); t < Math.min(n, n - shift); t++) {
+                cc += a[aFrom + t + shift] * b[bFrom + t];
+            }
+            if (cc > max) {
+                max = cc;
+                best = shift;
+            }
+        }
+        return best;
+    }
+
+    private static boolean normalize(double[] v) {
+        double norm = Math.sqrt(squaredEuclidean(v, 0, new double[v.length], 0, v.length));
+        if (norm == 0 || Double.isNaN(norm)) {
+            return false;
+        }
+        for (int i = 0; i < v.length; i++) v[i] /= norm;
+        return true;
+    }
+
+    /**
+     * Z-normalizes a time series in place, with the population standard deviation. Flat time series become zeros.
+     *
+     * @param data Array containing the time series.
+     * @param from Position of the time series in data.
+     * @param n    Length of the time series.
+     */
+    static void zNormalize(double[] data, int from, int n) {
+        double mean = 0;
+        for (int i = 0; i < n; i++) mean += data[from + i];
+        mean /= n;
+        double squares = 0;
+        for (int i = 0; i < n; i++) squares += (data[from + i] - mean) * (data[from + i] - mean);
+        double std = Math.sqrt(squares / n);
+        for (int i = 0; i < n; i++) data[from + i] = std > 0 ? (data[from + i] - mean) / std : 0;
+    }
+
+    /**
+     * Calculates the hierarchical agglomerative clustering of a collection with the nearest-neighbour chain
+     * algorithm, which follows chains of nearest neighbours until two clusters are each other's nearest neighbour
+     * and merges them. It needs no memory besides the distance matrix, which is updated in place with the
+     * Lance-Williams formulas. The distances may be infinite, but not NaN.
+     * <p>
+     * [1] Daniel Müllner. 2011. Modern hierarchical, agglomerative clustering algorithms. arXiv:1109.2378.
+     *
+     * @param distances The condensed distance matrix, overwritten.
+     * @param n         Number of observations.
+     * @param linkage   The linkage criterion.
+     * @return The linkage matrix, with a column (first cluster, second cluster, distance, size) per merge, sorted by
+     * distance. The observations are the clusters 0 to n - 1 and merge j creates the cluster n + j.
+     */
+    static double[] linkage(double[] distances, int n, Clustering.Linkage linkage) {
+        int merges = Math.max(0, n - 1);
+        int[] first = new int[merges];
+        int[] second = new int[merges];
+        double[] heights = new double[merges];
+        int[] sizes = new int[n];
+        Arrays.fill(sizes, 1);
+        int[] chain = new int[n];
+        int length = 0;
+        for (int step = 0; step < merges; step++) {
+            if (length == 0) {
+                int start = 0;
+                while (sizes[start] == 0) start++;
+                chain[length++] = start;
+            }
+            int x;
+            int y;
+            double min;
+            while (true) {
+                x = chain[length - 1];
+                // The previous element of the chain wins the ties, so the chain never cycles.
+                y = length > 1 ? chain[length - 2] : -1;
+                min = y >= 0 ? distances[condensed(n, x, y)] : Double.POSITIVE_INFINITY;
+                for (int i = 0; i < n; i++) {
+                    if (sizes[i] == 0 || i == x) {
+                        continue;
+                    }
+                    double d = distances[condensed(n, x, i)];
+                    if (d < min) {
+                        min = d;
+                        y = i;
+                    }
+                }
+                if (y < 0) {
+                    // Every other cluster is infinitely far from x, so any of them is a nearest neighbour.
+                    y = x == 0 ? 1 : 0;
+                    while (sizes[y] == 0 || y == x) y++;
+                }
+                if (length > 1 && y == chain[length - 2]) {
+                    break;
+                }
+                chain[length++] = y;
+            }
+            length -= 2;
+            if (x > y) {
+                int t = x;
+                x = y;
+                y = t;
+            }
+            first[step] = x;
+            second[step] = y;
+            heights[step] = min;
+            // The merged cluster takes the place of y.
+            int nx = sizes[x];
+            int ny = sizes[y];
+            sizes[x] = 0;
+            sizes[y] = nx + ny;
+            for (int i = 0; i < n; i++) {
+                if (sizes[i] == 0 || i == y) {
+                    continue;
+                }
+                int xi = condensed(n, x, i);
+                int yi = condensed(n, y, i);
+                distances[yi] = update(linkage, distances[xi], distances[yi], min, nx, ny, sizes[i]);
+            }
+        }
+
+        // Sorts the merges by distance, keeping the order of the ties, and relabels them so that merge j creates
+        // the cluster n + j.
+        Integer[] order = new Integer[merges];
+        for (int j = 0; j < merges; j++) order[j] = j;
+        Arrays.sort(order, (a, b) -> Double.compare(heights[a], heights[b]));
+        int[] parent = new int[2 * n];
+        int[] clusterSizes = new int[2 * n];
+        for (int i = 0; i < 2 * n; i++) {
+            parent[i] = i;
+            clusterSizes[i] = 1;
+        }
+        double[] result = new double[4 * merges];
+        for (int j = 0; j < merges; j++) {
+            int a = find(parent, first[order[j]]);
+            int b = find(parent, second[order[j]]);
+            int created = n + j;
+            result[4 * j] = Math.min(a, b);
+            result[4 * j + 1] = Math.max(a, b);
+            result[4 * j + 2] = heights[order[j]];
+            clusterSizes[created] = clusterSizes[a] + clusterSizes[b];
+            result[4 * j + 3] = clusterSizes[created];
+            parent[a] = created;
+            parent[b] = created;
+        }
+        return result;
+    }
+
+    // Lance-Williams update of the distance between cluster i and the union of clusters x and y.
+    private static double update(Clustering.Linkage linkage, double xi, double yi, double xy, int nx, int ny,
+                                 int ni) {
+        switch (linkage) {
+            case SINGLE:
+                return Math.min(xi, yi);
+            case COMPLETE:
+                return Math.max(xi, yi);
+            case AVERAGE:
+                return (nx * xi + ny * yi) / (nx + ny);
+            default:
+                // A cluster infinitely far from x or y stays infinitely far from their union.
+                if (Double.isInfinite(xi) || Double.isInfinite(yi)) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                double squared = ((nx + ni) * xi * xi + (ny + ni) * yi * yi - ni * xy * xy) / (nx + ny + ni);
+                return Math.sqrt(Math.max(0, squared));
+        }
+    }
+
+    private static int condensed(int n, int i, int j) {
+        if (i > j) {
+            int t = i;
+            i = j;
+            j = t;
+        }
+        return (int) ((long) n * i - (long) i * (i + 1) / 2 + (j - i - 1));
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Cuts a dendrogram into flat clusters, applying only its first merges.
+     *
+     * @param linkage The linkage matrix, with a column (first cluster, second cluster, distance, size) per merge.
+     * @param n       Number of observations.
+     * @param merges  Number of merges applied.
+     * @return The label of every observation, numbered from 0 in the order of their first observation.
+     */
+    static int[] cut(double[] linkage, int n, int merges) {
+        int[] parent = new int[2 * n];
+        for (int i = 0; i < 2 * n; i++) parent[i] = i;
+        for (int j = 0; j < merges; j++) {
+            parent[(int) linkage[4 * j]] = n + j;
+            parent[(int) linkage[4 * j + 1]] = n + j;
+        }
+        int[] labels = new int[n];
+        int[] rootLabels = new int[2 * n];
+        Arrays.fill(rootLabels, -1);
+        int next = 0;
+        for (int i = 0; i < n; i++) {
+            int root = find(parent, i);
+            if (rootLabels[root] < 0) {
+                rootLabels[root] = next++;
+            }
+            labels[i] = rootLabels[root];
+        }
+        return labels;
+    }
+}
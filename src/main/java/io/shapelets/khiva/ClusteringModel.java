@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Khiva Clustering Model class. It holds the centroids of a clustering, as returned by {@link Clustering}, and
+ * assigns new time series to them without running the clustering again. The centroids are kept in a native array,
+ * along with the data the assignments need already prepared: the centroids themselves for the euclidean distance
+ * and their spectra for the Shape-Based distance.
+ * <p>
+ * Models are stored in a compact little endian binary file with the following layout:
+ * - A 32 bytes header with the magic number, the format version, the centroids data type, the metric, the length of
+ * the centroids and their number.
+ * - The centroids values, stored with the centroids data type (f32 or f64).
+ */
+public class ClusteringModel implements AutoCloseable {
+
+    private static final int MAGIC = 0x4B434C4D;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    // Codes of the centroids data types in the file, f32 and f64.
+    private static final Dtype[] TYPE_CODES = {Dtype.f32, Dtype.f64};
+
+    // Codes of the metrics in the file, euclidean and SBD.
+    private static final Distances.Metric[] METRIC_CODES = {Distances.Metric.EUCLIDEAN, Distances.Metric.SBD};
+
+    private final Array centroids;
+
+    private final Distances.Metric metric;
+
+    private final int length;
+
+    private final int count;
+
+    private final double[] values;
+
+    private final PreparedSbd sbd;
+
+    /**
+     * Creates a model from the given centroids. The centroids are copied, so the array may be closed afterwards.
+     *
+     * @param centroids Array whose first dimension is the length of the time series and the second dimension is the
+     *                  number of centroids, e.g. the first array returned by {@link Clustering#kMeans} or
+     *                  {@link Clustering#kShape}.
+     * @param metric    The metric of the assignments, euclidean (for k-means) or SBD (for k-Shape).
+     * @throws IllegalArgumentException If the metric is not euclidean or SBD, or the centroids are not of type f32 or
+     *                                  f64.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public ClusteringModel(Array centroids, Distances.Metric metric) {
+        // The centroids are copied last, so nothing is left to be closed if the validation or the read fails.
+        this(validate(centroids, metric).getDataAsDouble(), Array.copy(centroids), metric);
+    }
+
+    private ClusteringModel(double[] values, Array centroids, Distances.Metric metric) {
+        long[] dims = centroids.getDims();
+        this.centroids = centroids;
+        this.metric = metric;
+        this.length = (int) dims[0];
+        this.count = (int) dims[1];
+        this.values = values;
+        this.sbd = metric == Distances.Metric.SBD ? new PreparedSbd(values, length, count) : null;
+    }
+
+    private static Array validate(Array centroids, Distances.Metric metric) {
+        if (code(METRIC_CODES, metric) < 0) {
+            throw new IllegalArgumentException("The metric must be EUCLIDEAN or SBD");
+        }
+        if (code(TYPE_CODES, centroids.getType()) < 0) {
+            throw new IllegalArgumentException("The centroids must be of type f32 or f64");
+        }
+        return centroids;
+    }
+
+    private static <T> int code(T[] codes, T value) {
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Assigns every time series to its closest centroid.
+     *
+     * @param tss Array whose first dimension is the length of the time series (the same as the centroids) and the
+     *            second dimension is the number of time series.
+     * @return Array with the index of the closest centroid of every time series.
+     * @throws IllegalArgumentException If the time series length does not match the centroids one.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public Array predict(Array tss) {
+        long[] dims = tss.getDims();
+        if (dims[0] != length) {
+            throw new IllegalArgumentException("The time series must have the same length as the centroids");
+        }
+        int n = (int) dims[1];
+        double[] data = tss.getDataAsDouble();
+        int[] labels = new int[n];
+        if (sbd == null) {
+            ClusteringKernels.assign(data, length, n, values, count, labels);
+        } else {
+            double[] distances = sbd.distances(data, n);
+            for (int i = 0; i < n; i++) {
+                double best = Double.POSITIVE_INFINITY;
+                for (int c = 0; c < count; c++) {
+                    if (distances[i + c * n] < best) {
+                        best = distances[i + c * n];
+                        labels[i] = c;
+                    }
+                }
+            }
+        }
+        return Array.fromPrimitiveArray(labels, new long[]{n});
+    }
+
+    /**
+     * Writes the model to the given path, replacing the file if it already exists.
+     *
+     * @param path The path of the file to be written.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(Path path) throws IOException {
+        Objects.requireNonNull(path, "Null path provided");
+        Dtype type = centroids.getType();
+        int size = type == Dtype.f64 ? Double.BYTES : Float.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + values.length * size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(code(TYPE_CODES, type)).putInt(code(METRIC_CODES, metric));
+        buffer.putLong(length).putLong(count);
+        for (double v : values) {
+            if (type == Dtype.f64) {
+                buffer.putDouble(v);
+            } else {
+                buffer.putFloat((float) v);
+            }
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads a model previously written with {@link #save(Path)}.
+     *
+     * @param path The path of the file to be read.
+     * @return The model.
+     * @throws IOException              If the file cannot be read.
+     * @throws IllegalArgumentException If the file is not a valid clustering model file.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static ClusteringModel load(Path path) throws IOException {
+        Objects.requireNonNull(path, "Null path provided");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IllegalArgumentException("Not a clustering model file: " + path);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE))
+                                          .order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Reads the whole file.
+            }
+            buffer.flip();
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a clustering model file: " + path);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported clustering model file version: " + version);
+            }
+            int typeCode = buffer.getInt();
+            if (typeCode < 0 || typeCode >= TYPE_CODES.length) {
+                throw new IllegalArgumentException("Unsupported clustering model type: " + typeCode);
+            }
+            Dtype type = TYPE_CODES[typeCode];
+            int metricCode = buffer.getInt();
+            if (metricCode < 0 || metricCode >= METRIC_CODES.length) {
+                throw new IllegalArgumentException("Unsupported clustering model metric: " + metricCode);
+            }
+            Distances.Metric metric = METRIC_CODES[metricCode];
+            long length = buffer.getLong();
+            long count = buffer.getLong();
+            int size = type == Dtype.f64 ? Double.BYTES : Float.BYTES;
+            if (length < 0 || count < 0 || channel.size() != HEADER_SIZE + length * count * size) {
+                throw new IllegalArgumentException("Truncated clustering model file: " + path);
+            }
+            double[] values = new double[(int) (length * count)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = type == Dtype.f64 ? buffer.getDouble() : buffer.getFloat();
+            }
+            Array centroids = Array.fromDoubleData(values, new long[]{length, count}, type);
+            return new ClusteringModel(values, centroids, metric);
+        }
+    }
+
+    /**
+     * Gets the centroids. The array belongs to the model and is closed along with it.
+     *
+     * @return The centroids.
+     */
+    public Array getCentroids() {
+        return centroids;
+    }
+
+    /**
+     * Gets the metric of the assignments.
+     *
+     * @return The metric.
+     */
+    public Distances.Metric getMetric() {
+        return metric;
+    }
+
+    /**
+     * Gets the length of the centroids.
+     *
+     * @return The length.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the number of centroids.
+     *
+     * @return The number of centroids.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Releases the native array of the centroids.
+     */
+    @Override
+    public void close() {
+        centroids.close();
+    }
+}
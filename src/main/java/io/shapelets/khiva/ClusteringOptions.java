@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Khiva Clustering Options class. It gathers the optional settings of the clustering methods of {@link Clustering}.
+ * The setters return the options themselves, so they can be chained.
+ */
+public class ClusteringOptions {
+
+    /**
+     * Choice of the initial centroids.
+     */
+    public enum Initialization {
+        /**
+         * k distinct time series chosen uniformly at random.
+         */
+        RANDOM,
+        /**
+         * k-means++ seeding: the first centroid is chosen uniformly at random and every other one with probability
+         * proportional to the squared distance of the time series to its closest centroid chosen so far.
+         * <p>
+         * [1] David Arthur and Sergei Vassilvitskii. 2007. k-means++: The Advantages of Careful Seeding. SODA 2007,
+         * Pages 1027-1035.
+         */
+        KMEANS_PLUS_PLUS
+    }
+
+    /**
+     * Algorithm of the assignments of k-means. All of them give the same results.
+     */
+    public enum Algorithm {
+        /**
+         * Lloyd's algorithm, which calculates the distances between every time series and every centroid.
+         */
+        LLOYD,
+        /**
+         * Elkan's algorithm, which keeps a lower bound of the distance between every time series and every centroid
+         * and skips the distances that cannot change the assignment. It skips the most distances, at the cost of
+         * memory proportional to the number of time series times the number of centroids.
+         * <p>
+         * [1] Charles Elkan. 2003. Using the Triangle Inequality to Accelerate k-Means. ICML 2003, Pages 147-153.
+         */
+        ELKAN,
+        /**
+         * Hamerly's algorithm, which keeps a single lower bound per time series. It skips fewer distances than
+         * Elkan's algorithm with memory proportional to the number of time series only, and fits a low number of
+         * centroids best.
+         * <p>
+         * [1] Greg Hamerly. 2010. Making k-means even faster. SDM 2010, Pages 130-140.
+         */
+        HAMERLY
+    }
+
+    /**
+     * Listener notified of the progress of a clustering after every iteration. With several restarts it is called
+     * concurrently from the threads running them, so it must be thread-safe.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after every iteration.
+         *
+         * @param restart      Index of the restart, from 0.
+         * @param iteration    Number of the iteration, from 1.
+         * @param inertia      Inertia of the assignment of the iteration with respect to the updated centroids: the
+         *                     sum of the squared euclidean distances for k-means, and the sum of the Shape-Based
+         *                     distances for k-Shape.
+         * @param shift        Sum of the squared distances moved by the centroids in the iteration.
+         * @param elapsedNanos Time elapsed since the beginning of the restart, in nanoseconds.
+         * @return Whether to continue. When false, the restart stops and keeps its current centroids, e.g. when the
+         * improvements flatten.
+         */
+        boolean iterationDone(int restart, int iteration, double inertia, double shift, long elapsedNanos);
+    }
+
+    private Initialization initialization = Initialization.KMEANS_PLUS_PLUS;
+
+    private Algorithm algorithm = Algorithm.LLOYD;
+
+    private ClusteringStatistics statistics;
+
+    private int restarts = 1;
+
+    private ForkJoinPool pool;
+
+    private ProgressListener progressListener;
+
+    private BooleanSupplier cancellation;
+
+    private Array initialCentroids;
+
+    private Long seed;
+
+    /**
+     * Sets the choice of the initial centroids, k-means++ by default. It is ignored if initial centroids are given.
+     *
+     * @param initialization The choice of the initial centroids.
+     * @return These options.
+     */
+    public ClusteringOptions setInitialization(Initialization initialization) {
+        this.initialization = initialization;
+        return this;
+    }
+
+    /**
+     * Sets the initial centroids, e.g. the ones of a previous clustering of similar data, so the clustering starts
+     * close to a solution. The array is not closed.
+     *
+     * @param initialCentroids Array whose first dimension is the length of the time series and the second dimension
+     *                         is the number of centroids.
+     * @return These options.
+     */
+    public ClusteringOptions setInitialCentroids(Array initialCentroids) {
+        this.initialCentroids = initialCentroids;
+        return this;
+    }
+
+    /**
+     * Sets the seed of the random choices, so the results are reproducible. Without a seed every run makes different
+     * choices.
+     *
+     * @param seed The seed.
+     * @return These options.
+     */
+    public ClusteringOptions setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Sets the algorithm of the assignments of k-means, Lloyd's by default. It is ignored by the rest of the methods.
+     *
+     * @param algorithm The algorithm.
+     * @return These options.
+     */
+    public ClusteringOptions setAlgorithm(Algorithm algorithm) {
+        this.algorithm = algorithm;
+        return this;
+    }
+
+    /**
+     * Sets the object receiving the statistics of the runs with these options.
+     *
+     * @param statistics The statistics, or null to discard them.
+     * @return These options.
+     */
+    public ClusteringOptions setStatistics(ClusteringStatistics statistics) {
+        this.statistics = statistics;
+        return this;
+    }
+
+    /**
+     * Sets the number of restarts, each one from different initial centroids, of which the solution with the lowest
+     * inertia is returned. The restarts run concurrently and share the prepared time series. If initial centroids are
+     * given, the first restart starts from them and the rest as the initialization says.
+     *
+     * @param restarts The number of restarts, 1 by default.
+     * @return These options.
+     * @throws IllegalArgumentException If the number of restarts is not positive.
+     */
+    public ClusteringOptions setRestarts(int restarts) {
+        if (restarts <= 0) {
+            throw new IllegalArgumentException("The number of restarts must be positive");
+        }
+        this.restarts = restarts;
+        return this;
+    }
+
+    /**
+     * Sets the pool running the restarts.
+     *
+     * @param pool The pool, or null to use {@link ForkJoinPool#commonPool()}.
+     * @return These options.
+     */
+    public ClusteringOptions setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Sets the listener notified of the progress of the clustering after every iteration.
+     *
+     * @param progressListener The listener, or null for none.
+     * @return These options.
+     */
+    public ClusteringOptions setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * Sets the condition cancelling the clustering, e.g. {@code flag::get} on an {@code AtomicBoolean} or a
+     * deadline check. It is checked before every iteration, along with the interrupted status of the thread calling
+     * the clustering, and the clustering throws a {@link java.util.concurrent.CancellationException} as soon as
+     * either of them is set.
+     *
+     * @param cancellation The condition, or null for none.
+     * @return These options.
+     */
+    public ClusteringOptions setCancellation(BooleanSupplier cancellation) {
+        this.cancellation = cancellation;
+        return this;
+    }
+
+    /**
+     * Gets the choice of the initial centroids.
+     *
+     * @return The choice of the initial centroids.
+     */
+    public Initialization getInitialization() {
+        return initialization;
+    }
+
+    /**
+     * Gets the initial centroids.
+     *
+     * @return The initial centroids, or null if they are not given.
+     */
+    public Array getInitialCentroids() {
+        return initialCentroids;
+    }
+
+    /**
+     * Gets the seed of the random choices.
+     *
+     * @return The seed, or null if it is not set.
+     */
+    public Long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Gets the algorithm of the assignments of k-means.
+     *
+     * @return The algorithm.
+     */
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Gets the object receiving the statistics of the runs.
+     *
+     * @return The statistics, or null if they are discarded.
+     */
+    public ClusteringStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Gets the number of restarts.
+     *
+     * @return The number of restarts.
+     */
+    public int getRestarts() {
+        return restarts;
+    }
+
+    /**
+     * Gets the pool running the restarts.
+     *
+     * @return The pool.
+     */
+    public ForkJoinPool getPool() {
+        return pool == null ? ForkJoinPool.commonPool() : pool;
+    }
+
+    /**
+     * Gets the listener notified of the progress of the clustering.
+     *
+     * @return The listener, or null if there is none.
+     */
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    /**
+     * Gets the condition cancelling the clustering.
+     *
+     * @return The condition, or null if there is none.
+     */
+    public BooleanSupplier getCancellation() {
+        return cancellation;
+    }
+
+    /**
+     * Creates the source of randomness of a clustering.
+     *
+     * @return A generator initialised with the seed, if set.
+     */
+    Random random() {
+        return seed == null ? new Random() : new Random(seed);
+    }
+}
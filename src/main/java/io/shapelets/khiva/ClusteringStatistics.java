@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+/**
+ * Khiva Clustering Statistics class. It receives the statistics of a clustering run through
+ * {@link ClusteringOptions#setStatistics(ClusteringStatistics)}.
+ */
+public class ClusteringStatistics {
+
+    private int iterations;
+
+    private long candidates;
+
+    private long computed;
+
+    private double inertia = Double.NaN;
+
+    void record(int iterations, long candidates, long computed) {
+        this.iterations = iterations;
+        this.candidates = candidates;
+        this.computed = computed;
+    }
+
+    void record(ClusteringStatistics other) {
+        record(other.iterations, other.candidates, other.computed);
+        this.inertia = other.inertia;
+    }
+
+    void setInertia(double inertia) {
+        this.inertia = inertia;
+    }
+
+    /**
+     * Gets the number of iterations run.
+     *
+     * @return The number of iterations.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Gets the inertia of the solution: the sum of the squared euclidean distances between the time series and their
+     * centroids for k-means, and the sum of the Shape-Based distances for k-Shape. Lower is better.
+     *
+     * @return The inertia.
+     */
+    public double getInertia() {
+        return inertia;
+    }
+
+    /**
+     * Gets the number of distances between time series and centroids that a plain Lloyd run calculates.
+     *
+     * @return The number of candidate distances.
+     */
+    public long getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * Gets the number of distances between time series and centroids actually calculated.
+     *
+     * @return The number of distances calculated.
+     */
+    public long getComputed() {
+        return computed;
+    }
+
+    /**
+     * Gets the number of distances between time series and centroids skipped thanks to the bounds.
+     *
+     * @return The number of distances skipped.
+     */
+    public long getSkipped() {
+        return candidates - computed;
+    }
+
+    /**
+     * Gets the fraction of the candidate distances skipped.
+     *
+     * @return The number of distances skipped divided by the number of candidates, or 0 without candidates.
+     */
+    public double getSkippedRatio() {
+        return candidates == 0 ? 0 : (double) getSkipped() / candidates;
+    }
+}
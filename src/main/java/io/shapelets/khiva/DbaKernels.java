@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * DTW Barycenter Averaging k-means kernels implemented on the Java side. The time series and the centroids are stored
+ * one after the other in a single array, and the distances are the windowed DTW distances of {@link DtwKernels}.
+ */
+final class DbaKernels {
+
+    // Number of time series per block. The blocks are distributed among the threads, and the points aligned by every
+    // block are gathered per point of the centroids, so the result does not depend on the number of threads.
+    private static final int BLOCK = 64;
+
+    private DbaKernels() {
+    }
+
+    /**
+     * Runs the DBA k-means algorithm from the given centroids. Every iteration assigns every time series to the
+     * centroid with the lowest DTW distance, skipping the centroids whose LB_Kim or LB_Keogh lower bound exceeds the
+     * best distance so far and abandoning the rest as soon as they exceed it, and then replaces every point of every
+     * centroid with the median of the points of its time series aligned with it along the best warping paths. The
+     * median minimizes the sum of the absolute differences, the cost of the DTW distance, so the inertia does not
+     * increase between iterations. Both steps process blocks of time series in parallel.
+     *
+     * @param data          Time series stored one after the other.
+     * @param n             Length of the time series.
+     * @param count         Number of time series.
+     * @param centroids     The initial centroids, updated in place.
+     * @param k             Number of centroids.
+     * @param window        The warping window.
+     * @param tolerance     Maximum sum of the squared distances moved by the centroids to stop.
+     * @param maxIterations Maximum number of iterations.
+     * @param labels        The index of the closest centroid of every time series, updated in place.
+     * @param statistics    The statistics of the distances, or null.
+     * @param progress      The progress of the run, or null.
+     * @param pool          The pool running the blocks.
+     * @return The inertia, the sum of the DTW distances between the time series and their centroids.
+     */
+    static double kMeans(double[] data, int n, int count, double[] centroids, int k, DtwWindow window,
+                         double tolerance, int maxIterations, int[] labels, ClusteringStatistics statistics,
+                         ClusteringKernels.Progress progress, ForkJoinPool pool) {
+        int[] bounds = window.bounds(n, n);
+        int blocks = (count + BLOCK - 1) / BLOCK;
+        double[] distances = new double[count];
+        long[] computed = new long[blocks];
+        double[] upper = new double[k * n];
+        double[] lower = new double[k * n];
+        Aligned[] aligned = new Aligned[blocks];
+        for (int block = 0; block < blocks; block++) {
+            aligned[block] = new Aligned();
+        }
+        ThreadLocal<DtwKernels.Workspace> workspaces = ThreadLocal.withInitial(DtwKernels.Workspace::new);
+        int iteration = 0;
+        int assignments = 0;
+        while (iteration < maxIterations) {
+            iteration++;
+            assign(data, n, count, centroids, k, bounds, upper, lower, labels, distances, computed, workspaces, pool);
+            assignments++;
+            pool.invoke(new Blocks(0, blocks, block -> {
+                Aligned blockAligned = aligned[block];
+                blockAligned.size = 0;
+                DtwKernels.Workspace workspace = workspaces.get();
+                for (int i = block * BLOCK; i < Math.min(count, (block + 1) * BLOCK); i++) {
+                    int from = i * n;
+                    int to = labels[i] * n;
+                    DtwKernels.align(data, from, n, centroids, to, n, bounds,
+                            (p, q) -> blockAligned.add(to + q, data[from + p]), workspace);
+                }
+            }));
+            double shift = update(centroids, aligned);
+            boolean proceed = progress == null || progress.iterationDone(iteration, () -> {
+                double total = 0;
+                for (double d : distances) total += d;
+                return total;
+            }, shift);
+            if (shift <= tolerance || !proceed) {
+                break;
+            }
+        }
+        assign(data, n, count, centroids, k, bounds, upper, lower, labels, distances, computed, workspaces, pool);
+        assignments++;
+        if (statistics != null) {
+            long total = 0;
+            for (long c : computed) total += c;
+            statistics.record(iteration, (long) assignments * count * k, total);
+        }
+        double inertia = 0;
+        for (double d : distances) inertia += d;
+        return inertia;
+    }
+
+    // Assigns every time series to its closest centroid, starting from its previous one, which is usually the closest
+    // and gives a tight bound to prune the rest. The ties are resolved in favour of the lowest index, as without
+    // pruning. The number of distances calculated is added to the counter of every block.
+    private static void assign(double[] data, int n, int count, double[] centroids, int k, int[] bounds,
+                               double[] upper, double[] lower, int[] labels, double[] distances, long[] computed,
+                               ThreadLocal<DtwKernels.Workspace> workspaces, ForkJoinPool pool) {
+        for (int c = 0; c < k; c++) {
+            DtwSearch.envelope(centroids, c * n, n, bounds, upper, lower, c * n);
+        }
+        pool.invoke(new Blocks(0, computed.length, block -> {
+            DtwKernels.Workspace workspace = workspaces.get();
+            long distancesComputed = 0;
+            for (int i = block * BLOCK; i < Math.min(count, (block + 1) * BLOCK); i++) {
+                int from = i * n;
+                int best = labels[i];
+                double bestDistance = DtwKernels.distance(data, from, n, centroids, best * n, n, bounds,
+                        Double.POSITIVE_INFINITY, workspace);
+                distancesComputed++;
+                for (int c = 0; c < k; c++) {
+                    if (c == labels[i]) {
+                        continue;
+                    }
+                    double lb = DtwSearch.lbKim(data, from, centroids, c * n, n);
+                    if (lb > bestDistance || (lb == bestDistance && c > best)) {
+                        continue;
+                    }
+                    lb = DtwSearch.lbKeogh(data, from, n, upper, lower, c * n, bestDistance);
+                    if (lb > bestDistance || (lb == bestDistance && c > best)) {
+                        continue;
+                    }
+                    double d = DtwKernels.distance(data, from, n, centroids, c * n, n, bounds, bestDistance,
+                            workspace);
+                    distancesComputed++;
+                    if (d < bestDistance || (d == bestDistance && c < best)) {
+                        best = c;
+                        bestDistance = d;
+                    }
+                }
+                labels[i] = best;
+                distances[i] = bestDistance;
+            }
+            computed[block] += distancesComputed;
+        }));
+    }
+
+    // Replaces every point of the centroids with the median of the points aligned with it, the mean of the two middle
+    // ones for an even number of them, and returns the sum of the squared distances moved. The centroids without time
+    // series are kept.
+    private static double update(double[] centroids, Aligned[] aligned) {
+        int[] start = new int[centroids.length + 1];
+        for (Aligned block : aligned) {
+            for (int i = 0; i < block.size; i++) {
+                start[block.points[i] + 1]++;
+            }
+        }
+        for (int p = 0; p < centroids.length; p++) {
+            start[p + 1] += start[p];
+        }
+        double[] values = new double[start[centroids.length]];
+        int[] next = Arrays.copyOf(start, centroids.length);
+        for (Aligned block : aligned) {
+            for (int i = 0; i < block.size; i++) {
+                values[next[block.points[i]]++] = block.values[i];
+            }
+        }
+        double shift = 0;
+        for (int p = 0; p < centroids.length; p++) {
+            int from = start[p];
+            int to = start[p + 1];
+            if (to > from) {
+                Arrays.sort(values, from, to);
+                int middle = (from + to) >>> 1;
+                double median = (to - from) % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+                double d = median - centroids[p];
+                shift += d * d;
+                centroids[p] = median;
+            }
+        }
+        return shift;
+    }
+
+    // Points of the time series of a block aligned with the points of the centroids, given by their position.
+    private static final class Aligned {
+        int[] points = new int[0];
+        double[] values = new double[0];
+        int size;
+
+        void add(int point, double value) {
+            if (size == points.length) {
+                int capacity = Math.max(16, 2 * size);
+                points = Arrays.copyOf(points, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            points[size] = point;
+            values[size++] = value;
+        }
+    }
+
+    private interface BlockAction {
+        void run(int block);
+    }
+
+    // Runs the action on a range of blocks, splitting it by recursive halving.
+    private static final class Blocks extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final BlockAction action;
+
+        Blocks(int from, int to, BlockAction action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Blocks(from, middle, action), new Blocks(middle, to, action));
+            } else if (to > from) {
+                action.run(from);
+            }
+        }
+    }
+}
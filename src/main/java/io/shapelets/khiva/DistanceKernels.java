@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.util.Arrays;
+
+/**
+ * Distance kernels implemented on the Java side, with the same definitions as the native distances of
+ * {@link Distances}. The time series are stored one after the other in a single array.
+ */
+final class DistanceKernels {
+
+    // Below this length the cross-correlation is calculated directly instead of through the FFT.
+    static final int DIRECT_CORRELATION_LENGTH = 64;
+
+    private DistanceKernels() {
+    }
+
+    /**
+     * Reusable buffers, so no memory is allocated per pair.
+     */
+    static final class Workspace {
+        final DtwKernels.Workspace dtw = new DtwKernels.Workspace();
+        final DtwWindow window;
+        int[] dtwBounds = new int[0];
+        double[] aRe = new double[0];
+        double[] aIm = new double[0];
+        double[] bRe = new double[0];
+        double[] bIm = new double[0];
+
+        Workspace() {
+            this(DtwWindow.none());
+        }
+
+        /**
+         * Creates the buffers for DTW distances restricted to the given window.
+         *
+         * @param window The warping window.
+         */
+        Workspace(DtwWindow window) {
+            this.window = window;
+        }
+
+        int[] dtwBounds(int n) {
+            if (dtwBounds.length != 2 * n) {
+                dtwBounds = window.bounds(n, n);
+            }
+            return dtwBounds;
+        }
+
+        void ensureSpectra(int size) {
+            if (aRe.length != size) {
+                aRe = new double[size];
+                aIm = new double[size];
+                bRe = new double[size];
+                bIm = new double[size];
+            }
+        }
+    }
+
+    /**
+     * Prepares the time series for the given metric. The Shape-Based distance works on z-normalized time series,
+     * so a normalized copy is returned for it. The data is returned as is for the rest of the metrics.
+     *
+     * @param metric The metric.
+     * @param data   Time series stored one after the other.
+     * @param n      Length of every time series.
+     * @param count  Number of time series.
+     * @return The prepared time series.
+     */
+    static double[] prepare(Distances.Metric metric, double[] data, int n, int count) {
+        if (metric != Distances.Metric.SBD) {
+            return data;
+        }
+        double[] result = new double[n * count];
+        for (int s = 0; s < count; s++) {
+            int from = s * n;
+            double sum = 0;
+            for (int i = 0; i < n; i++) sum += data[from + i];
+            double mean = sum / n;
+            double squares = 0;
+            for (int i = 0; i < n; i++) {
+                double d = data[from + i] - mean;
+                squares += d * d;
+            }
+            double std = Math.sqrt(squares / n);
+            // Flat time series are left as zeros.
+            if (std > 0) {
+                for (int i = 0; i < n; i++) result[from + i] = (data[from + i] - mean) / std;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the distance between two prepared time series.
+     *
+     * @param metric    The metric.
+     * @param a         Array containing the first time series.
+     * @param aFrom     Offset of the first time series within a.
+     * @param b         Array containing the second time series.
+     * @param bFrom     Offset of the second time series within b.
+     * @param n         Length of both time series.
+     * @param workspace Reusable buffers.
+     * @return The distance.
+     */
+    static double distance(Distances.Metric metric, double[] a, int aFrom, double[] b, int bFrom, int n,
+                           Workspace workspace) {
+        return distance(metric, a, aFrom, b, bFrom, n, Double.POSITIVE_INFINITY, workspace);
+    }
+
+    /**
+     * Calculates the distance between two prepared time series, which may be abandoned once it is known to exceed
+     * the upper bound. Only the DTW distance is abandoned, the rest of the metrics are cheap enough to complete.
+     *
+     * @param metric     The metric.
+     * @param a          Array containing the first time series.
+     * @param aFrom      Offset of the first time series within a.
+     * @param b          Array containing the second time series.
+     * @param bFrom      Offset of the second time series within b.
+     * @param n          Length of both time series.
+     * @param upperBound Distance above which the calculation may be abandoned.
+     * @param workspace  Reusable buffers.
+     * @return The distance, or positive infinity if the calculation was abandoned.
+     */
+    static double distance(Distances.Metric metric, double[] a, int aFrom, double[] b, int bFrom, int n,
+                           double upperBound, Workspace workspace) {
+        double result = 0;
+        switch (metric) {
+            case EUCLIDEAN:
+            case SQUARED_EUCLIDEAN:
+                for (int i = 0; i < n; i++) {
+                    double d = a[aFrom + i] - b[bFrom + i];
+                    result += d * d;
+                }
+                return metric == Distances.Metric.EUCLIDEAN ? Math.sqrt(result) : result;
+            case MANHATTAN:
+                for (int i = 0; i < n; i++) result += Math.abs(a[aFrom + i] - b[bFrom + i]);
+                return result;
+            case HAMMING:
+                for (int i = 0; i < n; i++) {
+                    if (a[aFrom + i] != b[bFrom + i]) result++;
+                }
+                return result;
+            case SBD:
+                return sbd(a, aFrom, b, bFrom, n, workspace);
+            case DTW:
+                return DtwKernels.distance(a, aFrom, n, b, bFrom, n, workspace.dtwBounds(n), upperBound,
+                        workspace.dtw);
+            default:
+                throw new IllegalArgumentException("Unsupported metric " + metric);
+        }
+    }
+
+    // 1 minus the maximum of the normalized cross-correlation over every shift. When one of the time series is flat
+    // the correlation is taken as 0.
+    //
+    private static double sbd(double[] a, int aFrom, double[] b, int bFrom, int n, Workspace workspace) {
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < n; i++) {
+            normA += a[aFrom + i] * a[aFrom + i];
+            normB += b[bFrom + i] * b[bFrom + i];
+        }
+        double norm = Math.sqrt(normA * normB);
+        if (norm == 0) {
+            return 1;
+        }
+        double max = Double.NEGATIVE_INFINITY;
+        if (n <= DIRECT_CORRELATION_LENGTH) {
+            for (int shift = 1 - n; shift < n; shift++) {
+                double cc = 0;
+                for (int i = Math.max(0, shift); i < Math.min(n, n + shift); i++) {
+                    cc += a[aFrom + i] * b[bFrom + i - shift];
+                }
+                if (cc > max) max = cc;
+            }
+        } else {
+            int size = Fft.nextPowerOfTwo(2 * n - 1);
+            workspace.ensureSpectra(size);
+            double[] aRe = workspace.aRe;
+            double[] aIm = workspace.aIm;
+            double[] bRe = workspace.bRe;
+            double[] bIm = workspace.bIm;
+            Arrays.fill(aRe, 0);
+            Arrays.fill(aIm, 0);
+            Arrays.fill(bRe, 0);
+            Arrays.fill(bIm, 0);
+            System.arraycopy(a, aFrom, aRe, 0, n);
+            System.arraycopy(b, bFrom, bRe, 0, n);
+            Fft.transform(aRe, aIm, false);
+            Fft.transform(bRe, bIm, false);
+            max = maxCorrelation(aRe, aIm, bRe, bIm, n);
+        }
+        return 1 - max / norm;
+    }
+
+    /**
+     * Calculates the maximum cross-correlation of two time series from their spectra, padded to a power of two of at
+     * least 2 * n - 1 elements. The spectra of the first time series are overwritten.
+     *
+     * @param aRe Real part of the spectrum of the first time series.
+     * @param aIm Imaginary part of the spectrum of the first time series.
+     * @param bRe Real part of the spectrum of the second time series.
+     * @param bIm Imaginary part of the spectrum of the second time series.
+     * @param n   Length of the time series.
+     * @return The maximum cross-correlation.
+     */
+    static double maxCorrelation(double[] aRe, double[] aIm, double[] bRe, double[] bIm, int n) {
+        int size = aRe.length;
+        // Product with the conjugate of the second spectrum, so the inverse transform gives the correlation.
+        for (int i = 0; i < size; i++) {
+            double re = aRe[i] * bRe[i] + aIm[i] * bIm[i];
+            aIm[i] = aIm[i] * bRe[i] - aRe[i] * bIm[i];
+            aRe[i] = re;
+        }
+        Fft.transform(aRe, aIm, true);
+        double max = Double.NEGATIVE_INFINITY;
+        for (int shift = 0; shift < n; shift++) {
+            if (aRe[shift] > max) max = aRe[shift];
+        }
+        for (int shift = 1; shift < n; shift++) {
+            if (aRe[size - shift] > max) max = aRe[size - shift];
+        }
+        return max;
+    }
+
+    /**
+     * Calculates a block of the pairwise distance matrix of a collection of time series. Only the pairs above the
+     * diagonal are calculated, the rest of the block is filled with zeros.
+     *
+     * @param metric      The metric.
+     * @param data        Prepared time series stored one after the other.
+     * @param n           Length of every time series.
+     * @param firstRow    First row of the block.
+     * @param rows        Number of rows of the block.
+     * @param firstColumn First column of the block.
+     * @param columns     Number of columns of the block.
+     * @param block       Output array of at least rows * columns elements, stored by columns.
+     * @param workspace   Reusable buffers.
+     */
+    static void block(Distances.Metric metric, double[] data, int n, int firstRow, int rows, int firstColumn,
+                      int columns, double[] block, Workspace workspace) {
+        for (int c = 0; c < columns; c++) {
+            int j = firstColumn + c;
+            for (int r = 0; r < rows; r++) {
+                int i = firstRow + r;
+                block[r + c * rows] = i < j ? distance(metric, data, i * n, data, j * n, n, workspace) : 0;
+            }
+        }
+    }
+
+    /**
+     * Calculates the distance between every pair of time series of a collection in condensed form.
+     *
+     * @param metric The metric.
+     * @param data   Prepared time series stored one after the other.
+     * @param n      Length of every time series.
+     * @param count  Number of time series.
+     * @return Array of count * (count - 1) / 2 distances, ordered by the first time series of the pair and then by
+     * the second one, as indexed by {@link Distances#condensedIndex(long, long, long)}.
+     */
+    static double[] condensed(Distances.Metric metric, double[] data, int n, int count) {
+        long size = (long) count * (count - 1) / 2;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many time series for a condensed matrix in memory");
+        }
+        double[] result = new double[(int) size];
+        Workspace workspace = new Workspace();
+        int k = 0;
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                result[k++] = distance(metric, data, i * n, data, j * n, n, workspace);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the distance between every query and every reference.
+     *
+     * @param metric     The metric.
+     * @param queries    Prepared queries stored one after the other.
+     * @param qCount     Number of queries.
+     * @param references Prepared references stored one after the other.
+     * @param rCount     Number of references.
+     * @param n          Length of every time series.
+     * @param workspace  Reusable buffers.
+     * @return Matrix of qCount x rCount distances, stored by columns.
+     */
+    static double[] cross(Distances.Metric metric, double[] queries, int qCount, double[] references, int rCount,
+                          int n, Workspace workspace) {
+        double[] result = new double[qCount * rCount];
+        for (int j = 0; j < rCount; j++) {
+            for (int i = 0; i < qCount; i++) {
+                result[i + j * qCount] = distance(metric, queries, i * n, references, j * n, n, workspace);
+            }
+        }
+        return result;
+    }
+}
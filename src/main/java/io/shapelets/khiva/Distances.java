@@ -9,11 +9,69 @@
 
 package io.shapelets.khiva;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Khiva Distances class containing distances methods.
  */
 public class Distances extends Library {
 
+    /**
+     * Distance metrics available for the calculations done by blocks.
+     */
+    public enum Metric {
+        /**
+         * Euclidean distance.
+         */
+        EUCLIDEAN,
+        /**
+         * Squared euclidean distance.
+         */
+        SQUARED_EUCLIDEAN,
+        /**
+         * Manhattan distance.
+         */
+        MANHATTAN,
+        /**
+         * Hamming distance, the number of points that differ.
+         */
+        HAMMING,
+        /**
+         * Shape-Based distance of the z-normalized time series.
+         */
+        SBD,
+        /**
+         * Unconstrained Dynamic Time Warping distance.
+         */
+        DTW
+    }
+
+    /**
+     * Consumer of the blocks of a pairwise distance matrix.
+     */
+    public interface BlockConsumer {
+        /**
+         * Called once per block of the upper triangle of the distance matrix.
+         *
+         * @param firstRow    Index of the time series of the first row of the block.
+         * @param firstColumn Index of the time series of the first column of the block.
+         * @param rows        Number of rows of the block.
+         * @param columns     Number of columns of the block.
+         * @param block       The distances of the block, stored by columns. Position row i column j records the
+         *                    distance between time series firstRow + i and firstColumn + j, or zero if it is not
+         *                    above the diagonal. The array is reused between calls.
+         */
+        void accept(long firstRow, long firstColumn, int rows, int columns, double[] block);
+    }
+
     private native static long euclidean(long ref);
 
     private native static long dtw(long ref);
@@ -41,6 +99,40 @@ public class Distances extends Library {
         return Array.fromNative(ref);
     }
 
+    /**
+     * Calculates euclidean distances between time series with the given precision policy. The input is converted
+     * before the calculation, see {@link Precision} for the error bounds of every policy.
+     *
+     * @param tss       Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                  and dimension one indicates the number of time series.
+     * @param precision The precision policy.
+     * @return Array with an upper triangular matrix where each position corresponds to the distance between two
+     * time series, of type f64 for FP64 and f32 otherwise.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array euclidean(Array tss, Precision precision) {
+        try (Precision.Prepared input = precision.prepare(tss)) {
+            return precision.finish(euclidean(input.array));
+        }
+    }
+
+    /**
+     * Calculates euclidean distances between every query and every reference, without the distances within each
+     * collection.
+     *
+     * @param queries    Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                   and dimension one indicates the number of queries.
+     * @param references Expects an input array whose dimension zero is the length of the time series (the same as
+     *                   the queries) and dimension one indicates the number of references.
+     * @return Array with a matrix of queries x references elements where position row i column j records the
+     * distance between query i and reference j.
+     * @throws IllegalArgumentException If the queries and the references have different lengths.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array euclidean(Array queries, Array references) {
+        return cross(queries, references, Metric.EUCLIDEAN, new DistanceKernels.Workspace());
+    }
+
     /**
      * Calculates the Dynamic Time Warping Distance.
      *
@@ -56,6 +148,147 @@ public class Distances extends Library {
         return Array.fromNative(ref);
     }
 
+    /**
+     * Calculates the Dynamic Time Warping Distance with the given precision policy. The input is converted
+     * before the calculation, see {@link Precision} for the error bounds of every policy.
+     *
+     * @param tss       Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                  and dimension one indicates the number of time series.
+     * @param precision The precision policy.
+     * @return Array with an upper triangular matrix where each position corresponds to the distance between two
+     * time series, of type f64 for FP64 and f32 otherwise.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array dtw(Array tss, Precision precision) {
+        try (Precision.Prepared input = precision.prepare(tss)) {
+            return precision.finish(dtw(input.array));
+        }
+    }
+
+    /**
+     * Calculates the Dynamic Time Warping Distance with the warping path restricted to the given window, so the cost
+     * of every pair drops from O(n^2) to O(n * w).
+     *
+     * @param tss    Expects an input array whose dimension zero is the length of the time series (all the same) and
+     *               dimension one indicates the number of time series.
+     * @param window The warping window, e.g. {@link DtwWindow#sakoeChiba(int)} or {@link DtwWindow#itakura(double)}.
+     * @return Array with an upper triangular matrix where each position corresponds to the distance between
+     * two time series. Diagonal elements will be zero. For example: Position row 0 column 1 records the
+     * distance between time series 0 and time series 1.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array dtw(Array tss, DtwWindow window) {
+        return dtw(tss, window, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Calculates the Dynamic Time Warping Distance with the warping path restricted to the given window, abandoning
+     * the pairs whose distance exceeds the upper bound. The calculation of a pair stops as soon as every cell of a
+     * row of its cost matrix exceeds the bound, so hopeless pairs are rejected cheaply.
+     *
+     * @param tss        Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                   and dimension one indicates the number of time series.
+     * @param window     The warping window.
+     * @param upperBound Distance above which a pair is abandoned.
+     * @return Array with an upper triangular matrix where each position corresponds to the distance between
+     * two time series, or positive infinity if it exceeds the upper bound. Diagonal elements will be zero.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array dtw(Array tss, DtwWindow window, double upperBound) {
+        long[] dims = tss.getDims();
+        int n = (int) dims[0];
+        int count = (int) dims[1];
+        double[] result = DtwKernels.pairwise(tss.getDataAsDouble(), n, count, window, upperBound);
+        return Array.fromDoubleData(result, new long[]{count, count}, tss.getType());
+    }
+
+    /**
+     * Calculates the Dynamic Time Warping Distance in parallel, with the warping path restricted to the given window.
+     * The pairs are grouped in tiles distributed among the threads of the pool with work stealing, so the throughput
+     * scales with the cores even when the cost of the pairs is uneven, and no memory is allocated per pair.
+     *
+     * @param tss    Expects an input array whose dimension zero is the length of the time series (all the same) and
+     *               dimension one indicates the number of time series.
+     * @param window The warping window.
+     * @param pool   The pool running the calculation, e.g. {@link ForkJoinPool#commonPool()}.
+     * @return Array with an upper triangular matrix where each position corresponds to the distance between
+     * two time series. Diagonal elements will be zero.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array dtw(Array tss, DtwWindow window, ForkJoinPool pool) {
+        return dtw(tss, window, Double.POSITIVE_INFINITY, pool);
+    }
+
+    /**
+     * Calculates the Dynamic Time Warping Distance in parallel, with the warping path restricted to the given window
+     * and abandoning the pairs whose distance exceeds the upper bound.
+     *
+     * @param tss        Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                   and dimension one indicates the number of time series.
+     * @param window     The warping window.
+     * @param upperBound Distance above which a pair is abandoned.
+     * @param pool       The pool running the calculation.
+     * @return Array with an upper triangular matrix where each position corresponds to the distance between
+     * two time series, or positive infinity if it exceeds the upper bound. Diagonal elements will be zero.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array dtw(Array tss, DtwWindow window, double upperBound, ForkJoinPool pool) {
+        long[] dims = tss.getDims();
+        int n = (int) dims[0];
+        int count = (int) dims[1];
+        double[] result = DtwKernels.pairwise(tss.getDataAsDouble(), n, count, window, upperBound, pool);
+        return Array.fromDoubleData(result, new long[]{count, count}, tss.getType());
+    }
+
+    /**
+     * Calculates the Dynamic Time Warping Distance between every query and every reference.
+     *
+     * @param queries    Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                   and dimension one indicates the number of queries.
+     * @param references Expects an input array whose dimension zero is the length of the time series (the same as
+     *                   the queries) and dimension one indicates the number of references.
+     * @return Array with a matrix of queries x references elements where position row i column j records the
+     * distance between query i and reference j.
+     * @throws IllegalArgumentException If the queries and the references have different lengths.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array dtw(Array queries, Array references) {
+        return dtw(queries, references, DtwWindow.none());
+    }
+
+    /**
+     * Calculates the Dynamic Time Warping Distance between every query and every reference, with the warping
+     * path restricted to the given window.
+     *
+     * @param queries    Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                   and dimension one indicates the number of queries.
+     * @param references Expects an input array whose dimension zero is the length of the time series (the same as
+     *                   the queries) and dimension one indicates the number of references.
+     * @param window     The warping window.
+     * @return Array with a matrix of queries x references elements where position row i column j records the
+     * distance between query i and reference j.
+     * @throws IllegalArgumentException If the queries and the references have different lengths.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array dtw(Array queries, Array references, DtwWindow window) {
+        return cross(queries, references, Metric.DTW, new DistanceKernels.Workspace(window));
+    }
+
+    private static Array cross(Array queries, Array references, Metric metric, DistanceKernels.Workspace workspace) {
+        long[] qDims = queries.getDims();
+        long[] rDims = references.getDims();
+        if (qDims[0] != rDims[0]) {
+            throw new IllegalArgumentException("The queries and the references must have the same length");
+        }
+        int n = (int) qDims[0];
+        int qCount = (int) qDims[1];
+        int rCount = (int) rDims[1];
+        double[] q = DistanceKernels.prepare(metric, queries.getDataAsDouble(), n, qCount);
+        double[] r = DistanceKernels.prepare(metric, references.getDataAsDouble(), n, rCount);
+        double[] result = DistanceKernels.cross(metric, q, qCount, r, rCount, n, workspace);
+        return Array.fromDoubleData(result, new long[]{qCount, rCount}, queries.getType());
+    }
+
     /**
      * Calculates Hamming distances between time series.
      *
@@ -72,6 +305,22 @@ public class Distances extends Library {
         return Array.fromNative(ref);
     }
 
+    /**
+     * Calculates Hamming distances between every query and every reference.
+     *
+     * @param queries    Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                   and dimension one indicates the number of queries.
+     * @param references Expects an input array whose dimension zero is the length of the time series (the same as
+     *                   the queries) and dimension one indicates the number of references.
+     * @return Array with a matrix of queries x references elements where position row i column j records the
+     * distance between query i and reference j.
+     * @throws IllegalArgumentException If the queries and the references have different lengths.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array hamming(Array queries, Array references) {
+        return cross(queries, references, Metric.HAMMING, new DistanceKernels.Workspace());
+    }
+
     /**
      * Calculates the Shape-Based distance (SBD). It computes the normalized cross-correlation and it returns 1.0
      * minus the value that maximizes the correlation value between each pair of time series.
@@ -89,6 +338,39 @@ public class Distances extends Library {
         return Array.fromNative(ref);
     }
 
+    /**
+     * Calculates the Shape-Based distance (SBD) with the given precision policy. The input is converted
+     * before the calculation, see {@link Precision} for the error bounds of every policy.
+     *
+     * @param tss       Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                  and dimension one indicates the number of time series.
+     * @param precision The precision policy.
+     * @return Array with an upper triangular matrix where each position corresponds to the distance between two
+     * time series, of type f64 for FP64 and f32 otherwise.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array sbd(Array tss, Precision precision) {
+        try (Precision.Prepared input = precision.prepare(tss)) {
+            return precision.finish(sbd(input.array));
+        }
+    }
+
+    /**
+     * Calculates the Shape-Based distance (SBD) between every query and every reference.
+     *
+     * @param queries    Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                   and dimension one indicates the number of queries.
+     * @param references Expects an input array whose dimension zero is the length of the time series (the same as
+     *                   the queries) and dimension one indicates the number of references.
+     * @return Array with a matrix of queries x references elements where position row i column j records the
+     * distance between query i and reference j.
+     * @throws IllegalArgumentException If the queries and the references have different lengths.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array sbd(Array queries, Array references) {
+        return cross(queries, references, Metric.SBD, new DistanceKernels.Workspace());
+    }
+
     /**
      * Calculates Manhattan distances between time series.
      *
@@ -105,6 +387,39 @@ public class Distances extends Library {
         return Array.fromNative(ref);
     }
 
+    /**
+     * Calculates Manhattan distances between time series with the given precision policy. The input is converted
+     * before the calculation, see {@link Precision} for the error bounds of every policy.
+     *
+     * @param tss       Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                  and dimension one indicates the number of time series.
+     * @param precision The precision policy.
+     * @return Array with an upper triangular matrix where each position corresponds to the distance between two
+     * time series, of type f64 for FP64 and f32 otherwise.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array manhattan(Array tss, Precision precision) {
+        try (Precision.Prepared input = precision.prepare(tss)) {
+            return precision.finish(manhattan(input.array));
+        }
+    }
+
+    /**
+     * Calculates Manhattan distances between every query and every reference.
+     *
+     * @param queries    Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                   and dimension one indicates the number of queries.
+     * @param references Expects an input array whose dimension zero is the length of the time series (the same as
+     *                   the queries) and dimension one indicates the number of references.
+     * @return Array with a matrix of queries x references elements where position row i column j records the
+     * distance between query i and reference j.
+     * @throws IllegalArgumentException If the queries and the references have different lengths.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array manhattan(Array queries, Array references) {
+        return cross(queries, references, Metric.MANHATTAN, new DistanceKernels.Workspace());
+    }
+
     /**
      * Calculates the non squared version of the euclidean distance.
      *
@@ -118,4 +433,198 @@ public class Distances extends Library {
         long ref = squaredEuclidean(tss.getReference());
         return Array.fromNative(ref);
     }
+
+    /**
+     * Calculates squared euclidean distances between time series with the given precision policy. The input is
+     * converted before the calculation, see {@link Precision} for the error bounds of every policy.
+     *
+     * @param tss       Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                  and dimension one indicates the number of time series.
+     * @param precision The precision policy.
+     * @return Array with an upper triangular matrix where each position corresponds to the distance between two
+     * time series, of type f64 for FP64 and f32 otherwise.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array squaredEuclidean(Array tss, Precision precision) {
+        try (Precision.Prepared input = precision.prepare(tss)) {
+            return precision.finish(squaredEuclidean(input.array));
+        }
+    }
+
+    /**
+     * Calculates squared euclidean distances between every query and every reference.
+     *
+     * @param queries    Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                   and dimension one indicates the number of queries.
+     * @param references Expects an input array whose dimension zero is the length of the time series (the same as
+     *                   the queries) and dimension one indicates the number of references.
+     * @return Array with a matrix of queries x references elements where position row i column j records the
+     * distance between query i and reference j.
+     * @throws IllegalArgumentException If the queries and the references have different lengths.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array squaredEuclidean(Array queries, Array references) {
+        return cross(queries, references, Metric.SQUARED_EUCLIDEAN, new DistanceKernels.Workspace());
+    }
+
+    /**
+     * Calculates the distances between every pair of time series in condensed form. As every metric is symmetric
+     * with a zero diagonal, only the pairs above the diagonal are calculated and stored, which halves both the work
+     * and the memory of the full matrix. The layout is the one used as input by hierarchical clustering libraries:
+     * the distance between time series i and j, with i &lt; j, is at position
+     * {@link #condensedIndex(long, long, long)}.
+     *
+     * @param tss    Expects an input array whose dimension zero is the length of the time series (all the same) and
+     *               dimension one indicates the number of time series.
+     * @param metric The distance metric.
+     * @return Array with count * (count - 1) / 2 distances, of the same type as the input if it is f32 and f64
+     * otherwise.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array condensed(Array tss, Metric metric) {
+        long[] dims = tss.getDims();
+        int n = (int) dims[0];
+        int count = (int) dims[1];
+        double[] data = DistanceKernels.prepare(metric, tss.getDataAsDouble(), n, count);
+        double[] result = DistanceKernels.condensed(metric, data, n, count);
+        return Array.fromDoubleData(result, new long[]{result.length}, tss.getType());
+    }
+
+    /**
+     * Gets the position of the distance between time series i and j in a condensed distance matrix.
+     *
+     * @param count Number of time series.
+     * @param i     Index of the first time series.
+     * @param j     Index of the second time series, different from i.
+     * @return The position in the condensed matrix.
+     * @throws IllegalArgumentException If i and j are equal or out of range.
+     */
+    public static long condensedIndex(long count, long i, long j) {
+        if (i == j || i < 0 || j < 0 || i >= count || j >= count) {
+            throw new IllegalArgumentException("Invalid pair (" + i + ", " + j + ")");
+        }
+        if (i > j) {
+            long t = i;
+            i = j;
+            j = t;
+        }
+        return count * i - i * (i + 1) / 2 + (j - i - 1);
+    }
+
+    /**
+     * Calculates the pairwise distance matrix by square blocks, so collections whose full matrix does not fit in
+     * memory can be processed. Only the blocks intersecting the upper triangle are calculated, and each of them is
+     * handed to the consumer as soon as it is ready, column of blocks by column of blocks. The consumer may, for
+     * example, threshold or reduce the distances without keeping the matrix.
+     *
+     * @param tss       Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                  and dimension one indicates the number of time series.
+     * @param metric    The distance metric.
+     * @param blockSize Number of rows and columns of every block.
+     * @param consumer  Consumer of the blocks.
+     * @throws IllegalArgumentException If the block size is not positive.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static void pairwise(Array tss, Metric metric, int blockSize, BlockConsumer consumer) {
+        checkBlocks(metric, blockSize);
+        long[] dims = tss.getDims();
+        int n = (int) dims[0];
+        int count = (int) dims[1];
+        double[] data = DistanceKernels.prepare(metric, tss.getDataAsDouble(), n, count);
+        DistanceKernels.Workspace workspace = new DistanceKernels.Workspace();
+        double[] block = new double[blockSize * blockSize];
+        for (int firstColumn = 0; firstColumn < count; firstColumn += blockSize) {
+            int columns = Math.min(blockSize, count - firstColumn);
+            for (int firstRow = 0; firstRow < firstColumn + columns; firstRow += blockSize) {
+                int rows = Math.min(blockSize, count - firstRow);
+                DistanceKernels.block(metric, data, n, firstRow, rows, firstColumn, columns, block, workspace);
+                consumer.accept(firstRow, firstColumn, rows, columns, block);
+            }
+        }
+    }
+
+    /**
+     * Calculates the pairwise distance matrix by square blocks and writes it to a file through memory mapping, so
+     * the memory used is bounded by the block size whatever the size of the matrix. The file contains the whole
+     * count x count upper triangular matrix stored by columns in little-endian order, as 32 bits floats if the input
+     * is f32 and as 64 bits doubles otherwise, and can be memory-mapped afterwards to read the distances.
+     *
+     * @param tss       Expects an input array whose dimension zero is the length of the time series (all the same)
+     *                  and dimension one indicates the number of time series.
+     * @param metric    The distance metric.
+     * @param blockSize Number of rows and columns of every block.
+     * @param output    Path of the output file. It is overwritten if it exists.
+     * @throws IOException              If the file cannot be written.
+     * @throws IllegalArgumentException If the block size is not positive.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static void pairwise(Array tss, Metric metric, int blockSize, Path output) throws IOException {
+        // The arguments are checked before the output is truncated.
+        checkBlocks(metric, blockSize);
+        Objects.requireNonNull(output, "Null path provided");
+        long count = tss.getDims()[1];
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            pairwise(tss, metric, blockSize, new MappedBlockWriter(channel, count, tss.getType() == Dtype.f32));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void checkBlocks(Metric metric, int blockSize) {
+        Objects.requireNonNull(metric, "Null metric provided");
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("The block size must be positive");
+        }
+    }
+
+    // Writes the blocks to a file holding the whole matrix by columns. As many whole columns as fit in a mapping are
+    // mapped at once, and the mapping moves forward with the columns of blocks.
+    private static final class MappedBlockWriter implements BlockConsumer {
+        private final FileChannel channel;
+        private final long count;
+        private final boolean single;
+        private final long bytes;
+        private final long columnsPerMapping;
+        private MappedByteBuffer mapping;
+        private long firstMappedColumn = -1;
+
+        MappedBlockWriter(FileChannel channel, long count, boolean single) {
+            this.channel = channel;
+            this.count = count;
+            this.single = single;
+            this.bytes = single ? Float.BYTES : Double.BYTES;
+            this.columnsPerMapping = Math.max(1, Integer.MAX_VALUE / Math.max(1, count * bytes));
+        }
+
+        @Override
+        public void accept(long firstRow, long firstColumn, int rows, int columns, double[] block) {
+            for (int c = 0; c < columns; c++) {
+                long column = firstColumn + c;
+                if (firstMappedColumn < 0 || column < firstMappedColumn
+                    || column >= firstMappedColumn + columnsPerMapping) {
+                    map(column);
+                }
+                int position = (int) (((column - firstMappedColumn) * count + firstRow) * bytes);
+                for (int r = 0; r < rows; r++) {
+                    if (single) {
+                        mapping.putFloat(position + r * Float.BYTES, (float) block[r + c * rows]);
+                    } else {
+                        mapping.putDouble(position + r * Double.BYTES, block[r + c * rows]);
+                    }
+                }
+            }
+        }
+
+        private void map(long column) {
+            long columns = Math.min(columnsPerMapping, count - column);
+            try {
+                mapping = channel.map(FileChannel.MapMode.READ_WRITE, column * count * bytes, columns * count * bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            mapping.order(ByteOrder.LITTLE_ENDIAN);
+            firstMappedColumn = column;
+        }
+    }
 }
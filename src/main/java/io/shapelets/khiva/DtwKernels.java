@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Dynamic Time Warping kernels implemented on the Java side. The cost of matching two points is their absolute
+ * difference, and the distance is the accumulated cost of the best warping path, as in {@link Distances#dtw(Array)}.
+ */
+final class DtwKernels {
+
+    // Number of time series per side of the tiles of pairs distributed among the threads.
+    private static final int TILE = 16;
+
+    private DtwKernels() {
+    }
+
+    /**
+     * Reusable rows of the cost matrix, and cells of the window for the alignments, so no memory is allocated per
+     * pair.
+     */
+    static final class Workspace {
+        double[] previous = new double[0];
+        double[] current = new double[0];
+        double[] band = new double[0];
+        int[] offsets = new int[0];
+        // Whether the last distance was abandoned before its last row.
+        boolean abandoned;
+
+        void ensure(int m) {
+            if (previous.length < m) {
+                previous = new double[m];
+                current = new double[m];
+            }
+        }
+
+        // Stores the cells of the window row after row in the band, and the position of every row in the offsets.
+        void ensureBand(int[] bounds, int n) {
+            if (offsets.length < n + 1) {
+                offsets = new int[n + 1];
+            }
+            long size = 0;
+            for (int i = 0; i < n; i++) {
+                offsets[i] = (int) size;
+                size += bounds[2 * i + 1] - bounds[2 * i] + 1;
+                if (size > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("The warping window has too many cells to be aligned");
+                }
+            }
+            offsets[n] = (int) size;
+            if (band.length < size) {
+                band = new double[(int) size];
+            }
+        }
+    }
+
+    /**
+     * Receives the pairs of points matched along a warping path.
+     */
+    interface Matches {
+        /**
+         * Called for every pair of matched points.
+         *
+         * @param i Index of the point of the first time series.
+         * @param j Index of the point of the second time series.
+         */
+        void match(int i, int j);
+    }
+
+    /**
+     * Calculates the DTW distance between two time series, restricted to the given window bounds and abandoning the
+     * calculation as soon as every cell of a row exceeds the upper bound. The workspace records whether the
+     * calculation was abandoned before its last row.
+     *
+     * @param a          Array containing the first time series.
+     * @param aFrom      Offset of the first time series within a.
+     * @param n          Length of the first time series.
+     * @param b          Array containing the second time series.
+     * @param bFrom      Offset of the second time series within b.
+     * @param m          Length of the second time series.
+     * @param bounds     First and last column of every row, as returned by {@link DtwWindow#bounds(int, int)}.
+     * @param upperBound Distance above which the calculation is abandoned.
+     * @param workspace  Reusable rows.
+     * @return The DTW distance, or positive infinity if it exceeds the upper bound.
+     */
+    static double distance(double[] a, int aFrom, int n, double[] b, int bFrom, int m, int[] bounds,
+                           double upperBound, Workspace workspace) {
+        workspace.ensure(m);
+        workspace.abandoned = false;
+        double[] previous = workspace.previous;
+        double[] current = workspace.current;
+        int prevLo = 0;
+        int prevHi = -1;
+        for (int i = 0; i < n; i++) {
+            int lo = bounds[2 * i];
+            int hi = bounds[2 * i + 1];
+            double ai = a[aFrom + i];
+            double rowMin = Double.POSITIVE_INFINITY;
+            double left = Double.POSITIVE_INFINITY;
+            for (int j = lo; j <= hi; j++) {
+                double best;
+                if (i == 0 && j == 0) {
+                    best = 0;
+                } else {
+                    double up = (j >= prevLo && j <= prevHi) ? previous[j] : Double.POSITIVE_INFINITY;
+                    double diagonal = (j - 1 >= prevLo && j - 1 <= prevHi) ? previous[j - 1]
+                                                                           : Double.POSITIVE_INFINITY;
+                    best = Math.min(left, Math.min(up, diagonal));
+                }
+                double cost = best + Math.abs(ai - b[bFrom + j]);
+                current[j] = cost;
+                left = cost;
+                if (cost < rowMin) rowMin = cost;
+            }
+            if (rowMin > upperBound && i < n - 1) {
+                workspace.abandoned = true;
+                return Double.POSITIVE_INFINITY;
+            }
+            double[] tmp = previous;
+            previous = current;
+            current = tmp;
+            prevLo = lo;
+            prevHi = hi;
+        }
+        // The rows may have been swapped, keep the workspace consistent.
+        workspace.previous = previous;
+        workspace.current = current;
+        return previous[m - 1] > upperBound ? Double.POSITIVE_INFINITY : previous[m - 1];
+    }
+
+    /**
+     * Calculates the DTW distance between two time series, restricted to the given window bounds, and reports the
+     * pairs of points matched along the best warping path, from the last one to the first one. This is the alignment
+     * step of the DTW Barycenter Averaging, where the second time series is the barycenter. Only the cells of the
+     * cost matrix inside the window are stored.
+     *
+     * @param a         Array containing the first time series.
+     * @param aFrom     Offset of the first time series within a.
+     * @param n         Length of the first time series.
+     * @param b         Array containing the second time series.
+     * @param bFrom     Offset of the second time series within b.
+     * @param m         Length of the second time series.
+     * @param bounds    First and last column of every row, as returned by {@link DtwWindow#bounds(int, int)}.
+     * @param matches   Receiver of the matched pairs.
+     * @param workspace Reusable cells of the window.
+     * @return The DTW distance.
+     * @throws IllegalArgumentException If the window has more cells than an array can hold.
+     */
+    static double align(double[] a, int aFrom, int n, double[] b, int bFrom, int m, int[] bounds, Matches matches,
+                        Workspace workspace) {
+        workspace.ensureBand(bounds, n);
+        double[] cost = workspace.band;
+        int[] offsets = workspace.offsets;
+        for (int i = 0; i < n; i++) {
+            double ai = a[aFrom + i];
+            int row = offsets[i] - bounds[2 * i];
+            for (int j = bounds[2 * i]; j <= bounds[2 * i + 1]; j++) {
+                double best;
+                if (i == 0 && j == 0) {
+                    best = 0;
+                } else {
+                    best = Math.min(cell(cost, offsets, bounds, i, j - 1),
+                            Math.min(cell(cost, offsets, bounds, i - 1, j), cell(cost, offsets, bounds, i - 1, j - 1)));
+                }
+                cost[row + j] = best + Math.abs(ai - b[bFrom + j]);
+            }
+        }
+        // Backtracking from the last cell, preferring the diagonal in case of a tie.
+        int i = n - 1;
+        int j = m - 1;
+        while (true) {
+            matches.match(i, j);
+            if (i == 0 && j == 0) {
+                break;
+            }
+            double diagonal = cell(cost, offsets, bounds, i - 1, j - 1);
+            double up = cell(cost, offsets, bounds, i - 1, j);
+            double left = cell(cost, offsets, bounds, i, j - 1);
+            if (diagonal <= up && diagonal <= left) {
+                i--;
+                j--;
+            } else if (up <= left) {
+                i--;
+            } else {
+                j--;
+            }
+        }
+        return cell(cost, offsets, bounds, n - 1, m - 1);
+    }
+
+    // The accumulated cost of a cell, or positive infinity if it is outside the matrix or the window.
+    private static double cell(double[] cost, int[] offsets, int[] bounds, int i, int j) {
+        if (i < 0 || j < 0 || j < bounds[2 * i] || j > bounds[2 * i + 1]) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return cost[offsets[i] + j - bounds[2 * i]];
+    }
+
+    /**
+     * Calculates the DTW distance between every pair of time series of a collection.
+     *
+     * @param data       Time series stored one after the other, each of length n.
+     * @param n          Length of every time series.
+     * @param count      Number of time series.
+     * @param window     The warping window.
+     * @param upperBound Distance above which the calculation of a pair is abandoned.
+     * @return Upper triangular matrix of count x count elements, stored by columns, where position row i column j
+     * records the distance between time series i and j.
+     */
+    static double[] pairwise(double[] data, int n, int count, DtwWindow window, double upperBound) {
+        int[] bounds = window.bounds(n, n);
+        Workspace workspace = new Workspace();
+        double[] result = new double[count * count];
+        for (int j = 0; j < count; j++) {
+            for (int i = 0; i < j; i++) {
+                result[i + j * count] = distance(data, i * n, n, data, j * n, n, bounds, upperBound, workspace);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the DTW distance between every pair of time series of a collection in parallel. The upper triangle
+     * of the distance matrix is split in square tiles of pairs, which are distributed among the threads of the pool
+     * by recursive halving, so idle threads steal the pending tiles of the busy ones. Every thread reuses the same
+     * rows of the cost matrix for all its pairs.
+     *
+     * @param data       Time series stored one after the other, each of length n.
+     * @param n          Length of every time series.
+     * @param count      Number of time series.
+     * @param window     The warping window.
+     * @param upperBound Distance above which the calculation of a pair is abandoned.
+     * @param pool       The pool running the calculation.
+     * @return Upper triangular matrix of count x count elements, stored by columns, where position row i column j
+     * records the distance between time series i and j.
+     */
+    static double[] pairwise(double[] data, int n, int count, DtwWindow window, double upperBound,
+                             ForkJoinPool pool) {
+        int[] bounds = window.bounds(n, n);
+        double[] result = new double[count * count];
+        int tiles = (count + TILE - 1) / TILE;
+        // Tiles (row, column) with row <= column, listed by columns.
+        int[] tileRows = new int[tiles * (tiles + 1) / 2];
+        int[] tileColumns = new int[tileRows.length];
+        int t = 0;
+        for (int column = 0; column < tiles; column++) {
+            for (int row = 0; row <= column; row++) {
+                tileRows[t] = row;
+                tileColumns[t] = column;
+                t++;
+            }
+        }
+        ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+        pool.invoke(new PairwiseTask(data, n, count, bounds, upperBound, tileRows, tileColumns, 0, tileRows.length,
+                workspaces, result));
+        return result;
+    }
+
+    private static final class PairwiseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] data;
+        private final int n;
+        private final int count;
+        private final int[] bounds;
+        private final double upperBound;
+        private final int[] tileRows;
+        private final int[] tileColumns;
+        private final int from;
+        private final int to;
+        private final ThreadLocal<Workspace> workspaces;
+        private final double[] result;
+
+        PairwiseTask(double[] data, int n, int count, int[] bounds, double upperBound, int[] tileRows,
+                     int[] tileColumns, int from, int to, ThreadLocal<Workspace> workspaces, double[] result) {
+            this.data = data;
+            this.n = n;
+            this.count = count;
+            this.bounds = bounds;
+            this.upperBound = upperBound;
+            this.tileRows = tileRows;
+            this.tileColumns = tileColumns;
+            this.from = from;
+            this.to = to;
+            this.workspaces = workspaces;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PairwiseTask(data, n, count, bounds, upperBound, tileRows, tileColumns, from, middle,
+                                workspaces, result),
+                        new PairwiseTask(data, n, count, bounds, upperBound, tileRows, tileColumns, middle, to,
+                                workspaces, result));
+                return;
+            }
+            if (to == from) {
+                return;
+            }
+            Workspace workspace = workspaces.get();
+            int firstRow = tileRows[from] * TILE;
+            int firstColumn = tileColumns[from] * TILE;
+            int lastColumn = Math.min(count, firstColumn + TILE);
+            for (int j = firstColumn; j < lastColumn; j++) {
+                int lastRow = Math.min(j, firstRow + TILE);
+                for (int i = firstRow; i < lastRow; i++) {
+                    result[i + j * count] = distance(data, i * n, n, data, j * n, n, bounds, upperBound, workspace);
+                }
+            }
+        }
+    }
+}
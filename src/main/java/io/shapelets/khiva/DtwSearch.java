@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.util.Arrays;
+
+/**
+ * Khiva DTW Search class. It finds the k nearest neighbours, in terms of windowed Dynamic Time Warping distance, of
+ * a set of queries among a fixed set of reference time series.
+ * <p>
+ * The envelopes of the references are calculated once, and every candidate goes through a cascade of lower bounds
+ * before its DTW distance is calculated: LB_Kim, which uses the first and last points, LB_Keogh against the envelope
+ * of the query, and LB_Keogh of the query against the envelope of the candidate. The remaining candidates are
+ * compared with a DTW calculation abandoned as soon as it exceeds the current k-th best distance.
+ * <p>
+ * [1] Thanawin Rakthanmanon, Bilson Campana, Abdullah Mueen, Gustavo Batista, Brandon Westover, Qiang Zhu, Jesin
+ * Zakaria and Eamonn Keogh (2012). Searching and Mining Trillions of Time Series Subsequences under Dynamic Time
+ * Warping. KDD 2012.
+ */
+public class DtwSearch {
+
+    /**
+     * Pruning statistics of a search.
+     */
+    public static final class Statistics {
+        private final long candidates;
+        private final long prunedByKim;
+        private final long prunedByKeogh;
+        private final long prunedByReverseKeogh;
+        private final long abandoned;
+        private final long computed;
+
+        Statistics(long candidates, long prunedByKim, long prunedByKeogh, long prunedByReverseKeogh, long abandoned,
+                   long computed) {
+            this.candidates = candidates;
+            this.prunedByKim = prunedByKim;
+            this.prunedByKeogh = prunedByKeogh;
+            this.prunedByReverseKeogh = prunedByReverseKeogh;
+            this.abandoned = abandoned;
+            this.computed = computed;
+        }
+
+        /**
+         * Gets the number of query and reference pairs considered.
+         *
+         * @return The number of candidates.
+         */
+        public long getCandidates() {
+            return candidates;
+        }
+
+        /**
+         * Gets the number of candidates discarded by LB_Kim.
+         *
+         * @return The number of candidates pruned.
+         */
+        public long getPrunedByKim() {
+            return prunedByKim;
+        }
+
+        /**
+         * Gets the number of candidates discarded by LB_Keogh against the envelope of the query.
+         *
+         * @return The number of candidates pruned.
+         */
+        public long getPrunedByKeogh() {
+            return prunedByKeogh;
+        }
+
+        /**
+         * Gets the number of candidates discarded by LB_Keogh of the query against the envelope of the reference.
+         *
+         * @return The number of candidates pruned.
+         */
+        public long getPrunedByReverseKeogh() {
+            return prunedByReverseKeogh;
+        }
+
+        /**
+         * Gets the number of DTW calculations abandoned before completion, because every cell of a row of the cost
+         * matrix exceeded the current k-th best distance. The calculations completed above it count as computed.
+         *
+         * @return The number of DTW calculations abandoned.
+         */
+        public long getAbandoned() {
+            return abandoned;
+        }
+
+        /**
+         * Gets the number of DTW calculations completed.
+         *
+         * @return The number of DTW calculations completed.
+         */
+        public long getComputed() {
+            return computed;
+        }
+
+        /**
+         * Gets the fraction of candidates whose DTW distance was not fully calculated.
+         *
+         * @return The pruning ratio, between 0 and 1.
+         */
+        public double getPruningRatio() {
+            return candidates == 0 ? 0 : 1 - (double) computed / candidates;
+        }
+    }
+
+    private final double[] references;
+
+    private final double[] upper;
+
+    private final double[] lower;
+
+    private final int length;
+
+    private final int count;
+
+    private final Dtype type;
+
+    private final int[] bounds;
+
+    private final int[] columnBounds;
+
+    private Statistics statistics = new Statistics(0, 0, 0, 0, 0, 0);
+
+    /**
+     * Creates a search engine over the given reference time series.
+     *
+     * @param references Array whose first dimension is the length of the time series (all the same) and the second
+     *                   dimension is the number of reference time series.
+     * @param window     The warping window.
+     * @throws KhivaException If the native function call fails.
+     */
+    public DtwSearch(Array references, DtwWindow window) {
+        long[] dims = references.getDims();
+        this.length = (int) dims[0];
+        this.count = (int) dims[1];
+        this.type = references.getType();
+        this.references = references.getDataAsDouble();
+        this.bounds = window.bounds(length, length);
+        this.columnBounds = DtwWindow.columnBounds(bounds, length, length);
+        this.upper = new double[this.references.length];
+        this.lower = new double[this.references.length];
+        for (int r = 0; r < count; r++) {
+            envelope(this.references, r * length, length, bounds, upper, lower, r * length);
+        }
+    }
+
+    // Calculates the upper and lower envelope of a time series, where the envelope of position i covers the points
+    // of the time series inside the window bounds of i, that is, the points that may be matched with position i of
+    // the other time series.
+    //
+    static void envelope(double[] t, int from, int n, int[] bounds, double[] upper, double[] lower, int to) {
+        for (int i = 0; i < n; i++) {
+            double max = Double.NEGATIVE_INFINITY;
+            double min = Double.POSITIVE_INFINITY;
+            for (int j = bounds[2 * i]; j <= bounds[2 * i + 1]; j++) {
+                double v = t[from + j];
+                if (v > max) max = v;
+                if (v < min) min = v;
+            }
+            upper[to + i] = max;
+            lower[to + i] = min;
+        }
+    }
+
+    // LB_Kim using the first and last points, which are always matched with each other.
+    //
+    static double lbKim(double[] a, int aFrom, double[] b, int bFrom, int n) {
+        double lb = Math.abs(a[aFrom] - b[bFrom]);
+        if (n > 1) lb += Math.abs(a[aFrom + n - 1] - b[bFrom + n - 1]);
+        return lb;
+    }
+
+    // LB_Keogh of a time series against the envelope of another one, abandoned when it exceeds the bound.
+    //
+    static double lbKeogh(double[] t, int from, int n, double[] upper, double[] lower, int envFrom, double bound) {
+        double lb = 0;
+        for (int i = 0; i < n && lb <= bound; i++) {
+            double v = t[from + i];
+            if (v > upper[envFrom + i]) {
+                lb += v - upper[envFrom + i];
+            } else if (v < lower[envFrom + i]) {
+                lb += lower[envFrom + i] - v;
+            }
+        }
+        return lb;
+    }
+
+    /**
+     * Finds the k nearest references of every query.
+     *
+     * @param queries Array whose first dimension is the length of the time series (the same as the references) and
+     *                the second dimension is the number of queries.
+     * @param k       Number of neighbours to return.
+     * @return Array of arrays with the distances and the indices of the neighbours, both with k in the first
+     * dimension and the queries in the second one, sorted from the nearest to the farthest. If there are less than k
+     * references, the remaining positions have infinite distance and -1 index.
+     * @throws IllegalArgumentException If the queries length does not match the references one or k is not positive.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public Array[] kNearest(Array queries, int k) {
+        long[] dims = queries.getDims();
+        if (dims[0] != length) {
+            throw new IllegalArgumentException("The queries must have the same length as the references");
+        }
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        int nQueries = (int) dims[1];
+        double[] data = queries.getDataAsDouble();
+        double[] distances = new double[k * nQueries];
+        int[] indices = new int[k * nQueries];
+        search(data, nQueries, k, distances, indices);
+        long[] outDims = {k, nQueries};
+        return new Array[]{Array.fromDoubleData(distances, outDims, type), Array.fromPrimitiveArray(indices, outDims)};
+    }
+
+    /**
+     * Finds the nearest reference of every query.
+     *
+     * @param queries Array whose first dimension is the length of the time series and the second dimension is the
+     *                number of queries.
+     * @return Array of arrays with the distance and the index of the nearest reference of every query.
+     * @throws KhivaException If the native function call fails.
+     */
+    public Array[] nearest(Array queries) {
+        return kNearest(queries, 1);
+    }
+
+    void search(double[] data, int nQueries, int k, double[] distances, int[] indices) {
+        long kim = 0;
+        long keogh = 0;
+        long reverseKeogh = 0;
+        long abandoned = 0;
+        long computed = 0;
+        double[] queryUpper = new double[length];
+        double[] queryLower = new double[length];
+        DtwKernels.Workspace workspace = new DtwKernels.Workspace();
+
+        for (int q = 0; q < nQueries; q++) {
+            int qFrom = q * length;
+            int out = q * k;
+            Arrays.fill(distances, out, out + k, Double.POSITIVE_INFINITY);
+            Arrays.fill(indices, out, out + k, -1);
+            envelope(data, qFrom, length, columnBounds, queryUpper, queryLower, 0);
+
+            for (int r = 0; r < count; r++) {
+                int rFrom = r * length;
+                double threshold = distances[out + k - 1];
+                if (lbKim(data, qFrom, references, rFrom, length) >= threshold) {
+                    kim++;
+                    continue;
+                }
+                if (lbKeogh(references, rFrom, length, queryUpper, queryLower, 0, threshold) >= threshold) {
+                    keogh++;
+                    continue;
+                }
+                if (lbKeogh(data, qFrom, length, upper, lower, rFrom, threshold) >= threshold) {
+                    reverseKeogh++;
+                    continue;
+                }
+                double d = DtwKernels.distance(data, qFrom, length, references, rFrom, length, bounds, threshold,
+                        workspace);
+                if (workspace.abandoned) {
+                    abandoned++;
+                    continue;
+                }
+                // The completed calculations exceeding the threshold are infinite, so they are not inserted.
+                computed++;
+                if (d < threshold) {
+                    // Insertion in the sorted list of the k best.
+                    int p = out + k - 1;
+                    while (p > out && distances[p - 1] > d) {
+                        distances[p] = distances[p - 1];
+                        indices[p] = indices[p - 1];
+                        p--;
+                    }
+                    distances[p] = d;
+                    indices[p] = r;
+                }
+            }
+        }
+        statistics = new Statistics((long) nQueries * count, kim, keogh, reverseKeogh, abandoned, computed);
+    }
+
+    /**
+     * Gets the pruning statistics of the last search.
+     *
+     * @return The pruning statistics.
+     */
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Gets the number of reference time series.
+     *
+     * @return The number of references.
+     */
+    public int getCount() {
+        return count;
+    }
+}
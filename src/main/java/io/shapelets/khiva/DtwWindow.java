@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+/**
+ * Global constraint limiting the warping path of the Dynamic Time Warping distance. Only the cells of the cost
+ * matrix inside the window are calculated, so the cost per pair drops from O(n^2) to O(n * w).
+ * <p>
+ * The window is defined around the diagonal of the cost matrix, scaled when the time series have different lengths.
+ * The diagonal is always included, so a warping path always exists.
+ */
+public final class DtwWindow {
+
+    private enum Kind {
+        NONE, SAKOE_CHIBA, SAKOE_CHIBA_FRACTION, ITAKURA
+    }
+
+    private static final DtwWindow NONE = new DtwWindow(Kind.NONE, 0);
+
+    private final Kind kind;
+
+    private final double value;
+
+    private DtwWindow(Kind kind, double value) {
+        this.kind = kind;
+        this.value = value;
+    }
+
+    /**
+     * No constraint, the whole cost matrix is calculated.
+     *
+     * @return The unconstrained window.
+     */
+    public static DtwWindow none() {
+        return NONE;
+    }
+
+    /**
+     * Sakoe-Chiba band with an absolute radius.
+     * <p>
+     * [1] H. Sakoe and S. Chiba (1978). Dynamic programming algorithm optimization for spoken word recognition.
+     * IEEE Transactions on Acoustics, Speech and Signal Processing, 26(1), 43-49.
+     *
+     * @param radius Maximum distance, in number of points, between the warping path and the diagonal.
+     * @return The Sakoe-Chiba window.
+     * @throws IllegalArgumentException If the radius is negative.
+     */
+    public static DtwWindow sakoeChiba(int radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("The window radius cannot be negative");
+        }
+        return new DtwWindow(Kind.SAKOE_CHIBA, radius);
+    }
+
+    /**
+     * Sakoe-Chiba band with a radius given as a fraction of the length of the time series.
+     *
+     * @param fraction Maximum distance between the warping path and the diagonal, as a fraction between 0 and 1 of
+     *                 the length of the longest time series.
+     * @return The Sakoe-Chiba window.
+     * @throws IllegalArgumentException If the fraction is not between 0 and 1.
+     */
+    public static DtwWindow sakoeChibaFraction(double fraction) {
+        if (!(fraction >= 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("The window fraction must be between 0 and 1");
+        }
+        return new DtwWindow(Kind.SAKOE_CHIBA_FRACTION, fraction);
+    }
+
+    /**
+     * Itakura parallelogram, which limits the slope of the warping path.
+     * <p>
+     * [1] F. Itakura (1975). Minimum prediction residual principle applied to speech recognition. IEEE Transactions
+     * on Acoustics, Speech and Signal Processing, 23(1), 67-72.
+     *
+     * @param maxSlope Maximum slope of the warping path. It must be greater or equal than 1, where 1 only allows the
+     *                 diagonal.
+     * @return The Itakura window.
+     * @throws IllegalArgumentException If the slope is lower than 1.
+     */
+    public static DtwWindow itakura(double maxSlope) {
+        if (!(maxSlope >= 1)) {
+            throw new IllegalArgumentException("The maximum slope must be greater or equal than 1");
+        }
+        return new DtwWindow(Kind.ITAKURA, maxSlope);
+    }
+
+    /**
+     * Gets the radius of the band for time series of the given lengths, or -1 for the Itakura parallelogram and the
+     * unconstrained window.
+     *
+     * @param n Length of the first time series.
+     * @param m Length of the second time series.
+     * @return The radius.
+     */
+    int radius(int n, int m) {
+        switch (kind) {
+            case SAKOE_CHIBA:
+                return (int) value;
+            case SAKOE_CHIBA_FRACTION:
+                return (int) Math.ceil(value * Math.max(n, m));
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Calculates the first and last column of the cost matrix inside the window for every row. The windows are
+     * widened where needed so consecutive rows are always connected.
+     *
+     * @param n Length of the first time series, the rows.
+     * @param m Length of the second time series, the columns.
+     * @return Array of 2 * n elements with the first and last column, inclusive, of every row.
+     */
+    int[] bounds(int n, int m) {
+        int[] bounds = new int[2 * n];
+        double scale = n > 1 ? (double) (m - 1) / (n - 1) : 0;
+        int radius = radius(n, m);
+        for (int i = 0; i < n; i++) {
+            double center = i * scale;
+            double lo;
+            double hi;
+            switch (kind) {
+                case SAKOE_CHIBA:
+                case SAKOE_CHIBA_FRACTION:
+                    lo = center - radius;
+                    hi = center + radius;
+                    break;
+                case ITAKURA:
+                    if (n == 1 || m == 1) {
+                        lo = 0;
+                        hi = m - 1;
+                        break;
+                    }
+                    double x = (double) i / (n - 1);
+                    double lower = Math.max(x / value, 1 - value * (1 - x));
+                    double upper = Math.min(x * value, 1 - (1 - x) / value);
+                    lo = lower * (m - 1);
+                    hi = upper * (m - 1);
+                    break;
+                default:
+                    lo = 0;
+                    hi = m - 1;
+            }
+            int first = (int) Math.max(0, Math.min(Math.ceil(lo - 1e-9), Math.floor(center)));
+            int last = (int) Math.min(m - 1, Math.max(Math.floor(hi + 1e-9), Math.ceil(center)));
+            bounds[2 * i] = first;
+            bounds[2 * i + 1] = last;
+        }
+        bounds[0] = 0;
+        bounds[2 * n - 1] = m - 1;
+        for (int i = n - 2; i >= 0; i--) {
+            bounds[2 * i + 1] = Math.max(bounds[2 * i + 1], bounds[2 * (i + 1)] - 1);
+        }
+        return bounds;
+    }
+
+    /**
+     * Calculates the first and last row of the cost matrix inside the window for every column, from the bounds of
+     * the rows.
+     *
+     * @param bounds Bounds of the rows, as returned by {@link #bounds(int, int)}.
+     * @param n      Length of the first time series, the rows.
+     * @param m      Length of the second time series, the columns.
+     * @return Array of 2 * m elements with the first and last row, inclusive, of every column.
+     */
+    static int[] columnBounds(int[] bounds, int n, int m) {
+        int[] columns = new int[2 * m];
+        for (int j = 0; j < m; j++) {
+            columns[2 * j] = n;
+            columns[2 * j + 1] = -1;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = bounds[2 * i]; j <= bounds[2 * i + 1]; j++) {
+                columns[2 * j] = Math.min(columns[2 * j], i);
+                columns[2 * j + 1] = Math.max(columns[2 * j + 1], i);
+            }
+        }
+        return columns;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case SAKOE_CHIBA:
+                return "DtwWindow.sakoeChiba(" + (int) value + ")";
+            case SAKOE_CHIBA_FRACTION:
+                return "DtwWindow.sakoeChibaFraction(" + value + ")";
+            case ITAKURA:
+                return "DtwWindow.itakura(" + value + ")";
+            default:
+                return "DtwWindow.none()";
+        }
+    }
+}
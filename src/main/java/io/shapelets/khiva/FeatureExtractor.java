@@ -0,0 +1,577 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Khiva Feature Extractor class. It calculates a list of features of every time series in a single call, with the
+ * definitions of the methods of {@link Features}, instead of one call per feature.
+ * <p>
+ * The list of features is compiled into a plan of the intermediates they share: the mean and the central moments,
+ * the extremes and their locations, the sorted values and the Fourier transform. Every time series is read once from
+ * the input, its intermediates are calculated once, and every feature is derived from them.
+ */
+public class FeatureExtractor {
+
+    /**
+     * The features supported by the extractor, with the number of parameters of each one.
+     */
+    public enum Feature {
+        /**
+         * The sum of the squared values, as {@link Features#absEnergy}.
+         */
+        ABS_ENERGY(0),
+        /**
+         * The sum of the absolute differences between consecutive values, as {@link Features#absoluteSumOfChanges}.
+         */
+        ABSOLUTE_SUM_OF_CHANGES(0),
+        /**
+         * The c3 non-linearity statistic, as {@link Features#c3}. Its parameter is the lag.
+         */
+        C3(1),
+        /**
+         * The complexity estimate, as {@link Features#cidCe} without z-normalization.
+         */
+        CID_CE(0),
+        /**
+         * The complexity estimate of the z-normalized time series, as {@link Features#cidCe} with z-normalization.
+         */
+        CID_CE_Z_NORMALIZED(0),
+        /**
+         * The number of values above the mean, as {@link Features#countAboveMean}.
+         */
+        COUNT_ABOVE_MEAN(0),
+        /**
+         * The number of values below the mean, as {@link Features#countBelowMean}.
+         */
+        COUNT_BELOW_MEAN(0),
+        /**
+         * The real part of a Fourier coefficient, as {@link Features#fftCoefficient}. Its parameter is the index of
+         * the coefficient.
+         */
+        FFT_REAL(1),
+        /**
+         * The imaginary part of a Fourier coefficient, as {@link Features#fftCoefficient}. Its parameter is the
+         * index of the coefficient.
+         */
+        FFT_IMAGINARY(1),
+        /**
+         * The absolute value of a Fourier coefficient, as {@link Features#fftCoefficient}. Its parameter is the
+         * index of the coefficient.
+         */
+        FFT_ABSOLUTE(1),
+        /**
+         * The spectral centroid of the absolute Fourier spectrum, as {@link Features#fftAggregated}.
+         */
+        SPECTRAL_CENTROID(0),
+        /**
+         * The spectral variance of the absolute Fourier spectrum, as {@link Features#fftAggregated}.
+         */
+        SPECTRAL_VARIANCE(0),
+        /**
+         * The spectral skewness of the absolute Fourier spectrum, as {@link Features#fftAggregated}.
+         */
+        SPECTRAL_SKEWNESS(0),
+        /**
+         * The spectral kurtosis of the absolute Fourier spectrum, as {@link Features#fftAggregated}.
+         */
+        SPECTRAL_KURTOSIS(0),
+        /**
+         * The first relative location of the maximum, as {@link Features#firstLocationOfMaximum}.
+         */
+        FIRST_LOCATION_OF_MAXIMUM(0),
+        /**
+         * The first relative location of the minimum, as {@link Features#firstLocationOfMinimum}.
+         */
+        FIRST_LOCATION_OF_MINIMUM(0),
+        /**
+         * The kurtosis, as {@link Features#kurtosis}.
+         */
+        KURTOSIS(0),
+        /**
+         * 1 if the standard deviation is larger than r times the range and 0 otherwise, as
+         * {@link Features#largeStandardDeviation}. Its parameter is r.
+         */
+        LARGE_STANDARD_DEVIATION(1),
+        /**
+         * The last relative location of the maximum, as {@link Features#lastLocationOfMaximum}.
+         */
+        LAST_LOCATION_OF_MAXIMUM(0),
+        /**
+         * The last relative location of the minimum, as {@link Features#lastLocationOfMinimum}.
+         */
+        LAST_LOCATION_OF_MINIMUM(0),
+        /**
+         * The length, as {@link Features#length}.
+         */
+        LENGTH(0),
+        /**
+         * The length of the longest run of values above the mean, as {@link Features#longestStrikeAboveMean}.
+         */
+        LONGEST_STRIKE_ABOVE_MEAN(0),
+        /**
+         * The length of the longest run of values below the mean, as {@link Features#longestStrikeBelowMean}.
+         */
+        LONGEST_STRIKE_BELOW_MEAN(0),
+        /**
+         * The maximum, as {@link Features#maximum}.
+         */
+        MAXIMUM(0),
+        /**
+         * The mean, as {@link Features#mean}.
+         */
+        MEAN(0),
+        /**
+         * The mean absolute change, as {@link Features#meanAbsoluteChange}.
+         */
+        MEAN_ABSOLUTE_CHANGE(0),
+        /**
+         * The mean change, as {@link Features#meanChange}.
+         */
+        MEAN_CHANGE(0),
+        /**
+         * The mean of the central second derivative, as {@link Features#meanSecondDerivativeCentral}.
+         */
+        MEAN_SECOND_DERIVATIVE_CENTRAL(0),
+        /**
+         * The median, as {@link Features#median}.
+         */
+        MEDIAN(0),
+        /**
+         * The minimum, as {@link Features#minimum}.
+         */
+        MINIMUM(0),
+        /**
+         * The number of crossings of a value, as {@link Features#numberCrossingM}. Its parameter is the value.
+         */
+        NUMBER_CROSSING_M(1),
+        /**
+         * The number of values in [min, max), as {@link Features#rangeCount}. Its parameters are min and max.
+         */
+        RANGE_COUNT(2),
+        /**
+         * The ratio of values more than r standard deviations away from the mean, as
+         * {@link Features#ratioBeyondRSigma}. Its parameter is r.
+         */
+        RATIO_BEYOND_R_SIGMA(1),
+        /**
+         * The skewness, as {@link Features#skewness}.
+         */
+        SKEWNESS(0),
+        /**
+         * The standard deviation, as {@link Features#standardDeviation}.
+         */
+        STANDARD_DEVIATION(0),
+        /**
+         * The sum of the values, as {@link Features#sumValues}.
+         */
+        SUM_VALUES(0),
+        /**
+         * The time reversal asymmetry statistic, as {@link Features#timeReversalAsymmetryStatistic}. Its parameter is
+         * the lag.
+         */
+        TIME_REVERSAL_ASYMMETRY_STATISTIC(1),
+        /**
+         * The number of occurrences of a value, as {@link Features#valueCount}. Its parameter is the value.
+         */
+        VALUE_COUNT(1),
+        /**
+         * The variance, as {@link Features#variance}.
+         */
+        VARIANCE(0),
+        /**
+         * 1 if the variance is larger than the standard deviation and 0 otherwise, as
+         * {@link Features#varianceLargerThanStandardDeviation}.
+         */
+        VARIANCE_LARGER_THAN_STANDARD_DEVIATION(0);
+
+        private final int parameters;
+
+        Feature(int parameters) {
+            this.parameters = parameters;
+        }
+
+        /**
+         * Gets the number of parameters of the feature.
+         *
+         * @return The number of parameters.
+         */
+        public int getParameters() {
+            return parameters;
+        }
+    }
+
+    private static final class Step {
+        final Feature feature;
+        final double[] parameters;
+
+        Step(Feature feature, double[] parameters) {
+            this.feature = feature;
+            this.parameters = parameters;
+        }
+    }
+
+    // Intermediates of a time series shared by the features.
+    private static final class Intermediates {
+        double sum;
+        double mean;
+        double m2;
+        double m3;
+        double m4;
+        double min;
+        double max;
+        int firstMin;
+        int lastMin;
+        int firstMax;
+        int lastMax;
+        double[] sorted;
+        double[] re;
+        double[] im;
+        Fft.Plan plan;
+        // Moments of the absolute spectrum: centroid, variance, skewness and kurtosis.
+        final double[] spectral = new double[4];
+    }
+
+    private final List<Step> steps = new ArrayList<>();
+
+    /**
+     * Adds a feature to the list of features to extract. The features are returned in the order they were added.
+     *
+     * @param feature    The feature.
+     * @param parameters The parameters of the feature.
+     * @return This extractor.
+     * @throws IllegalArgumentException If the number of parameters does not match the feature.
+     */
+    public FeatureExtractor add(Feature feature, double... parameters) {
+        if (parameters.length != feature.getParameters()) {
+            throw new IllegalArgumentException("The feature " + feature + " needs " + feature.getParameters()
+                    + " parameters");
+        }
+        steps.add(new Step(feature, parameters.clone()));
+        return this;
+    }
+
+    /**
+     * Gets the number of features to extract.
+     *
+     * @return The number of features.
+     */
+    public int size() {
+        return steps.size();
+    }
+
+    /**
+     * Calculates the features of every time series.
+     *
+     * @param tss Array whose first dimension is the length of the time series and the second dimension is the number
+     *            of time series.
+     * @return Array with the features in the first dimension, in the order they were added, and the time series in
+     * the second dimension. Boolean and count features are returned as 1/0 and the count, with the type of the input.
+     * @throws IllegalArgumentException If there are no features, or a lag or coefficient index does not fit the length
+     *                                  of the time series.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public Array extract(Array tss) {
+        long[] dims = tss.getDims();
+        int n = (int) dims[0];
+        int count = (int) dims[1];
+        double[] result = extract(tss.getDataAsDouble(), n, count);
+        return Array.fromDoubleData(result, new long[]{steps.size(), count}, tss.getType());
+    }
+
+    /**
+     * Calculates the features of every time series.
+     *
+     * @param data  Time series stored one after the other.
+     * @param n     Length of the time series.
+     * @param count Number of time series.
+     * @return The features of every time series, stored one time series after the other.
+     */
+    double[] extract(double[] data, int n, int count) {
+        if (steps.isEmpty()) {
+            throw new IllegalArgumentException("There are no features to extract");
+        }
+        boolean sorted = false;
+        boolean spectrum = false;
+        boolean spectralMoments = false;
+        for (Step step : steps) {
+            switch (step.feature) {
+                case C3:
+                case TIME_REVERSAL_ASYMMETRY_STATISTIC:
+                    if (step.parameters[0] < 0 || 2 * step.parameters[0] >= n) {
+                        throw new IllegalArgumentException("The lag must be between 0 and " + (n - 1) / 2);
+                    }
+                    break;
+                case FFT_REAL:
+                case FFT_IMAGINARY:
+                case FFT_ABSOLUTE:
+                    if (step.parameters[0] < 0 || step.parameters[0] >= n) {
+                        throw new IllegalArgumentException("The coefficient must be between 0 and " + (n - 1));
+                    }
+                    spectrum = true;
+                    break;
+                case SPECTRAL_CENTROID:
+                case SPECTRAL_VARIANCE:
+                case SPECTRAL_SKEWNESS:
+                case SPECTRAL_KURTOSIS:
+                    spectrum = true;
+                    spectralMoments = true;
+                    break;
+                case MEDIAN:
+                    sorted = true;
+                    break;
+                default:
+            }
+        }
+        Intermediates intermediates = new Intermediates();
+        if (sorted) {
+            intermediates.sorted = new double[n];
+        }
+        if (spectrum) {
+            intermediates.re = new double[n];
+            intermediates.im = new double[n];
+            intermediates.plan = new Fft.Plan(n);
+        }
+        double[] result = new double[steps.size() * count];
+        for (int s = 0; s < count; s++) {
+            int from = s * n;
+            prepare(data, from, n, intermediates, sorted, spectrum, spectralMoments);
+            for (int f = 0; f < steps.size(); f++) {
+                result[s * steps.size() + f] = calculate(steps.get(f), data, from, n, intermediates);
+            }
+        }
+        return result;
+    }
+
+    // Calculates the intermediates of the plan for a time series.
+    private static void prepare(double[] data, int from, int n, Intermediates x, boolean sorted, boolean spectrum,
+                                boolean spectralMoments) {
+        double sum = 0;
+        x.min = Double.POSITIVE_INFINITY;
+        x.max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            double v = data[from + i];
+            sum += v;
+            if (v < x.min) {
+                x.min = v;
+                x.firstMin = i;
+            }
+            if (v <= x.min) x.lastMin = i;
+            if (v > x.max) {
+                x.max = v;
+                x.firstMax = i;
+            }
+            if (v >= x.max) x.lastMax = i;
+        }
+        x.sum = sum;
+        x.mean = sum / n;
+        double m2 = 0;
+        double m3 = 0;
+        double m4 = 0;
+        for (int i = 0; i < n; i++) {
+            double d = data[from + i] - x.mean;
+            double d2 = d * d;
+            m2 += d2;
+            m3 += d2 * d;
+            m4 += d2 * d2;
+        }
+        x.m2 = m2 / n;
+        x.m3 = m3 / n;
+        x.m4 = m4 / n;
+        if (sorted) {
+            System.arraycopy(data, from, x.sorted, 0, n);
+            Arrays.sort(x.sorted);
+        }
+        if (spectrum) {
+            Fft.dft(data, from, x.re, x.im, x.plan);
+        }
+        if (spectralMoments) {
+            // Moments of the indices of the non-negative frequencies weighted by their absolute coefficients.
+            double total = 0;
+            double[] moments = new double[5];
+            for (int k = 0; k <= n / 2; k++) {
+                double a = Math.hypot(x.re[k], x.im[k]);
+                total += a;
+                double power = 1;
+                for (int p = 1; p <= 4; p++) {
+                    power *= k;
+                    moments[p] += power * a;
+                }
+            }
+            for (int p = 1; p <= 4; p++) moments[p] /= total;
+            double centroid = moments[1];
+            double variance = moments[2] - centroid * centroid;
+            x.spectral[0] = centroid;
+            x.spectral[1] = variance;
+            x.spectral[2] = (moments[3] - 3 * centroid * variance - centroid * centroid * centroid)
+                    / Math.pow(variance, 1.5);
+            // The last term is the centroid, not its fourth power, as in the definition of fftAggregated.
+            x.spectral[3] = (moments[4] - 4 * centroid * moments[3] + 6 * moments[2] * centroid * centroid
+                    - 3 * centroid) / (variance * variance);
+        }
+    }
+
+    private static double calculate(Step step, double[] data, int from, int n, Intermediates x) {
+        double[] p = step.parameters;
+        double std = Math.sqrt(x.m2);
+        double sum = 0;
+        switch (step.feature) {
+            case ABS_ENERGY:
+                for (int i = 0; i < n; i++) sum += data[from + i] * data[from + i];
+                return sum;
+            case ABSOLUTE_SUM_OF_CHANGES:
+                for (int i = 1; i < n; i++) sum += Math.abs(data[from + i] - data[from + i - 1]);
+                return sum;
+            case C3: {
+                int lag = (int) p[0];
+                for (int i = 0; i < n - 2 * lag; i++) {
+                    sum += data[from + i + 2 * lag] * data[from + i + lag] * data[from + i];
+                }
+                return sum / (n - 2 * lag);
+            }
+            case CID_CE:
+            case CID_CE_Z_NORMALIZED: {
+                double scale = step.feature == Feature.CID_CE ? 1 : 1 / std;
+                for (int i = 1; i < n; i++) {
+                    double d = (data[from + i] - data[from + i - 1]) * scale;
+                    sum += d * d;
+                }
+                return Math.sqrt(sum);
+            }
+            case COUNT_ABOVE_MEAN:
+            case COUNT_BELOW_MEAN: {
+                int above = 0;
+                int below = 0;
+                for (int i = 0; i < n; i++) {
+                    if (data[from + i] > x.mean) above++;
+                    if (data[from + i] < x.mean) below++;
+                }
+                return step.feature == Feature.COUNT_ABOVE_MEAN ? above : below;
+            }
+            case FFT_REAL:
+                return x.re[(int) p[0]];
+            case FFT_IMAGINARY:
+                return x.im[(int) p[0]];
+            case FFT_ABSOLUTE:
+                return Math.hypot(x.re[(int) p[0]], x.im[(int) p[0]]);
+            case SPECTRAL_CENTROID:
+                return x.spectral[0];
+            case SPECTRAL_VARIANCE:
+                return x.spectral[1];
+            case SPECTRAL_SKEWNESS:
+                return x.spectral[2];
+            case SPECTRAL_KURTOSIS:
+                return x.spectral[3];
+            case FIRST_LOCATION_OF_MAXIMUM:
+                return (double) x.firstMax / n;
+            case FIRST_LOCATION_OF_MINIMUM:
+                return (double) x.firstMin / n;
+            case KURTOSIS: {
+                // Adjusted Fisher-Pearson standardized moment coefficient G2.
+                double g2 = x.m4 / (x.m2 * x.m2) - 3;
+                return ((n + 1) * g2 + 6) * (n - 1) / ((n - 2.0) * (n - 3.0));
+            }
+            case LARGE_STANDARD_DEVIATION:
+                return std > p[0] * (x.max - x.min) ? 1 : 0;
+            case LAST_LOCATION_OF_MAXIMUM:
+                return (x.lastMax + 1.0) / n;
+            case LAST_LOCATION_OF_MINIMUM:
+                return (x.lastMin + 1.0) / n;
+            case LENGTH:
+                return n;
+            case LONGEST_STRIKE_ABOVE_MEAN:
+            case LONGEST_STRIKE_BELOW_MEAN: {
+                boolean above = step.feature == Feature.LONGEST_STRIKE_ABOVE_MEAN;
+                int longest = 0;
+                int current = 0;
+                for (int i = 0; i < n; i++) {
+                    double v = data[from + i];
+                    current = (above ? v > x.mean : v < x.mean) ? current + 1 : 0;
+                    longest = Math.max(longest, current);
+                }
+                return longest;
+            }
+            case MAXIMUM:
+                return x.max;
+            case MEAN:
+                return x.mean;
+            case MEAN_ABSOLUTE_CHANGE:
+                for (int i = 1; i < n; i++) sum += Math.abs(data[from + i] - data[from + i - 1]);
+                return sum / n;
+            case MEAN_CHANGE:
+                return (data[from + n - 1] - data[from]) / n;
+            case MEAN_SECOND_DERIVATIVE_CENTRAL:
+                for (int i = 0; i < n - 2; i++) {
+                    sum += 0.5 * (data[from + i + 2] - 2 * data[from + i + 1] + data[from + i]);
+                }
+                return sum / n;
+            case MEDIAN:
+                return n % 2 == 1 ? x.sorted[n / 2] : (x.sorted[n / 2 - 1] + x.sorted[n / 2]) / 2;
+            case MINIMUM:
+                return x.min;
+            case NUMBER_CROSSING_M: {
+                int crossings = 0;
+                for (int i = 1; i < n; i++) {
+                    if ((data[from + i] > p[0]) != (data[from + i - 1] > p[0])) crossings++;
+                }
+                return crossings;
+            }
+            case RANGE_COUNT: {
+                int inside = 0;
+                for (int i = 0; i < n; i++) {
+                    if (data[from + i] >= p[0] && data[from + i] < p[1]) inside++;
+                }
+                return inside;
+            }
+            case RATIO_BEYOND_R_SIGMA: {
+                int beyond = 0;
+                for (int i = 0; i < n; i++) {
+                    if (Math.abs(data[from + i] - x.mean) > p[0] * std) beyond++;
+                }
+                return (double) beyond / n;
+            }
+            case SKEWNESS: {
+                // Adjusted Fisher-Pearson standardized moment coefficient G1.
+                double g1 = x.m3 / Math.pow(x.m2, 1.5);
+                return g1 * Math.sqrt((double) n * (n - 1)) / (n - 2);
+            }
+            case STANDARD_DEVIATION:
+                return std;
+            case SUM_VALUES:
+                return x.sum;
+            case TIME_REVERSAL_ASYMMETRY_STATISTIC: {
+                int lag = (int) p[0];
+                for (int i = 0; i < n - 2 * lag; i++) {
+                    double a = data[from + i];
+                    double b = data[from + i + lag];
+                    double c = data[from + i + 2 * lag];
+                    sum += c * c * b - b * a * a;
+                }
+                return sum / (n - 2 * lag);
+            }
+            case VALUE_COUNT: {
+                int occurrences = 0;
+                for (int i = 0; i < n; i++) {
+                    if (data[from + i] == p[0]) occurrences++;
+                }
+                return occurrences;
+            }
+            case VARIANCE:
+                return x.m2;
+            case VARIANCE_LARGER_THAN_STANDARD_DEVIATION:
+                return x.m2 > std ? 1 : 0;
+            default:
+                throw new IllegalArgumentException("Unsupported feature " + step.feature);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.util.Arrays;
+
+/**
+ * Fast Fourier Transform used by the methods implemented on the Java side: the radix-2 transform for power of two
+ * lengths, and the Bluestein algorithm on top of it for the discrete Fourier transform of any length.
+ */
+final class Fft {
+
+    private Fft() {
+    }
+
+    /**
+     * Gets the smallest power of two greater or equal than n.
+     *
+     * @param n The minimum size.
+     * @return The power of two.
+     */
+    static int nextPowerOfTwo(int n) {
+        int size = 1;
+        while (size < n) size <<= 1;
+        return size;
+    }
+
+    /**
+     * In-place complex FFT. The length of both arrays must be the same power of two.
+     *
+     * @param re      Real part.
+     * @param im      Imaginary part.
+     * @param inverse Whether the inverse transform is calculated. The inverse transform is scaled by 1 / n.
+     */
+    static void transform(double[] re, double[] im, boolean inverse) {
+        int n = re.length;
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) j ^= bit;
+            j ^= bit;
+            if (i < j) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int len = 2; len <= n; len <<= 1) {
+            double angle = 2 * Math.PI / len * (inverse ? 1 : -1);
+            double wRe = Math.cos(angle);
+            double wIm = Math.sin(angle);
+            for (int i = 0; i < n; i += len) {
+                double curRe = 1;
+                double curIm = 0;
+                for (int j = 0; j < len / 2; j++) {
+                    int a = i + j;
+                    int b = a + len / 2;
+                    double vRe = re[b] * curRe - im[b] * curIm;
+                    double vIm = re[b] * curIm + im[b] * curRe;
+                    re[b] = re[a] - vRe;
+                    im[b] = im[a] - vIm;
+                    re[a] += vRe;
+                    im[a] += vIm;
+                    double nextRe = curRe * wRe - curIm * wIm;
+                    curIm = curRe * wIm + curIm * wRe;
+                    curRe = nextRe;
+                }
+            }
+        }
+        if (inverse) {
+            for (int i = 0; i < n; i++) {
+                re[i] /= n;
+                im[i] /= n;
+            }
+        }
+    }
+
+    /**
+     * Precomputed data of the discrete Fourier transforms of a given length, with the work arrays they need, so
+     * transforming many time series of the same length allocates nothing. Lengths that are not a power of two are
+     * transformed with the Bluestein algorithm, as a convolution of power of two length, whose chirp and the
+     * transform of its conjugate are calculated once. A plan must not be used by several threads at the same time.
+     */
+    static final class Plan {
+        private final int n;
+        private final int size;
+        private final double[] wRe;
+        private final double[] wIm;
+        private final double[] bRe;
+        private final double[] bIm;
+        private final double[] aRe;
+        private final double[] aIm;
+
+        /**
+         * Creates the plan of the given length.
+         *
+         * @param n Length of the time series.
+         */
+        Plan(int n) {
+            this.n = n;
+            if (nextPowerOfTwo(n) == n) {
+                this.size = n;
+                this.wRe = null;
+                this.wIm = null;
+                this.bRe = null;
+                this.bIm = null;
+                this.aRe = null;
+                this.aIm = null;
+                return;
+            }
+            this.size = nextPowerOfTwo(2 * n - 1);
+            // Chirp w_k = exp(-i pi k^2 / n), with k^2 reduced modulo 2n to keep the angles accurate.
+            this.wRe = new double[n];
+            this.wIm = new double[n];
+            for (int k = 0; k < n; k++) {
+                double angle = Math.PI * ((long) k * k % (2L * n)) / n;
+                wRe[k] = Math.cos(angle);
+                wIm[k] = -Math.sin(angle);
+            }
+            this.bRe = new double[size];
+            this.bIm = new double[size];
+            bRe[0] = wRe[0];
+            bIm[0] = -wIm[0];
+            for (int k = 1; k < n; k++) {
+                bRe[k] = bRe[size - k] = wRe[k];
+                bIm[k] = bIm[size - k] = -wIm[k];
+            }
+            transform(bRe, bIm, false);
+            this.aRe = new double[size];
+            this.aIm = new double[size];
+        }
+    }
+
+    /**
+     * Calculates the discrete Fourier transform of a real time series of any length.
+     *
+     * @param t     The time series.
+     * @param tFrom Offset of the time series within its array.
+     * @param re    Array of the length of the plan receiving the real part of the coefficients.
+     * @param im    Array of the length of the plan receiving the imaginary part of the coefficients.
+     * @param plan  The plan of the length of the time series.
+     */
+    static void dft(double[] t, int tFrom, double[] re, double[] im, Plan plan) {
+        int n = plan.n;
+        if (plan.wRe == null) {
+            System.arraycopy(t, tFrom, re, 0, n);
+            Arrays.fill(im, 0, n, 0);
+            transform(re, im, false);
+            return;
+        }
+        double[] wRe = plan.wRe;
+        double[] wIm = plan.wIm;
+        double[] aRe = plan.aRe;
+        double[] aIm = plan.aIm;
+        for (int k = 0; k < n; k++) {
+            aRe[k] = t[tFrom + k] * wRe[k];
+            aIm[k] = t[tFrom + k] * wIm[k];
+        }
+        Arrays.fill(aRe, n, plan.size, 0);
+        Arrays.fill(aIm, n, plan.size, 0);
+        transform(aRe, aIm, false);
+        for (int i = 0; i < plan.size; i++) {
+            double r = aRe[i] * plan.bRe[i] - aIm[i] * plan.bIm[i];
+            aIm[i] = aRe[i] * plan.bIm[i] + aIm[i] * plan.bRe[i];
+            aRe[i] = r;
+        }
+        transform(aRe, aIm, true);
+        for (int k = 0; k < n; k++) {
+            re[k] = aRe[k] * wRe[k] - aIm[k] * wIm[k];
+            im[k] = aRe[k] * wIm[k] + aIm[k] * wRe[k];
+        }
+    }
+
+    /**
+     * Calculates the dot product of the query with every subsequence of the time series.
+     *
+     * @param query  The query.
+     * @param qFrom  Offset of the query within its array.
+     * @param m      Length of the query.
+     * @param t      The time series.
+     * @param tFrom  Offset of the time series within its array.
+     * @param n      Length of the time series.
+     * @return Array of n - m + 1 dot products.
+     */
+    static double[] slidingDotProduct(double[] query, int qFrom, int m, double[] t, int tFrom, int n) {
+        int size = nextPowerOfTwo(n + m);
+        double[] tRe = new double[size];
+        double[] tIm = new double[size];
+        double[] qRe = new double[size];
+        double[] qIm = new double[size];
+        System.arraycopy(t, tFrom, tRe, 0, n);
+        for (int i = 0; i < m; i++) qRe[i] = query[qFrom + m - 1 - i];
+        transform(tRe, tIm, false);
+        transform(qRe, qIm, false);
+        for (int i = 0; i < size; i++) {
+            double re = tRe[i] * qRe[i] - tIm[i] * qIm[i];
+            tIm[i] = tRe[i] * qIm[i] + tIm[i] * qRe[i];
+            tRe[i] = re;
+        }
+        transform(tRe, tIm, true);
+        double[] result = new double[n - m + 1];
+        System.arraycopy(tRe, m - 1, result, 0, result.length);
+        return result;
+    }
+}
@@ -9,6 +9,8 @@
 
 package io.shapelets.khiva;
 
+import java.util.Arrays;
+
 /**
  * Khiva Matrix Profile class containing matrix profile methods.
  */
@@ -57,6 +59,24 @@ public class Matrix extends Library {
         return Array.fromNative(ref);
     }
 
+    /**
+     * Mueen's Algorithm for Similarity Search with the given precision policy. The inputs are converted before the
+     * calculation, see {@link Precision} for the error bounds of every policy.
+     *
+     * @param query     Array whose first dimension is the length of the query time series and the second dimension
+     *                  is the number of queries.
+     * @param tss       Array whose first dimension is the length of the time series and the second dimension is the
+     *                  number of time series.
+     * @param precision The precision policy.
+     * @return Array with the distances, of type f64 for FP64 and f32 otherwise.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array mass(Array query, Array tss, Precision precision) {
+        try (Precision.Prepared q = precision.prepare(query); Precision.Prepared t = precision.prepare(tss)) {
+            return precision.finish(mass(q.array, t.array));
+        }
+    }
+
     /**
      * Calculates the N best matches of several queries in several time series.
      * <p>
@@ -103,6 +123,26 @@ public class Matrix extends Library {
         return new Array[]{Array.fromNative(refs[0]), Array.fromNative(refs[1])};
     }
 
+    /**
+     * STOMP algorithm to calculate the matrix profile between 'arrA' and 'arrB' using a subsequence length of 'm',
+     * with the given precision policy. The inputs are converted before the calculation, see {@link Precision} for the
+     * error bounds of every policy.
+     *
+     * @param arrA      Array containing the input time series.
+     * @param arrB      Array containing the input time series.
+     * @param m         Long with the subsequence length.
+     * @param precision The precision policy.
+     * @return Array of arrays with the Matrix profile, of type f64 for FP64 and f32 otherwise, and index.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array[] stomp(Array arrA, Array arrB, long m, Precision precision) {
+        try (Precision.Prepared a = precision.prepare(arrA); Precision.Prepared b = precision.prepare(arrB)) {
+            Array[] result = stomp(a.array, b.array, m);
+            result[0] = precision.finish(result[0]);
+            return result;
+        }
+    }
+
     /**
      * STOMP algorithm to calculate the matrix profile between 't' and itself using a subsequence length
      * of 'm'. This method filters the trivial matches.
@@ -121,6 +161,298 @@ public class Matrix extends Library {
         return new Array[]{Array.fromNative(refs[0]), Array.fromNative(refs[1])};
     }
 
+    /**
+     * STOMP algorithm to calculate the matrix profile between 't' and itself using a subsequence length of 'm', with
+     * the given precision policy. The input is converted before the calculation, see {@link Precision} for the error
+     * bounds of every policy.
+     *
+     * @param arr       Array containing the input time series.
+     * @param m         Long with the subsequence length.
+     * @param precision The precision policy.
+     * @return Array of arrays with the Matrix profile, of type f64 for FP64 and f32 otherwise, and index.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array[] stompSelfJoin(Array arr, long m, Precision precision) {
+        try (Precision.Prepared input = precision.prepare(arr)) {
+            Array[] result = stompSelfJoin(input.array, m);
+            result[0] = precision.finish(result[0]);
+            return result;
+        }
+    }
+
+    /**
+     * STOMP algorithm to calculate the matrix profile between 't' and itself using a subsequence length of 'm',
+     * returning also the left and right matrix profiles computed in the same pass. The left profile records the
+     * nearest neighbour of each subsequence among the ones that start before it, and the right profile among the ones
+     * that start after it. This method filters the trivial matches, using an exclusion zone of m / 2.
+     * <p>
+     * Subsequences without any valid neighbour on one side have an infinite distance and a -1 index.
+     * <p>
+     * [1] Yan Zhu, Makoto Imamura, Daniel Nikovski and Eamonn Keogh (2017). Matrix Profile VII: Time Series
+     * Chains: A New Primitive for Time Series Data Mining. IEEE ICDM 2017.
+     *
+     * @param arr Array containing the input time series.
+     * @param m   Long with the subsequence length.
+     * @return Array of arrays with the Matrix profile, index, left profile, left index, right profile and right
+     * index.
+     * @throws IllegalArgumentException If the subsequence length is not smaller than the time series length.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array[] stompSelfJoinLeftRight(Array arr, long m) {
+        long[] dims = arr.getDims();
+        int n = (int) dims[0];
+        int count = (int) (dims[1] * dims[2] * dims[3]);
+        if (m < 2 || m >= n) {
+            throw new IllegalArgumentException("The subsequence length must be between 2 and the time series length");
+        }
+        int l = (int) (n - m + 1);
+        double[] data = arr.getDataAsDouble();
+        double[][] profiles = new double[3][l * count];
+        int[][] indices = new int[3][l * count];
+        for (int c = 0; c < count; c++) {
+            MatrixProfileKernels.SelfJoin result = MatrixProfileKernels.selfJoin(data, c * n, n, (int) m,
+                    (int) (m / 2), true);
+            System.arraycopy(result.profile, 0, profiles[0], c * l, l);
+            System.arraycopy(result.index, 0, indices[0], c * l, l);
+            System.arraycopy(result.leftProfile, 0, profiles[1], c * l, l);
+            System.arraycopy(result.leftIndex, 0, indices[1], c * l, l);
+            System.arraycopy(result.rightProfile, 0, profiles[2], c * l, l);
+            System.arraycopy(result.rightIndex, 0, indices[2], c * l, l);
+        }
+
+        long[] outDims = {l, dims[1], dims[2], dims[3]};
+        Array[] out = new Array[6];
+        for (int i = 0; i < 3; i++) {
+            out[2 * i] = Array.fromDoubleData(profiles[i], outDims, arr.getType());
+            out[2 * i + 1] = Array.fromPrimitiveArray(indices[i], outDims);
+        }
+        return out;
+    }
+
+    /**
+     * Calculates the part of the self join matrix profile of 't' corresponding to a band of diagonals of the
+     * distance matrix, using a subsequence length of 'm'. Diagonal k holds the pairs of subsequences (i, i + k), and
+     * the diagonals inside the exclusion zone of m / 2 are skipped.
+     * <p>
+     * Splitting the diagonals among several workers and merging their results with
+     * {@link #mergeProfiles(Array, Array, Array, Array)} or {@link MatrixProfileFile#merge} gives the same profile as
+     * a complete self join. Positions without any match in the band have an infinite distance and a -1 index.
+     *
+     * @param arr           Array containing the input time series.
+     * @param m             Long with the subsequence length.
+     * @param firstDiagonal First diagonal of the band.
+     * @param lastDiagonal  Last diagonal of the band, inclusive.
+     * @return Array of arrays with the partial Matrix profile and index.
+     * @throws IllegalArgumentException If the subsequence length is not smaller than the time series length.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array[] stompSelfJoinDiagonals(Array arr, long m, long firstDiagonal, long lastDiagonal) {
+        return partialSelfJoin(arr, m, firstDiagonal, lastDiagonal, true);
+    }
+
+    /**
+     * Calculates the part of the self join matrix profile of 't' corresponding to a range of rows of the upper
+     * triangle of the distance matrix, using a subsequence length of 'm'. This is, the pairs of subsequences (i, j)
+     * with i in the range and j greater than i outside the exclusion zone of m / 2.
+     * <p>
+     * Splitting the rows among several workers and merging their results with
+     * {@link #mergeProfiles(Array, Array, Array, Array)} or {@link MatrixProfileFile#merge} gives the same profile as
+     * a complete self join. Positions without any match in the range have an infinite distance and a -1 index.
+     *
+     * @param arr      Array containing the input time series.
+     * @param m        Long with the subsequence length.
+     * @param firstRow First row of the range.
+     * @param lastRow  Last row of the range, inclusive.
+     * @return Array of arrays with the partial Matrix profile and index.
+     * @throws IllegalArgumentException If the subsequence length is not smaller than the time series length.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array[] stompSelfJoinRows(Array arr, long m, long firstRow, long lastRow) {
+        return partialSelfJoin(arr, m, firstRow, lastRow, false);
+    }
+
+    private static Array[] partialSelfJoin(Array arr, long m, long first, long last, boolean diagonals) {
+        long[] dims = arr.getDims();
+        int n = (int) dims[0];
+        int count = (int) (dims[1] * dims[2] * dims[3]);
+        if (m < 2 || m >= n) {
+            throw new IllegalArgumentException("The subsequence length must be between 2 and the time series length");
+        }
+        int l = (int) (n - m + 1);
+        int from = (int) Math.max(0, Math.min(first, l));
+        int to = (int) Math.max(-1, Math.min(last, l - 1));
+        double[] data = arr.getDataAsDouble();
+        double[] profile = new double[l * count];
+        int[] index = new int[l * count];
+        for (int c = 0; c < count; c++) {
+            MatrixProfileKernels.SelfJoin result;
+            if (diagonals) {
+                result = MatrixProfileKernels.selfJoinDiagonals(data, c * n, n, (int) m, (int) (m / 2), from, to,
+                        false);
+            } else {
+                result = MatrixProfileKernels.selfJoinRows(data, c * n, n, (int) m, (int) (m / 2), from, to);
+            }
+            System.arraycopy(result.profile, 0, profile, c * l, l);
+            System.arraycopy(result.index, 0, index, c * l, l);
+        }
+        long[] outDims = {l, dims[1], dims[2], dims[3]};
+        return new Array[]{Array.fromDoubleData(profile, outDims, arr.getType()),
+                           Array.fromPrimitiveArray(index, outDims)};
+    }
+
+    /**
+     * Merges two partial matrix profiles of the same time series, keeping for every position the minimum distance
+     * and its index.
+     *
+     * @param profileA The first partial matrix profile.
+     * @param indexA   The first partial matrix profile index.
+     * @param profileB The second partial matrix profile.
+     * @param indexB   The second partial matrix profile index.
+     * @return Array of arrays with the merged Matrix profile and index.
+     * @throws IllegalArgumentException If the dimensions of the partial profiles do not match.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array[] mergeProfiles(Array profileA, Array indexA, Array profileB, Array indexB) {
+        long[] dims = profileA.getDims();
+        if (!Arrays.equals(dims, profileB.getDims())) {
+            throw new IllegalArgumentException("Mismatching partial matrix profile dims");
+        }
+        double[] profile = profileA.getDataAsDouble();
+        int[] index = indexA.getData();
+        double[] otherProfile = profileB.getDataAsDouble();
+        int[] otherIndex = indexB.getData();
+        for (int i = 0; i < profile.length; i++) {
+            if (otherProfile[i] < profile[i]) {
+                profile[i] = otherProfile[i];
+                index[i] = otherIndex[i];
+            }
+        }
+        return new Array[]{Array.fromDoubleData(profile, dims, profileA.getType()),
+                           Array.fromPrimitiveArray(index, dims)};
+    }
+
+    /**
+     * Extracts the time series chain anchored at the given subsequence. A chain follows the right index of each
+     * subsequence as long as the left index of the next one points back to it.
+     * <p>
+     * [1] Yan Zhu, Makoto Imamura, Daniel Nikovski and Eamonn Keogh (2017). Matrix Profile VII: Time Series
+     * Chains: A New Primitive for Time Series Data Mining. IEEE ICDM 2017.
+     *
+     * @param leftIndex  The left matrix profile index of a single time series.
+     * @param rightIndex The right matrix profile index of a single time series.
+     * @param anchor     The subsequence where the chain starts.
+     * @return Array with the indices of the subsequences in the chain, starting with the anchor.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array anchoredChain(Array leftIndex, Array rightIndex, long anchor) {
+        int[] left = leftIndex.getData();
+        int[] right = rightIndex.getData();
+        int[] chain = chainFrom(left, right, (int) anchor);
+        return Array.fromPrimitiveArray(chain, new long[]{chain.length});
+    }
+
+    /**
+     * Extracts the longest time series chain, i.e. the unanchored chain with the largest number of subsequences.
+     * If several chains have the same length, the one starting earlier is returned.
+     * <p>
+     * [1] Yan Zhu, Makoto Imamura, Daniel Nikovski and Eamonn Keogh (2017). Matrix Profile VII: Time Series
+     * Chains: A New Primitive for Time Series Data Mining. IEEE ICDM 2017.
+     *
+     * @param leftIndex  The left matrix profile index of a single time series.
+     * @param rightIndex The right matrix profile index of a single time series.
+     * @return Array with the indices of the subsequences in the longest chain.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static Array longestChain(Array leftIndex, Array rightIndex) {
+        int[] left = leftIndex.getData();
+        int[] right = rightIndex.getData();
+        int[] longest = new int[0];
+        for (int i = 0; i < left.length; i++) {
+            // Only the chain heads are visited, so every subsequence is walked once.
+            boolean head = left[i] < 0 || right[left[i]] != i;
+            if (head) {
+                int[] chain = chainFrom(left, right, i);
+                if (chain.length > longest.length) longest = chain;
+            }
+        }
+        return Array.fromPrimitiveArray(longest, new long[]{longest.length});
+    }
+
+    private static int[] chainFrom(int[] left, int[] right, int anchor) {
+        int[] chain = new int[8];
+        int size = 0;
+        int current = anchor;
+        while (true) {
+            if (size == chain.length) chain = Arrays.copyOf(chain, size * 2);
+            chain[size++] = current;
+            int next = right[current];
+            if (next < 0 || left[next] != current) break;
+            current = next;
+        }
+        return Arrays.copyOf(chain, size);
+    }
+
+    /**
+     * mSTAMP algorithm to calculate the multidimensional matrix profile of a multivariate time series and itself
+     * using a subsequence length of 'm'. This method filters the trivial matches, using an exclusion zone of m / 2.
+     * <p>
+     * For every pair of subsequences the distances of all the channels are sorted, and the k-dimensional distance is
+     * the mean of the k smallest ones, so all the k-dimensional profiles are calculated in a single pass.
+     * <p>
+     * The result has the following structure:
+     * - The profile and the index have the subsequences in the 1st dimension and the number of dimensions k minus one
+     * in the 2nd dimension.
+     * - If requested, the dimensions array has the dimension rank in the 1st dimension, k minus one in the 2nd
+     * dimension and the subsequences in the 3rd dimension. Only the first k entries of each k-dimensional match are
+     * meaningful, the rest are -1.
+     * <p>
+     * [1] Chin-Chia Michael Yeh, Nickolas Kavantzas and Eamonn Keogh (2017). Matrix Profile VI: Meaningful
+     * Multidimensional Motif Discovery. IEEE ICDM 2017.
+     *
+     * @param tss               Array whose first dimension is the length of the time series and the second dimension
+     *                          is the number of channels.
+     * @param m                 Long with the subsequence length.
+     * @param includeDimensions Whether the dimensions used by every match are returned.
+     * @return Array of arrays with the multidimensional matrix profile, index and, if requested, the dimensions.
+     * @throws IllegalArgumentException If the subsequence length is not smaller than the time series length.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array[] mstamp(Array tss, long m, boolean includeDimensions) {
+        long[] dims = tss.getDims();
+        int n = (int) dims[0];
+        int d = (int) (dims[1] * dims[2] * dims[3]);
+        if (m < 2 || m >= n) {
+            throw new IllegalArgumentException("The subsequence length must be between 2 and the time series length");
+        }
+        int l = (int) (n - m + 1);
+        MatrixProfileKernels.Multidimensional result = MatrixProfileKernels.mstamp(tss.getDataAsDouble(), n, d,
+                (int) m, (int) (m / 2), includeDimensions);
+
+        long[] outDims = {l, d};
+        Array profile = Array.fromDoubleData(result.profile, outDims, tss.getType());
+        Array index = Array.fromPrimitiveArray(result.index, outDims);
+        if (!includeDimensions) {
+            return new Array[]{profile, index};
+        }
+        Array dimensions = Array.fromPrimitiveArray(result.dimensions, new long[]{d, d, l});
+        return new Array[]{profile, index, dimensions};
+    }
+
+    /**
+     * mSTAMP algorithm to calculate the multidimensional matrix profile of a multivariate time series and itself
+     * using a subsequence length of 'm'. This method filters the trivial matches.
+     *
+     * @param tss Array whose first dimension is the length of the time series and the second dimension is the number
+     *            of channels.
+     * @param m   Long with the subsequence length.
+     * @return Array of arrays with the multidimensional matrix profile and index.
+     * @throws KhivaException If the native function call fails.
+     * @see #mstamp(Array, long, boolean)
+     */
+    public static Array[] mstamp(Array tss, long m) {
+        return mstamp(tss, m, false);
+    }
+
     /**
      * This function extracts the best N discords from a previously calculated matrix profile.
      *
@@ -182,4 +514,187 @@ public class Matrix extends Library {
     public static Array[] findBestNDiscords(Array profile, Array index, long m, long n) {
         return findBestNDiscords(profile, index, m, n, false);
     }
+
+    /**
+     * This function extracts the best N motifs from a matrix profile stored in a file, without loading it into
+     * the device. The exclusion zone stored in the file determines which subsequences are considered trivial matches
+     * of an already selected motif.
+     * <p>
+     * If there are not enough subsequences left outside the exclusion zones, the remaining positions of the
+     * output are filled with NaN distances and -1 indices.
+     *
+     * @param profile  The memory mapped matrix profile.
+     * @param n        Number of motifs to extract.
+     * @param selfJoin Indicates whether the input profile comes from a self join operation or not. It determines
+     *                 whether the mirror similar region is included in the output or not.
+     * @return Array of arrays with the distances, the indices and the indices in the compared time series.
+     * @throws IllegalArgumentException If n is not between 1 and {@link Integer#MAX_VALUE}.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array[] findBestNMotifs(MatrixProfileFile profile, long n, boolean selfJoin) {
+        return findBestN(profile, n, selfJoin, false);
+    }
+
+    /**
+     * This function extracts the best N motifs from a matrix profile stored in a file, without loading it into
+     * the device.
+     *
+     * @param profile The memory mapped matrix profile.
+     * @param n       Number of motifs to extract.
+     * @return Array of arrays with the distances, the indices and the indices in the compared time series.
+     * @throws IllegalArgumentException If n is not between 1 and {@link Integer#MAX_VALUE}.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array[] findBestNMotifs(MatrixProfileFile profile, long n) {
+        return findBestNMotifs(profile, n, false);
+    }
+
+    /**
+     * This function extracts the best N discords from a matrix profile stored in a file, without loading it into
+     * the device. The exclusion zone stored in the file determines which subsequences are considered trivial matches
+     * of an already selected discord.
+     * <p>
+     * If there are not enough subsequences left outside the exclusion zones, the remaining positions of the
+     * output are filled with NaN distances and -1 indices.
+     *
+     * @param profile  The memory mapped matrix profile.
+     * @param n        Number of discords to extract.
+     * @param selfJoin Indicates whether the input profile comes from a self join operation or not. It determines
+     *                 whether the mirror similar region is included in the output or not.
+     * @return Array of arrays with the distances, the indices and the indices in the compared time series.
+     * @throws IllegalArgumentException If n is not between 1 and {@link Integer#MAX_VALUE}.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array[] findBestNDiscords(MatrixProfileFile profile, long n, boolean selfJoin) {
+        return findBestN(profile, n, selfJoin, true);
+    }
+
+    /**
+     * This function extracts the best N discords from a matrix profile stored in a file, without loading it into
+     * the device.
+     *
+     * @param profile The memory mapped matrix profile.
+     * @param n       Number of discords to extract.
+     * @return Array of arrays with the distances, the indices and the indices in the compared time series.
+     * @throws IllegalArgumentException If n is not between 1 and {@link Integer#MAX_VALUE}.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static Array[] findBestNDiscords(MatrixProfileFile profile, long n) {
+        return findBestNDiscords(profile, n, false);
+    }
+
+    // Extracts the best N motifs or discords of every profile stored in the file, following the same output layout
+    // as the native implementation.
+    private static Array[] findBestN(MatrixProfileFile profile, long bestN, boolean selfJoin, boolean discords) {
+        if (bestN < 1 || bestN > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The number of motifs or discords must be between 1 and "
+                    + Integer.MAX_VALUE);
+        }
+        int n = (int) bestN;
+        int length = profile.getLength();
+        int count = profile.getCount();
+        long[] inDims = profile.getDims();
+        long[] outDims = {n, inDims[1], inDims[2], inDims[3]};
+
+        double[] distances = new double[length];
+        int[] index = new int[length];
+        double[] outDistances = new double[n * count];
+        int[] outIndices = new int[n * count];
+        int[] outSubsequences = new int[n * count];
+
+        for (int c = 0; c < count; c++) {
+            for (int i = 0; i < length; i++) {
+                distances[i] = profile.getDistance(c, i);
+                index[i] = profile.getIndex(c, i);
+            }
+            int[] selected = selectBestN(distances, index, n, profile.getExclusionZone(), selfJoin, discords);
+            for (int j = 0; j < n; j++) {
+                int o = c * n + j;
+                if (j < selected.length) {
+                    outDistances[o] = distances[selected[j]];
+                    outIndices[o] = index[selected[j]];
+                    outSubsequences[o] = selected[j];
+                } else {
+                    outDistances[o] = Double.NaN;
+                    outIndices[o] = -1;
+                    outSubsequences[o] = -1;
+                }
+            }
+        }
+
+        Array outDistancesArray;
+        if (profile.getType() == Dtype.f64) {
+            outDistancesArray = Array.fromPrimitiveArray(outDistances, outDims);
+        } else {
+            float[] values = new float[outDistances.length];
+            for (int i = 0; i < values.length; i++) values[i] = (float) outDistances[i];
+            outDistancesArray = Array.fromPrimitiveArray(values, outDims);
+        }
+        return new Array[]{outDistancesArray, Array.fromPrimitiveArray(outIndices, outDims),
+                           Array.fromPrimitiveArray(outSubsequences, outDims)};
+    }
+
+    // Selects up to n positions of a single profile in ascending (motifs) or descending (discords) distance order,
+    // skipping the positions inside the exclusion zone of the already selected ones. A binary heap is used so only
+    // the inspected candidates pay the logarithmic cost.
+    //
+    static int[] selectBestN(double[] distances, int[] index, int n, long exclusionZone, boolean selfJoin,
+                             boolean discords) {
+        int length = distances.length;
+        int[] heap = new int[length];
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            double d = distances[i];
+            if (Double.isNaN(d) || (discords && Double.isInfinite(d))) continue;
+            heap[size++] = i;
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) siftDown(heap, size, i, distances, discords);
+
+        boolean[] excluded = new boolean[length];
+        int[] selected = new int[Math.min(n, size)];
+        int found = 0;
+        while (found < selected.length && size > 0) {
+            int candidate = heap[0];
+            heap[0] = heap[--size];
+            siftDown(heap, size, 0, distances, discords);
+            if (excluded[candidate]) continue;
+
+            selected[found++] = candidate;
+            exclude(excluded, candidate, exclusionZone);
+            // Entries without a neighbour, as in partial profiles, have no mirror region.
+            if (selfJoin && index[candidate] >= 0 && !Double.isInfinite(distances[candidate])) {
+                exclude(excluded, index[candidate], exclusionZone);
+            }
+        }
+        return found == selected.length ? selected : Arrays.copyOf(selected, found);
+    }
+
+    private static void exclude(boolean[] excluded, long position, long exclusionZone) {
+        int from = (int) Math.max(0, position - exclusionZone);
+        int to = (int) Math.min(excluded.length - 1, position + exclusionZone);
+        for (int i = from; i <= to; i++) excluded[i] = true;
+    }
+
+    private static void siftDown(int[] heap, int size, int i, double[] keys, boolean max) {
+        while (true) {
+            int best = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && before(heap[left], heap[best], keys, max)) best = left;
+            if (right < size && before(heap[right], heap[best], keys, max)) best = right;
+            if (best == i) return;
+            int tmp = heap[i];
+            heap[i] = heap[best];
+            heap[best] = tmp;
+            i = best;
+        }
+    }
+
+    // Orders by distance and breaks ties by position, so the selection is deterministic.
+    //
+    private static boolean before(int a, int b, double[] keys, boolean max) {
+        int cmp = Double.compare(keys[a], keys[b]);
+        if (cmp == 0) return a < b;
+        return max ? cmp > 0 : cmp < 0;
+    }
 }
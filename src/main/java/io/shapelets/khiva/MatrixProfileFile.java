@@ -0,0 +1,521 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Khiva Matrix Profile File class. It stores a previously calculated matrix profile and its index in a compact
+ * binary format, which is read back through a memory mapped buffer.
+ * <p>
+ * The file is little endian and has the following layout:
+ * - A 72 bytes header with the magic number, the format version, the profile data type, the subsequence length,
+ * the exclusion zone, a hash of the input time series and the 4 dimensions of the profile.
+ * - The profile values, stored with the profile data type (f32 or f64).
+ * - The profile index, stored as 32 bits integers.
+ */
+public class MatrixProfileFile {
+
+    private static final int MAGIC = 0x4B4D5046;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 72;
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    // Codes of the profile data types in the file, f32 and f64.
+    private static final Dtype[] TYPE_CODES = {Dtype.f32, Dtype.f64};
+
+    private final Dtype type;
+
+    private final long m;
+
+    private final long exclusionZone;
+
+    private final long seriesHash;
+
+    private final long[] dims;
+
+    private final ByteBuffer profile;
+
+    private final ByteBuffer index;
+
+    private MatrixProfileFile(Dtype type, long m, long exclusionZone, long seriesHash, long[] dims,
+                              ByteBuffer profile, ByteBuffer index) {
+        this.type = type;
+        this.m = m;
+        this.exclusionZone = exclusionZone;
+        this.seriesHash = seriesHash;
+        this.dims = dims;
+        this.profile = profile;
+        this.index = index;
+    }
+
+    /**
+     * Writes a matrix profile and its index to the given path, replacing the file if it already exists.
+     *
+     * @param path          The path of the file to be written.
+     * @param profile       The matrix profile, as returned by {@link Matrix#stomp} or {@link Matrix#stompSelfJoin}.
+     * @param index         The matrix profile index.
+     * @param m             Subsequence length value used to calculate the matrix profile.
+     * @param exclusionZone Number of positions at each side of a subsequence considered a trivial match.
+     * @param seriesHash    Hash of the input time series, as returned by {@link #hash(Array)}.
+     * @throws IOException              If the file cannot be written.
+     * @throws IllegalArgumentException If the profile is not of type f32 or f64, or its dimensions do not match the
+     *                                  index ones.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public static void write(Path path, Array profile, Array index, long m, long exclusionZone, long seriesHash)
+            throws IOException {
+        Objects.requireNonNull(path, "Null path provided");
+        Dtype type = profile.getType();
+        if (type != Dtype.f32 && type != Dtype.f64) {
+            throw new IllegalArgumentException("The matrix profile must be of type f32 or f64");
+        }
+        long[] dims = Array.dim4(profile.getDims());
+        if (!Arrays.equals(dims, Array.dim4(index.getDims()))) {
+            throw new IllegalArgumentException("Mismatching profile and index dims");
+        }
+        int[] idx = index.getData();
+        write(path, type, m, exclusionZone, seriesHash, dims, profile.getDataAsDouble(), idx);
+    }
+
+    private static void write(Path path, Dtype type, long m, long exclusionZone, long seriesHash, long[] dims,
+                              double[] values, int[] idx) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            new Header(type, m, exclusionZone, seriesHash, dims).write(channel);
+            channel.position(HEADER_SIZE);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (type == Dtype.f64) {
+                for (double v : values) {
+                    if (chunk.remaining() < Double.BYTES) flush(channel, chunk);
+                    chunk.putDouble(v);
+                }
+            } else {
+                for (double v : values) {
+                    if (chunk.remaining() < Float.BYTES) flush(channel, chunk);
+                    chunk.putFloat((float) v);
+                }
+            }
+            for (int i : idx) {
+                if (chunk.remaining() < Integer.BYTES) flush(channel, chunk);
+                chunk.putInt(i);
+            }
+            flush(channel, chunk);
+        }
+    }
+
+    /**
+     * Writes a matrix profile and its index to the given path using an exclusion zone of m / 2.
+     *
+     * @param path       The path of the file to be written.
+     * @param profile    The matrix profile.
+     * @param index      The matrix profile index.
+     * @param m          Subsequence length value used to calculate the matrix profile.
+     * @param seriesHash Hash of the input time series, as returned by {@link #hash(Array)}.
+     * @throws IOException    If the file cannot be written.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static void write(Path path, Array profile, Array index, long m, long seriesHash) throws IOException {
+        write(path, profile, index, m, m / 2, seriesHash);
+    }
+
+    /**
+     * Opens a matrix profile file previously written with {@link #write}. The profile and the index are memory
+     * mapped, so only the pages actually accessed are read from disk.
+     *
+     * @param path The path of the file to be read.
+     * @return The memory mapped matrix profile.
+     * @throws IOException              If the file cannot be read.
+     * @throws IllegalArgumentException If the file is not a valid matrix profile file.
+     */
+    public static MatrixProfileFile open(Path path) throws IOException {
+        Objects.requireNonNull(path, "Null path provided");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Header header = Header.read(channel, path);
+            if (header.profileBytes > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Matrix profiles larger than 2GB cannot be mapped");
+            }
+            ByteBuffer profile = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, header.profileBytes)
+                                        .order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, header.indexOffset(), header.indexBytes)
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+            return new MatrixProfileFile(header.type, header.m, header.exclusionZone, header.seriesHash, header.dims,
+                    profile, index);
+        }
+    }
+
+    // The header of a matrix profile file, along with the sizes of its sections.
+    private static final class Header {
+        final Dtype type;
+        final long m;
+        final long exclusionZone;
+        final long seriesHash;
+        final long[] dims;
+        final long elements;
+        final long profileBytes;
+        final long indexBytes;
+
+        private Header(Dtype type, long m, long exclusionZone, long seriesHash, long[] dims) {
+            this.type = type;
+            this.m = m;
+            this.exclusionZone = exclusionZone;
+            this.seriesHash = seriesHash;
+            this.dims = dims;
+            long elements = 1;
+            for (long dim : dims) elements *= dim;
+            this.elements = elements;
+            this.profileBytes = elements * (type == Dtype.f64 ? Double.BYTES : Float.BYTES);
+            this.indexBytes = elements * Integer.BYTES;
+        }
+
+        long indexOffset() {
+            return HEADER_SIZE + profileBytes;
+        }
+
+        // Reads and checks the header of the file, whose size must match the one given by the header.
+        static Header read(FileChannel channel, Path path) throws IOException {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IllegalArgumentException("Not a matrix profile file: " + path);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a matrix profile file: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported matrix profile file version: " + version);
+            }
+            int typeCode = header.getInt();
+            if (typeCode < 0 || typeCode >= TYPE_CODES.length) {
+                throw new IllegalArgumentException("Unsupported matrix profile type: " + typeCode);
+            }
+            Dtype type = TYPE_CODES[typeCode];
+            header.getInt();
+            long m = header.getLong();
+            long exclusionZone = header.getLong();
+            long seriesHash = header.getLong();
+            long[] dims = new long[4];
+            for (int i = 0; i < dims.length; i++) {
+                dims[i] = header.getLong();
+            }
+            Header result = new Header(type, m, exclusionZone, seriesHash, dims);
+            if (channel.size() != result.indexOffset() + result.indexBytes) {
+                throw new IllegalArgumentException("Truncated matrix profile file: " + path);
+            }
+            return result;
+        }
+
+        // Writes the header at the beginning of the file.
+        void write(FileChannel channel) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(Arrays.asList(TYPE_CODES).indexOf(type)).putInt(0);
+            header.putLong(m).putLong(exclusionZone).putLong(seriesHash);
+            for (long dim : dims) header.putLong(dim);
+            header.flip();
+            writeFully(channel, header, 0);
+        }
+
+        boolean matches(Header other) {
+            return m == other.m && exclusionZone == other.exclusionZone && type == other.type
+                    && seriesHash == other.seriesHash && Arrays.equals(dims, other.dims);
+        }
+    }
+
+    /**
+     * Merges several partial matrix profiles of the same time series, as calculated by
+     * {@link Matrix#stompSelfJoinDiagonals} or {@link Matrix#stompSelfJoinRows} on different workers, into a single
+     * file. Every position keeps the minimum distance among the partial profiles, along with its index, the first
+     * one in case of a tie.
+     * <p>
+     * The partial files are read in chunks, so the merge does not need to hold the profiles in memory. The result is
+     * written to a temporary file next to the output, which replaces the output once it is complete.
+     *
+     * @param output   The path of the merged file.
+     * @param partials The paths of the partial files.
+     * @throws IOException              If any of the files cannot be read or written.
+     * @throws IllegalArgumentException If no partial files are given, the output is one of them, or they do not share
+     *                                  the subsequence length, exclusion zone, type, dimensions and time series hash.
+     */
+    public static void merge(Path output, Path... partials) throws IOException {
+        Objects.requireNonNull(output, "Null path provided");
+        if (partials == null || partials.length == 0) {
+            throw new IllegalArgumentException("No partial matrix profiles provided");
+        }
+        for (Path partial : partials) {
+            if (output.toAbsolutePath().normalize().equals(partial.toAbsolutePath().normalize())
+                    || (Files.exists(output) && Files.isSameFile(output, partial))) {
+                throw new IllegalArgumentException("The output cannot be one of the partial matrix profiles: "
+                        + output);
+            }
+        }
+        FileChannel[] channels = new FileChannel[partials.length];
+        Path parent = output.toAbsolutePath().getParent();
+        Path temporary = null;
+        try {
+            Header first = null;
+            for (int p = 0; p < partials.length; p++) {
+                channels[p] = FileChannel.open(partials[p], StandardOpenOption.READ);
+                Header header = Header.read(channels[p], partials[p]);
+                if (first == null) {
+                    first = header;
+                } else if (!header.matches(first)) {
+                    throw new IllegalArgumentException("Mismatching partial matrix profile: " + partials[p]);
+                }
+            }
+            temporary = Files.createTempFile(parent, output.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                first.write(channel);
+                merge(channels, first, channel);
+            }
+            try {
+                Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temporary = null;
+        } finally {
+            for (FileChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+            if (temporary != null) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    // Merges the profiles and indices of the partial files chunk by chunk into the output.
+    private static void merge(FileChannel[] partials, Header header, FileChannel output) throws IOException {
+        int size = header.type == Dtype.f64 ? Double.BYTES : Float.BYTES;
+        int chunkElements = CHUNK_SIZE / Integer.BYTES;
+        ByteBuffer values = ByteBuffer.allocateDirect(chunkElements * size).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer idx = ByteBuffer.allocateDirect(chunkElements * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        double[] best = new double[chunkElements];
+        int[] bestIdx = new int[chunkElements];
+        for (long start = 0; start < header.elements; start += chunkElements) {
+            int elements = (int) Math.min(chunkElements, header.elements - start);
+            long valuesPosition = HEADER_SIZE + start * size;
+            long idxPosition = header.indexOffset() + start * Integer.BYTES;
+            for (int p = 0; p < partials.length; p++) {
+                values.clear().limit(elements * size);
+                idx.clear().limit(elements * Integer.BYTES);
+                readFully(partials[p], values, valuesPosition);
+                readFully(partials[p], idx, idxPosition);
+                for (int i = 0; i < elements; i++) {
+                    double v = size == Double.BYTES ? values.getDouble(i * size) : values.getFloat(i * size);
+                    if (p == 0 || v < best[i]) {
+                        best[i] = v;
+                        bestIdx[i] = idx.getInt(i * Integer.BYTES);
+                    }
+                }
+            }
+            values.clear().limit(elements * size);
+            idx.clear().limit(elements * Integer.BYTES);
+            for (int i = 0; i < elements; i++) {
+                if (size == Double.BYTES) {
+                    values.putDouble(best[i]);
+                } else {
+                    values.putFloat((float) best[i]);
+                }
+                idx.putInt(bestIdx[i]);
+            }
+            values.flip();
+            idx.flip();
+            writeFully(output, values, valuesPosition);
+            writeFully(output, idx, idxPosition);
+        }
+    }
+
+    /**
+     * Calculates a 64 bits FNV-1a hash of the values of the given time series. It is meant to be stored along the
+     * matrix profile, so it can be checked that a profile read from disk belongs to the expected time series.
+     *
+     * @param tss Array containing the input time series.
+     * @return The hash of the time series values.
+     * @throws KhivaException If the native function call fails.
+     */
+    public static long hash(Array tss) {
+        long h = 0xcbf29ce484222325L;
+        Object data = tss.getData();
+        if (data instanceof double[]) {
+            for (double v : (double[]) data) h = hash(h, Double.doubleToLongBits(v));
+        } else if (data instanceof float[]) {
+            for (float v : (float[]) data) h = hash(h, Double.doubleToLongBits(v));
+        } else {
+            throw new IllegalArgumentException("The time series must be of type f32 or f64");
+        }
+        return h;
+    }
+
+    private static long hash(long h, long bits) {
+        for (int i = 0; i < Long.BYTES; i++) {
+            h ^= (bits >>> (i * 8)) & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer chunk) throws IOException {
+        chunk.flip();
+        writeFully(channel, chunk);
+        chunk.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of matrix profile file");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Gets the data type of the stored profile.
+     *
+     * @return The profile data type, f32 or f64.
+     */
+    public Dtype getType() {
+        return type;
+    }
+
+    /**
+     * Gets the subsequence length used to calculate the stored profile.
+     *
+     * @return The subsequence length.
+     */
+    public long getM() {
+        return m;
+    }
+
+    /**
+     * Gets the exclusion zone used to discard trivial matches.
+     *
+     * @return The exclusion zone.
+     */
+    public long getExclusionZone() {
+        return exclusionZone;
+    }
+
+    /**
+     * Gets the hash of the time series the stored profile was calculated from.
+     *
+     * @return The time series hash.
+     */
+    public long getSeriesHash() {
+        return seriesHash;
+    }
+
+    /**
+     * Gets the dimensions of the stored profile.
+     *
+     * @return The dimensions.
+     */
+    public long[] getDims() {
+        return dims.clone();
+    }
+
+    /**
+     * Gets the length of each stored profile, this is, the first dimension.
+     *
+     * @return The profile length.
+     */
+    public int getLength() {
+        return (int) dims[0];
+    }
+
+    /**
+     * Gets the number of stored profiles, this is, the product of all the dimensions but the first one.
+     *
+     * @return The number of profiles.
+     */
+    public int getCount() {
+        return (int) (dims[1] * dims[2] * dims[3]);
+    }
+
+    /**
+     * Gets the distance stored at the given position of the given profile.
+     *
+     * @param profile  The profile number.
+     * @param position The position within the profile.
+     * @return The matrix profile distance.
+     */
+    public double getDistance(int profile, int position) {
+        int offset = profile * getLength() + position;
+        if (type == Dtype.f64) {
+            return this.profile.getDouble(offset * Double.BYTES);
+        }
+        return this.profile.getFloat(offset * Float.BYTES);
+    }
+
+    /**
+     * Gets the index stored at the given position of the given profile.
+     *
+     * @param profile  The profile number.
+     * @param position The position within the profile.
+     * @return The matrix profile index.
+     */
+    public int getIndex(int profile, int position) {
+        return index.getInt((profile * getLength() + position) * Integer.BYTES);
+    }
+
+    /**
+     * Loads the stored matrix profile and index back into Khiva arrays.
+     *
+     * @return Array of arrays with the Matrix profile and index.
+     * @throws KhivaException If the native function call fails.
+     */
+    public Array[] toArrays() {
+        int elements = getLength() * getCount();
+        int[] idx = new int[elements];
+        index.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(idx);
+        Array profileArray;
+        if (type == Dtype.f64) {
+            double[] values = new double[elements];
+            profile.duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(values);
+            profileArray = Array.fromPrimitiveArray(values, dims);
+        } else {
+            float[] values = new float[elements];
+            profile.duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+            profileArray = Array.fromPrimitiveArray(values, dims);
+        }
+        return new Array[]{profileArray, Array.fromPrimitiveArray(idx, dims)};
+    }
+}
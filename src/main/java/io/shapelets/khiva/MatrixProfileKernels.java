@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.util.Arrays;
+
+/**
+ * Matrix profile kernels implemented on the Java side, for the variants not offered by the native library.
+ * <p>
+ * All of them traverse the distance matrix diagonal by diagonal, updating the dot products incrementally as in
+ * STOMP, so every pair of subsequences costs O(1) once the first row has been calculated with a FFT.
+ */
+final class MatrixProfileKernels {
+
+    private MatrixProfileKernels() {
+    }
+
+    /**
+     * Multidimensional matrix profile of one multivariate time series.
+     */
+    static final class Multidimensional {
+        /**
+         * Profile with dims [L, d]. Column k - 1 holds the k-dimensional profile.
+         */
+        final double[] profile;
+        /**
+         * Index with dims [L, d].
+         */
+        final int[] index;
+        /**
+         * Dimensions used by every match with dims [d, d, L], or null if not requested.
+         */
+        final int[] dimensions;
+
+        Multidimensional(double[] profile, int[] index, int[] dimensions) {
+            this.profile = profile;
+            this.index = index;
+            this.dimensions = dimensions;
+        }
+    }
+
+    /**
+     * Self join matrix profile of one time series. Positions without any valid match have an infinite distance and
+     * a -1 index.
+     */
+    static final class SelfJoin {
+        final double[] profile;
+        final int[] index;
+        final double[] leftProfile;
+        final int[] leftIndex;
+        final double[] rightProfile;
+        final int[] rightIndex;
+
+        SelfJoin(int l, boolean leftRight) {
+            profile = new double[l];
+            index = new int[l];
+            Arrays.fill(profile, Double.POSITIVE_INFINITY);
+            Arrays.fill(index, -1);
+            if (leftRight) {
+                leftProfile = profile.clone();
+                leftIndex = index.clone();
+                rightProfile = profile.clone();
+                rightIndex = index.clone();
+            } else {
+                leftProfile = null;
+                leftIndex = null;
+                rightProfile = null;
+                rightIndex = null;
+            }
+        }
+    }
+
+    /**
+     * Calculates the mean and standard deviation of every subsequence of length m.
+     *
+     * @param t    Array containing the time series.
+     * @param from Offset of the time series within t.
+     * @param n    Length of the time series.
+     * @param m    Subsequence length.
+     * @param mean Output array for the means, with n - m + 1 elements.
+     * @param std  Output array for the standard deviations, with n - m + 1 elements.
+     */
+    static void movingMeanStd(double[] t, int from, int n, int m, double[] mean, double[] std) {
+        double shift = t[from];
+        double sum = 0;
+        double sumSq = 0;
+        for (int i = 0; i < n; i++) {
+            double v = t[from + i] - shift;
+            sum += v;
+            sumSq += v * v;
+            if (i >= m) {
+                double old = t[from + i - m] - shift;
+                sum -= old;
+                sumSq -= old * old;
+            }
+            if (i >= m - 1) {
+                double mu = sum / m;
+                mean[i - m + 1] = mu + shift;
+                std[i - m + 1] = Math.sqrt(Math.max(0, sumSq / m - mu * mu));
+            }
+        }
+    }
+
+    /**
+     * Z-normalized euclidean distance between two subsequences given their dot product and statistics.
+     * Two constant subsequences are at distance zero, and a constant subsequence is uncorrelated with any other.
+     */
+    static double distance(double qt, int m, double meanA, double stdA, double meanB, double stdB) {
+        double correlation;
+        if (stdA == 0 || stdB == 0) {
+            correlation = (stdA == 0 && stdB == 0) ? 1 : 0;
+        } else {
+            correlation = (qt - m * meanA * meanB) / (m * stdA * stdB);
+        }
+        return Math.sqrt(Math.max(0, 2 * m * (1 - correlation)));
+    }
+
+    /**
+     * Self join of one time series. Besides the profile and index, the left profile (nearest neighbour in the past)
+     * and the right profile (nearest neighbour in the future) can be calculated in the same pass.
+     *
+     * @param t             Array containing the time series.
+     * @param from          Offset of the time series within t.
+     * @param n             Length of the time series.
+     * @param m             Subsequence length.
+     * @param exclusionZone Pairs closer than or equal to this number of positions are considered trivial matches.
+     * @param leftRight     Whether the left and right profiles are calculated.
+     * @return The self join profile.
+     */
+    static SelfJoin selfJoin(double[] t, int from, int n, int m, int exclusionZone, boolean leftRight) {
+        return selfJoinDiagonals(t, from, n, m, exclusionZone, 0, n - m, leftRight);
+    }
+
+    /**
+     * Self join of one time series restricted to a band of diagonals of the distance matrix. Diagonal k holds the
+     * pairs of subsequences (i, i + k). The diagonals inside the exclusion zone are skipped.
+     *
+     * @param t             Array containing the time series.
+     * @param from          Offset of the time series within t.
+     * @param n             Length of the time series.
+     * @param m             Subsequence length.
+     * @param exclusionZone Pairs closer than or equal to this number of positions are considered trivial matches.
+     * @param firstDiagonal First diagonal of the band.
+     * @param lastDiagonal  Last diagonal of the band, inclusive.
+     * @param leftRight     Whether the left and right profiles are calculated.
+     * @return The partial self join profile.
+     */
+    static SelfJoin selfJoinDiagonals(double[] t, int from, int n, int m, int exclusionZone, int firstDiagonal,
+                                      int lastDiagonal, boolean leftRight) {
+        int l = n - m + 1;
+        double[] mean = new double[l];
+        double[] std = new double[l];
+        movingMeanStd(t, from, n, m, mean, std);
+        double[] firstRow = Fft.slidingDotProduct(t, from, m, t, from, n);
+
+        SelfJoin result = new SelfJoin(l, leftRight);
+        int last = Math.min(lastDiagonal, l - 1);
+        for (int k = Math.max(exclusionZone + 1, firstDiagonal); k <= last; k++) {
+            double qt = firstRow[k];
+            for (int i = 0; i + k < l; i++) {
+                int j = i + k;
+                if (i > 0) {
+                    qt += t[from + i + m - 1] * t[from + j + m - 1] - t[from + i - 1] * t[from + j - 1];
+                }
+                update(result, i, j, distance(qt, m, mean[i], std[i], mean[j], std[j]), leftRight);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Self join of one time series restricted to a range of rows of the upper triangle of the distance matrix, this
+     * is, the pairs (i, j) with i in the range and j greater than i. Both subsequences of every pair are updated, so
+     * merging the results of a partition of the rows gives the complete profile.
+     *
+     * @param t             Array containing the time series.
+     * @param from          Offset of the time series within t.
+     * @param n             Length of the time series.
+     * @param m             Subsequence length.
+     * @param exclusionZone Pairs closer than or equal to this number of positions are considered trivial matches.
+     * @param firstRow      First row of the range.
+     * @param lastRow       Last row of the range, inclusive.
+     * @return The partial self join profile.
+     */
+    static SelfJoin selfJoinRows(double[] t, int from, int n, int m, int exclusionZone, int firstRow, int lastRow) {
+        int l = n - m + 1;
+        double[] mean = new double[l];
+        double[] std = new double[l];
+        movingMeanStd(t, from, n, m, mean, std);
+
+        SelfJoin result = new SelfJoin(l, false);
+        int first = Math.max(0, firstRow);
+        int last = Math.min(lastRow, l - 1);
+        if (first > last) {
+            return result;
+        }
+        double[] qt = Fft.slidingDotProduct(t, from + first, m, t, from, n);
+        for (int i = first; i <= last; i++) {
+            if (i > first) {
+                // Row update from the end, so the previous row values are still available.
+                for (int j = l - 1; j > 0; j--) {
+                    qt[j] = qt[j - 1] - t[from + i - 1] * t[from + j - 1] + t[from + i + m - 1] * t[from + j + m - 1];
+                }
+                double q0 = 0;
+                for (int p = 0; p < m; p++) q0 += t[from + i + p] * t[from + p];
+                qt[0] = q0;
+            }
+            for (int j = i + exclusionZone + 1; j < l; j++) {
+                update(result, i, j, distance(qt[j], m, mean[i], std[i], mean[j], std[j]), false);
+            }
+        }
+        return result;
+    }
+
+    // Updates the profiles with the distance between subsequences i and j, with i lower than j.
+    //
+    private static void update(SelfJoin result, int i, int j, double d, boolean leftRight) {
+        if (d < result.profile[i]) {
+            result.profile[i] = d;
+            result.index[i] = j;
+        }
+        if (d < result.profile[j]) {
+            result.profile[j] = d;
+            result.index[j] = i;
+        }
+        if (leftRight) {
+            // j is in the future of i and i is in the past of j.
+            if (d < result.rightProfile[i]) {
+                result.rightProfile[i] = d;
+                result.rightIndex[i] = j;
+            }
+            if (d < result.leftProfile[j]) {
+                result.leftProfile[j] = d;
+                result.leftIndex[j] = i;
+            }
+        }
+    }
+
+    /**
+     * mSTAMP multidimensional self join. For every pair of subsequences, the distances of all the channels are
+     * sorted and the k-dimensional distance is the mean of the k smallest ones.
+     * <p>
+     * [1] Chin-Chia Michael Yeh, Nickolas Kavantzas and Eamonn Keogh (2017). Matrix Profile VI: Meaningful
+     * Multidimensional Motif Discovery. IEEE ICDM 2017.
+     *
+     * @param data          Channels stored one after the other, each of length n.
+     * @param n             Length of every channel.
+     * @param d             Number of channels.
+     * @param m             Subsequence length.
+     * @param exclusionZone Pairs closer than or equal to this number of positions are considered trivial matches.
+     * @param withDims      Whether the dimensions used by every match are recorded.
+     * @return The multidimensional profile.
+     */
+    static Multidimensional mstamp(double[] data, int n, int d, int m, int exclusionZone, boolean withDims) {
+        int l = n - m + 1;
+        double[][] mean = new double[d][l];
+        double[][] std = new double[d][l];
+        double[][] firstRow = new double[d][];
+        for (int c = 0; c < d; c++) {
+            movingMeanStd(data, c * n, n, m, mean[c], std[c]);
+            firstRow[c] = Fft.slidingDotProduct(data, c * n, m, data, c * n, n);
+        }
+
+        double[] profile = new double[l * d];
+        int[] index = new int[l * d];
+        Arrays.fill(profile, Double.POSITIVE_INFINITY);
+        Arrays.fill(index, -1);
+        int[] dimensions = null;
+        if (withDims) {
+            dimensions = new int[d * d * l];
+            Arrays.fill(dimensions, -1);
+        }
+
+        double[] qt = new double[d];
+        double[] dist = new double[d];
+        int[] order = new int[d];
+        for (int k = exclusionZone + 1; k < l; k++) {
+            for (int i = 0; i + k < l; i++) {
+                int j = i + k;
+                for (int c = 0; c < d; c++) {
+                    int base = c * n;
+                    if (i == 0) {
+                        qt[c] = firstRow[c][k];
+                    } else {
+                        qt[c] += data[base + i + m - 1] * data[base + j + m - 1]
+                                 - data[base + i - 1] * data[base + j - 1];
+                    }
+                    dist[c] = distance(qt[c], m, mean[c][i], std[c][i], mean[c][j], std[c][j]);
+                    order[c] = c;
+                }
+                // Insertion sort, the number of channels is small.
+                for (int a = 1; a < d; a++) {
+                    double v = dist[a];
+                    int o = order[a];
+                    int b = a - 1;
+                    while (b >= 0 && dist[b] > v) {
+                        dist[b + 1] = dist[b];
+                        order[b + 1] = order[b];
+                        b--;
+                    }
+                    dist[b + 1] = v;
+                    order[b + 1] = o;
+                }
+                double sum = 0;
+                for (int c = 0; c < d; c++) {
+                    sum += dist[c];
+                    double value = sum / (c + 1);
+                    if (value < profile[c * l + i]) {
+                        profile[c * l + i] = value;
+                        index[c * l + i] = j;
+                        if (withDims) System.arraycopy(order, 0, dimensions, (i * d + c) * d, c + 1);
+                    }
+                    if (value < profile[c * l + j]) {
+                        profile[c * l + j] = value;
+                        index[c * l + j] = i;
+                        if (withDims) System.arraycopy(order, 0, dimensions, (j * d + c) * d, c + 1);
+                    }
+                }
+            }
+        }
+        return new Multidimensional(profile, index, dimensions);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Khiva Matrix Profile Top-K class. It extracts the best K motifs or discords of a matrix profile of a single time
+ * series while the profile is being calculated, consuming it in chunks instead of requiring the complete profile as
+ * {@link Matrix#findBestNMotifs} and {@link Matrix#findBestNDiscords} do.
+ * <p>
+ * The best candidates seen so far are kept sorted in a bounded set, and the trivial matches are discarded by applying
+ * the exclusion zone every time the candidates change. A listener is notified whenever the top-K set changes, so alerts
+ * can be raised before the whole join completes. A chunk may report again positions already seen, in which case the
+ * lowest distance is kept, as when merging the partial results of a tiled computation.
+ * <p>
+ * For motifs, the result is exact as long as the number of candidates discarded by the exclusion zones does not
+ * exceed the capacity minus K. For discords, a position reported again with a lower distance may fall behind
+ * candidates already evicted from the bounded set, which are not recovered, so the result is only exact if the
+ * capacity also covers every position reported more than once, e.g. the length of the profile when the chunks
+ * overlap.
+ */
+public class MatrixProfileTopK {
+
+    /**
+     * Listener notified when the top-K set changes.
+     */
+    public interface Listener {
+        /**
+         * Called after a chunk changes the top-K set.
+         *
+         * @param distances          The distances of the current top-K, best first.
+         * @param indices            The matrix profile index of every subsequence in the top-K.
+         * @param subsequenceIndices The position of every subsequence in the top-K.
+         */
+        void topKChanged(double[] distances, int[] indices, long[] subsequenceIndices);
+    }
+
+    private static final class Candidate {
+        final long position;
+        final double distance;
+        final int index;
+
+        Candidate(long position, double distance, int index) {
+            this.position = position;
+            this.distance = distance;
+            this.index = index;
+        }
+    }
+
+    private final int k;
+
+    private final int capacity;
+
+    private final long exclusionZone;
+
+    private final boolean selfJoin;
+
+    private final boolean discords;
+
+    private final Listener listener;
+
+    private final Comparator<Candidate> order;
+
+    // The kept candidates, best first. The order is total, as it breaks the ties by position.
+    private final TreeSet<Candidate> kept;
+
+    private final Map<Long, Candidate> candidates = new HashMap<>();
+
+    private Candidate[] topK = new Candidate[0];
+
+    /**
+     * Creates a top-K extractor.
+     *
+     * @param k             Number of motifs or discords to extract.
+     * @param exclusionZone Number of positions at each side of a selected subsequence considered a trivial match.
+     * @param selfJoin      Indicates whether the profile comes from a self join operation or not. It determines
+     *                      whether the mirror similar region is included in the output or not.
+     * @param discords      Whether discords (largest distances) are extracted instead of motifs (smallest distances).
+     * @param capacity      Maximum number of candidates kept. It must be at least k.
+     * @param listener      Listener notified when the top-K set changes, or null.
+     * @throws IllegalArgumentException If k is not positive or the capacity is lower than k.
+     */
+    public MatrixProfileTopK(int k, long exclusionZone, boolean selfJoin, boolean discords, int capacity,
+                             Listener listener) {
+        if (k <= 0 || capacity < k) {
+            throw new IllegalArgumentException("k must be positive and the capacity at least k");
+        }
+        this.k = k;
+        this.capacity = capacity;
+        this.exclusionZone = exclusionZone;
+        this.selfJoin = selfJoin;
+        this.discords = discords;
+        this.listener = listener;
+        Comparator<Candidate> byDistance = Comparator.comparingDouble(c -> c.distance);
+        if (discords) byDistance = byDistance.reversed();
+        this.order = byDistance.thenComparingLong(c -> c.position);
+        this.kept = new TreeSet<>(order);
+    }
+
+    /**
+     * Creates a top-K extractor keeping up to 8 * k candidates.
+     *
+     * @param k             Number of motifs or discords to extract.
+     * @param exclusionZone Number of positions at each side of a selected subsequence considered a trivial match.
+     * @param selfJoin      Indicates whether the profile comes from a self join operation or not.
+     * @param discords      Whether discords are extracted instead of motifs.
+     * @param listener      Listener notified when the top-K set changes, or null.
+     */
+    public MatrixProfileTopK(int k, long exclusionZone, boolean selfJoin, boolean discords, Listener listener) {
+        this(k, exclusionZone, selfJoin, discords, 8 * k, listener);
+    }
+
+    /**
+     * Consumes a chunk of the matrix profile.
+     *
+     * @param offset  Position in the profile of the first element of the chunk.
+     * @param profile The matrix profile distances of the chunk.
+     * @param index   The matrix profile index of the chunk.
+     * @return Whether the top-K set changed.
+     * @throws IllegalArgumentException If the profile and index lengths differ.
+     */
+    public boolean accept(long offset, double[] profile, int[] index) {
+        if (profile.length != index.length) {
+            throw new IllegalArgumentException("Mismatching profile and index lengths");
+        }
+        boolean changed = false;
+        for (int i = 0; i < profile.length; i++) {
+            double d = profile[i];
+            if (Double.isNaN(d) || (discords && Double.isInfinite(d))) continue;
+            changed |= offer(new Candidate(offset + i, d, index[i]));
+        }
+        // The selection only depends on the kept candidates, so it is only repeated when they change.
+        return changed && refresh();
+    }
+
+    /**
+     * Consumes a chunk of the matrix profile stored in Khiva arrays.
+     *
+     * @param offset  Position in the profile of the first element of the chunk.
+     * @param profile The matrix profile distances of the chunk.
+     * @param index   The matrix profile index of the chunk.
+     * @return Whether the top-K set changed.
+     * @throws KhivaException If the native function call fails.
+     */
+    public boolean accept(long offset, Array profile, Array index) {
+        int[] idx = index.getData();
+        return accept(offset, profile.getDataAsDouble(), idx);
+    }
+
+    // Keeps the candidate if it is among the best ones, returning whether the kept candidates changed.
+    private boolean offer(Candidate candidate) {
+        Candidate previous = candidates.get(candidate.position);
+        if (previous != null) {
+            // Partial results are merged with min-reduction, whatever is being extracted.
+            if (candidate.distance >= previous.distance) return false;
+            kept.remove(previous);
+            candidates.remove(previous.position);
+        } else if (kept.size() == capacity) {
+            if (order.compare(candidate, kept.last()) >= 0) return false;
+            candidates.remove(kept.pollLast().position);
+        }
+        kept.add(candidate);
+        candidates.put(candidate.position, candidate);
+        return true;
+    }
+
+    // Runs the greedy selection with exclusion zones over the kept candidates and notifies the listener if the
+    // result differs from the previous one.
+    private boolean refresh() {
+        Candidate[] selected = new Candidate[k];
+        int found = 0;
+        for (Iterator<Candidate> it = kept.iterator(); it.hasNext() && found < k; ) {
+            Candidate c = it.next();
+            boolean trivial = false;
+            for (int j = 0; j < found && !trivial; j++) {
+                // Entries without a neighbour, as in partial profiles, have no mirror region.
+                trivial = Math.abs(c.position - selected[j].position) <= exclusionZone
+                          || (selfJoin && selected[j].index >= 0 && !Double.isInfinite(selected[j].distance)
+                              && Math.abs(c.position - selected[j].index) <= exclusionZone);
+            }
+            if (!trivial) selected[found++] = c;
+        }
+        selected = Arrays.copyOf(selected, found);
+        if (Arrays.equals(selected, topK)) {
+            return false;
+        }
+        topK = selected;
+        if (listener != null) {
+            listener.topKChanged(getDistances(), getIndices(), getSubsequenceIndices());
+        }
+        return true;
+    }
+
+    /**
+     * Gets the distances of the current top-K, best first.
+     *
+     * @return The distances.
+     */
+    public double[] getDistances() {
+        double[] result = new double[topK.length];
+        for (int i = 0; i < topK.length; i++) result[i] = topK[i].distance;
+        return result;
+    }
+
+    /**
+     * Gets the matrix profile index of every subsequence in the current top-K.
+     *
+     * @return The indices.
+     */
+    public int[] getIndices() {
+        int[] result = new int[topK.length];
+        for (int i = 0; i < topK.length; i++) result[i] = topK[i].index;
+        return result;
+    }
+
+    /**
+     * Gets the position of every subsequence in the current top-K.
+     *
+     * @return The subsequence indices.
+     */
+    public long[] getSubsequenceIndices() {
+        long[] result = new long[topK.length];
+        for (int i = 0; i < topK.length; i++) result[i] = topK[i].position;
+        return result;
+    }
+
+    /**
+     * Gets the current top-K with the same layout as {@link Matrix#findBestNMotifs} and
+     * {@link Matrix#findBestNDiscords}. If fewer than K subsequences have been found, the remaining positions are
+     * filled with NaN distances and -1 indices.
+     *
+     * @return Array of arrays with the distances, the indices and the indices in the compared time series.
+     * @throws KhivaException If the native function call fails.
+     */
+    public Array[] getResult() {
+        double[] distances = new double[k];
+        int[] indices = new int[k];
+        int[] subsequenceIndices = new int[k];
+        Arrays.fill(distances, Double.NaN);
+        Arrays.fill(indices, -1);
+        Arrays.fill(subsequenceIndices, -1);
+        for (int i = 0; i < topK.length; i++) {
+            distances[i] = topK[i].distance;
+            indices[i] = topK[i].index;
+            subsequenceIndices[i] = (int) topK[i].position;
+        }
+        long[] dims = {k};
+        return new Array[]{Array.fromPrimitiveArray(distances, dims), Array.fromPrimitiveArray(indices, dims),
+                           Array.fromPrimitiveArray(subsequenceIndices, dims)};
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.util.Arrays;
+
+/**
+ * Khiva Online KMeans class. It clusters time series arriving continuously in batches with sequential k-means: every
+ * time series is assigned to its closest centroid, which then moves towards it, so every batch costs O(batch * k)
+ * distances and the history is never revisited.
+ * <p>
+ * Every centroid is the weighted mean of its time series. Before every batch the weights are multiplied by the decay,
+ * so with a decay of 1 every centroid is the plain mean of all its time series, and with a lower decay the older
+ * batches weigh less and the centroids follow the drift of the data. The first k time series received become the
+ * initial centroids.
+ * <p>
+ * [1] J. MacQueen. 1967. Some methods for classification and analysis of multivariate observations. Proceedings of
+ * the Fifth Berkeley Symposium on Mathematical Statistics and Probability, Volume 1, Pages 281-297.
+ */
+public class OnlineKMeans {
+
+    private final int length;
+
+    private final int k;
+
+    private final double decay;
+
+    private final double[] centroids;
+
+    private final double[] weights;
+
+    private int initialized;
+
+    private long seen;
+
+    private double[] lastBatch = new double[0];
+
+    private int lastCount;
+
+    private Dtype type = Dtype.f64;
+
+    /**
+     * Creates an online clustering without centroids.
+     *
+     * @param length Length of the time series.
+     * @param k      The number of centroids.
+     * @param decay  Factor applied to the weights of the centroids before every batch, in (0, 1].
+     * @throws IllegalArgumentException If the length or k are not positive, or the decay is out of range.
+     */
+    public OnlineKMeans(int length, int k, double decay) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("The length must be positive");
+        }
+        if (k <= 0) {
+            throw new IllegalArgumentException("The number of centroids must be positive");
+        }
+        if (!(decay > 0 && decay <= 1)) {
+            throw new IllegalArgumentException("The decay must be in (0, 1]");
+        }
+        this.length = length;
+        this.k = k;
+        this.decay = decay;
+        this.centroids = new double[length * k];
+        this.weights = new double[k];
+    }
+
+    /**
+     * Consumes a batch of time series, assigning every one of them to its closest centroid and moving the centroid
+     * towards it.
+     *
+     * @param batch Array whose first dimension is the length of the time series and the second dimension is the
+     *              number of time series.
+     * @return Array with the index of the centroid every time series was assigned to.
+     * @throws IllegalArgumentException If the length of the time series does not match.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public Array update(Array batch) {
+        long[] dims = batch.getDims();
+        if (dims[0] != length) {
+            throw new IllegalArgumentException("The time series must have length " + length);
+        }
+        type = batch.getType();
+        int count = (int) dims[1];
+        int[] labels = update(batch.getDataAsDouble(), count);
+        return Array.fromPrimitiveArray(labels, new long[]{count});
+    }
+
+    /**
+     * Consumes a batch of time series.
+     *
+     * @param data  Time series stored one after the other.
+     * @param count Number of time series.
+     * @return The index of the centroid every time series was assigned to.
+     */
+    int[] update(double[] data, int count) {
+        for (int c = 0; c < initialized; c++) {
+            weights[c] *= decay;
+        }
+        int[] labels = new int[count];
+        for (int i = 0; i < count; i++) {
+            int from = i * length;
+            int c;
+            if (initialized < k) {
+                c = initialized++;
+                System.arraycopy(data, from, centroids, c * length, length);
+                weights[c] = 1;
+            } else {
+                c = ClusteringKernels.nearest(data, from, centroids, k, length);
+                weights[c]++;
+                double eta = 1 / weights[c];
+                for (int t = 0; t < length; t++) {
+                    centroids[c * length + t] += eta * (data[from + t] - centroids[c * length + t]);
+                }
+            }
+            labels[i] = c;
+        }
+        seen += count;
+        lastBatch = data;
+        lastCount = count;
+        return labels;
+    }
+
+    /**
+     * Gets a snapshot of the clustering: the current centroids and the labels of the last batch assigned to them,
+     * in the format of {@link Clustering#kMeans}.
+     *
+     * @return An Array of arrays with the centroids and the labels of the last batch.
+     * @throws IllegalStateException If no time series has been consumed yet.
+     * @throws KhivaException        If the native function call fails.
+     */
+    public Array[] snapshot() {
+        if (initialized == 0) {
+            throw new IllegalStateException("No time series consumed yet");
+        }
+        int[] labels = new int[lastCount];
+        ClusteringKernels.assign(lastBatch, length, lastCount, centroids, initialized, labels);
+        return new Array[]{getCentroids(), Array.fromPrimitiveArray(labels, new long[]{lastCount})};
+    }
+
+    /**
+     * Gets the current centroids. There are less than k until k time series have been consumed.
+     *
+     * @return Array whose first dimension is the length of the time series and the second dimension is the number of
+     * centroids.
+     * @throws IllegalStateException If no time series has been consumed yet.
+     * @throws KhivaException        If the native function call fails.
+     */
+    public Array getCentroids() {
+        if (initialized == 0) {
+            throw new IllegalStateException("No time series consumed yet");
+        }
+        return Array.fromDoubleData(Arrays.copyOf(centroids, initialized * length), new long[]{length, initialized},
+                type);
+    }
+
+    /**
+     * Gets the weight of every centroid: the number of time series assigned to it, discounted by the decay.
+     *
+     * @return The weights.
+     */
+    public double[] getWeights() {
+        return Arrays.copyOf(weights, initialized);
+    }
+
+    /**
+     * Gets the number of time series consumed.
+     *
+     * @return The number of time series.
+     */
+    public long getSeen() {
+        return seen;
+    }
+}
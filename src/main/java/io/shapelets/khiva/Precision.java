@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+/**
+ * Precision policy of the distance and matrix profile calculations. Without a policy the calculations inherit the
+ * type of the input; with a policy the input is converted before the calculation, unless it already has the type of
+ * the policy, and the distances are returned in the type of the policy, whatever the type of the input.
+ * <p>
+ * The error bounds below use the unit roundoff of single precision, u = 2^-24 (about 6e-8), for time series x and y
+ * of length n, and are bounds with respect to the FP64 result:
+ * <ul>
+ * <li>{@link #FP64}: the reference, with a unit roundoff of 2^-53.</li>
+ * <li>{@link #FP32}: the squared euclidean distance satisfies |d - d64| &lt;= (n + 5) * u * sum((|x_i| + |y_i|)^2),
+ * the error growing with the length because of the single precision accumulation. The rest of the sums of
+ * per-point terms (euclidean, Manhattan, DTW) behave the same way.</li>
+ * </ul>
+ * The z-normalized distances of {@link Matrix#mass}, {@link Matrix#stomp} and {@link Matrix#stompSelfJoin} are
+ * calculated as sqrt(2 * m * (1 - correlation)), so the error of the correlation is amplified close to a perfect
+ * match. In FP32 the squared distances have an absolute error of the order of 2 * m * (L + 5) * u * (1 + mean^2 /
+ * std^2), where L is the length of the time series, as the running sums used by the means and deviations accumulate
+ * along it, which makes the smallest distances unreliable.
+ */
+public enum Precision {
+    /**
+     * Double precision storage and arithmetic.
+     */
+    FP64,
+    /**
+     * Single precision storage and arithmetic. It halves the memory and doubles the SIMD throughput.
+     */
+    FP32;
+
+    /**
+     * An input converted to the type of the calculation, which is only released if a new array was created.
+     */
+    static final class Prepared implements AutoCloseable {
+        final Array array;
+        private final boolean owned;
+
+        private Prepared(Array array, boolean owned) {
+            this.array = array;
+            this.owned = owned;
+        }
+
+        @Override
+        public void close() {
+            if (owned) {
+                array.close();
+            }
+        }
+    }
+
+    /**
+     * Gets the type of the distances returned with this policy.
+     *
+     * @return f64 for FP64 and f32 for FP32.
+     */
+    public Dtype getResultType() {
+        return this == FP64 ? Dtype.f64 : Dtype.f32;
+    }
+
+    /**
+     * Converts an input array to the type of the calculation. The input itself is used if it already has that type.
+     *
+     * @param input The input array.
+     * @return The input of type f64 for FP64 and f32 for FP32, to be closed by the caller.
+     * @throws KhivaException If the native function call fails.
+     */
+    Prepared prepare(Array input) {
+        if (input.getType() == getResultType()) {
+            return new Prepared(input, false);
+        }
+        return new Prepared(input.as(getResultType()), true);
+    }
+
+    /**
+     * Converts a result array of distances to the result type, closing it if a new array is created.
+     *
+     * @param result The result array.
+     * @return The result array with the result type.
+     * @throws KhivaException If the native function call fails.
+     */
+    Array finish(Array result) {
+        if (result.getType() == getResultType()) {
+            return result;
+        }
+        try {
+            return result.as(getResultType());
+        } finally {
+            result.close();
+        }
+    }
+}
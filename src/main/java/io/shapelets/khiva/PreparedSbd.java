@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.util.Arrays;
+
+/**
+ * Khiva Prepared SBD class. It calculates the Shape-Based distance (SBD) against a fixed collection of reference time
+ * series, whose z-normalized and zero-padded FFT spectra and norms are calculated once. Every query then needs a
+ * single FFT plus one inverse FFT per reference, instead of the three FFTs per pair of {@link Distances#sbd}.
+ */
+public class PreparedSbd {
+
+    private final int length;
+
+    private final int count;
+
+    private final int size;
+
+    private final double[][] re;
+
+    private final double[][] im;
+
+    private final double[] norms;
+
+    /**
+     * Prepares the given reference time series.
+     *
+     * @param references Array whose first dimension is the length of the time series (all the same) and the second
+     *                   dimension is the number of references.
+     * @throws KhivaException If the native function call fails.
+     */
+    public PreparedSbd(Array references) {
+        this(references.getDataAsDouble(), (int) references.getDims()[0], (int) references.getDims()[1]);
+    }
+
+    /**
+     * Prepares the given reference time series.
+     *
+     * @param data   Time series stored one after the other.
+     * @param length Length of every time series.
+     * @param count  Number of time series.
+     */
+    PreparedSbd(double[] data, int length, int count) {
+        this.length = length;
+        this.count = count;
+        this.size = Fft.nextPowerOfTwo(2 * length - 1);
+        this.re = new double[count][];
+        this.im = new double[count][];
+        this.norms = new double[count];
+        double[] normalized = DistanceKernels.prepare(Distances.Metric.SBD, data, length, count);
+        for (int r = 0; r < count; r++) {
+            re[r] = new double[size];
+            im[r] = new double[size];
+            norms[r] = spectrum(normalized, r * length, length, re[r], im[r]);
+        }
+    }
+
+    // Copies a z-normalized time series into the zero-padded buffers, transforms it and returns its norm.
+    //
+    private static double spectrum(double[] t, int from, int n, double[] re, double[] im) {
+        double norm = 0;
+        for (int i = 0; i < n; i++) {
+            re[i] = t[from + i];
+            norm += t[from + i] * t[from + i];
+        }
+        Fft.transform(re, im, false);
+        return Math.sqrt(norm);
+    }
+
+    /**
+     * Calculates the Shape-Based distance between every query and every reference.
+     *
+     * @param queries Array whose first dimension is the length of the time series (the same as the references) and
+     *                the second dimension is the number of queries.
+     * @return Array with a matrix of queries x references elements where position row i column j records the
+     * distance between query i and reference j, as {@link Distances#sbd(Array, Array)} does.
+     * @throws IllegalArgumentException If the queries length does not match the references one.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public Array distances(Array queries) {
+        long[] dims = queries.getDims();
+        if (dims[0] != length) {
+            throw new IllegalArgumentException("The queries must have the same length as the references");
+        }
+        int nQueries = (int) dims[1];
+        double[] result = distances(queries.getDataAsDouble(), nQueries);
+        return Array.fromDoubleData(result, new long[]{nQueries, count}, queries.getType());
+    }
+
+    /**
+     * Calculates the Shape-Based distance between every query and every reference.
+     *
+     * @param data     Queries stored one after the other.
+     * @param nQueries Number of queries.
+     * @return Matrix of nQueries x references distances, stored by columns.
+     */
+    double[] distances(double[] data, int nQueries) {
+        double[] normalized = DistanceKernels.prepare(Distances.Metric.SBD, data, length, nQueries);
+        double[] result = new double[nQueries * count];
+        double[] qRe = new double[size];
+        double[] qIm = new double[size];
+        double[] pRe = new double[size];
+        double[] pIm = new double[size];
+        for (int q = 0; q < nQueries; q++) {
+            Arrays.fill(qRe, 0);
+            Arrays.fill(qIm, 0);
+            double norm = spectrum(normalized, q * length, length, qRe, qIm);
+            for (int r = 0; r < count; r++) {
+                double product = norm * norms[r];
+                if (product == 0) {
+                    result[q + r * nQueries] = 1;
+                    continue;
+                }
+                System.arraycopy(qRe, 0, pRe, 0, size);
+                System.arraycopy(qIm, 0, pIm, 0, size);
+                double max = DistanceKernels.maxCorrelation(pRe, pIm, re[r], im[r], length);
+                result[q + r * nQueries] = 1 - max / product;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the length of the reference time series.
+     *
+     * @return The length.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the number of reference time series.
+     *
+     * @return The number of references.
+     */
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Khiva Streaming Matcher class. It searches a set of query patterns over a live stream, sample by sample, using the
+ * z-normalized euclidean distance of {@link Matrix#mass}, without re-sending the whole buffer on every update.
+ * <p>
+ * The last samples are kept in a circular buffer, and the mean and standard deviation of the latest subsequence of
+ * every pattern length are updated in constant time per sample. Every pattern is compared with the latest
+ * subsequence of its length as soon as a sample arrives, visiting its points from the largest to the smallest
+ * normalized value and abandoning the comparison as soon as the distance exceeds the threshold of the pattern.
+ * Subsequences within the threshold are reported to the listener.
+ * <p>
+ * [1] Thanawin Rakthanmanon, Bilson Campana, Abdullah Mueen, Gustavo Batista, Brandon Westover, Qiang Zhu, Jesin
+ * Zakaria and Eamonn Keogh (2012). Searching and Mining Trillions of Time Series Subsequences under Dynamic Time
+ * Warping. KDD 2012.
+ */
+public class StreamingMatcher {
+
+    /**
+     * Listener notified of the matches.
+     */
+    public interface Listener {
+        /**
+         * Called when the latest subsequence of the stream matches a pattern.
+         *
+         * @param pattern  Identifier of the pattern.
+         * @param position Position in the stream of the first sample of the matching subsequence.
+         * @param distance The z-normalized euclidean distance between the pattern and the subsequence.
+         */
+        void matchFound(int pattern, long position, double distance);
+    }
+
+    private static final class Pattern {
+        final int id;
+        final int length;
+        final double threshold;
+        final double[] values;
+        final int[] order;
+
+        Pattern(int id, double[] values, int[] order, double threshold) {
+            this.id = id;
+            this.length = values.length;
+            this.threshold = threshold;
+            this.values = values;
+            this.order = order;
+        }
+    }
+
+    // Mean and sum of squared deviations of the latest subsequence of a given length.
+    private static final class RunningStatistics {
+        final int length;
+        int patterns;
+        double mean;
+        double squares;
+
+        RunningStatistics(int length) {
+            this.length = length;
+        }
+    }
+
+    private final int maxLength;
+
+    // One sample more than the longest pattern, so the sample leaving a window is still available.
+    private final double[] buffer;
+
+    private final Listener listener;
+
+    private final List<Pattern> patterns = new ArrayList<>();
+
+    private final Map<Integer, RunningStatistics> statistics = new HashMap<>();
+
+    private long position;
+
+    private int nextId;
+
+    /**
+     * Creates a matcher.
+     *
+     * @param maxLength Maximum length of the patterns, which is the number of samples kept.
+     * @param listener  Listener notified of the matches.
+     * @throws IllegalArgumentException If the maximum length is not positive.
+     */
+    public StreamingMatcher(int maxLength, Listener listener) {
+        if (maxLength <= 0) {
+            throw new IllegalArgumentException("The maximum length must be positive");
+        }
+        this.maxLength = maxLength;
+        this.buffer = new double[maxLength + 1];
+        this.listener = listener;
+    }
+
+    /**
+     * Registers a pattern. It is compared with the subsequences ending at the samples received from now on.
+     *
+     * @param pattern   The pattern.
+     * @param threshold Maximum z-normalized euclidean distance of a match.
+     * @return The identifier of the pattern.
+     * @throws IllegalArgumentException If the pattern is empty or longer than the maximum length.
+     */
+    public int addPattern(double[] pattern, double threshold) {
+        int m = pattern.length;
+        if (m == 0 || m > maxLength) {
+            throw new IllegalArgumentException("The pattern length must be between 1 and " + maxLength);
+        }
+        double mean = 0;
+        for (double v : pattern) mean += v;
+        mean /= m;
+        double squares = 0;
+        for (double v : pattern) squares += (v - mean) * (v - mean);
+        double std = Math.sqrt(squares / m);
+        double[] normalized = new double[m];
+        if (std > 0) {
+            for (int i = 0; i < m; i++) normalized[i] = (pattern[i] - mean) / std;
+        }
+        // The points far from the mean contribute the most to the distance, so they are visited first.
+        Integer[] sorted = new Integer[m];
+        for (int i = 0; i < m; i++) sorted[i] = i;
+        Arrays.sort(sorted, (a, b) -> Double.compare(Math.abs(normalized[b]), Math.abs(normalized[a])));
+        int[] order = new int[m];
+        for (int i = 0; i < m; i++) order[i] = sorted[i];
+
+        Pattern p = new Pattern(nextId++, normalized, order, threshold);
+        patterns.add(p);
+        RunningStatistics stats = statistics.get(m);
+        if (stats == null) {
+            stats = new RunningStatistics(m);
+            recompute(stats);
+            statistics.put(m, stats);
+        }
+        stats.patterns++;
+        return p.id;
+    }
+
+    /**
+     * Registers a pattern. It is compared with the subsequences ending at the samples received from now on.
+     *
+     * @param pattern   Array containing the pattern.
+     * @param threshold Maximum z-normalized euclidean distance of a match.
+     * @return The identifier of the pattern.
+     * @throws KhivaException If the native function call fails.
+     */
+    public int addPattern(Array pattern, double threshold) {
+        return addPattern(pattern.getDataAsDouble(), threshold);
+    }
+
+    /**
+     * Removes a pattern.
+     *
+     * @param id Identifier of the pattern.
+     * @return Whether the pattern was registered.
+     */
+    public boolean removePattern(int id) {
+        for (Iterator<Pattern> it = patterns.iterator(); it.hasNext(); ) {
+            Pattern p = it.next();
+            if (p.id == id) {
+                it.remove();
+                RunningStatistics stats = statistics.get(p.length);
+                if (--stats.patterns == 0) {
+                    statistics.remove(p.length);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Consumes a sample of the stream and compares the patterns with the subsequences ending at it.
+     *
+     * @param value The sample.
+     */
+    public void accept(double value) {
+        int capacity = buffer.length;
+        int slot = (int) (position % capacity);
+        buffer[slot] = value;
+        position++;
+        for (RunningStatistics stats : statistics.values()) {
+            int m = stats.length;
+            if (position % m == 0) {
+                // The incremental updates drift with the rounding errors, so they are recalculated every m samples.
+                recompute(stats);
+            } else if (position > m) {
+                // Sliding update, which avoids the cancellation of the sum of squares when the deviation is small
+                // compared with the mean.
+                double old = sample(position - 1 - m);
+                double mean = stats.mean + (value - old) / m;
+                stats.squares += (value - old) * (value - mean + old - stats.mean);
+                stats.mean = mean;
+            } else {
+                double delta = value - stats.mean;
+                stats.mean += delta / position;
+                stats.squares += delta * (value - stats.mean);
+            }
+        }
+        for (Pattern p : patterns) {
+            if (position >= p.length) {
+                compare(p, statistics.get(p.length));
+            }
+        }
+    }
+
+    /**
+     * Consumes a chunk of samples of the stream, as if they were consumed one by one.
+     *
+     * @param values The samples.
+     */
+    public void accept(double[] values) {
+        for (double v : values) accept(v);
+    }
+
+    /**
+     * Consumes a chunk of samples of the stream, as if they were consumed one by one.
+     *
+     * @param values Array containing the samples.
+     * @throws KhivaException If the native function call fails.
+     */
+    public void accept(Array values) {
+        accept(values.getDataAsDouble());
+    }
+
+    // The sample at the given position of the stream, taken from the circular buffer.
+    private double sample(long streamPosition) {
+        return buffer[(int) (streamPosition % buffer.length)];
+    }
+
+    private void recompute(RunningStatistics stats) {
+        long first = Math.max(0, position - stats.length);
+        double sum = 0;
+        for (long t = first; t < position; t++) sum += sample(t);
+        stats.mean = position > first ? sum / (position - first) : 0;
+        stats.squares = 0;
+        for (long t = first; t < position; t++) {
+            double d = sample(t) - stats.mean;
+            stats.squares += d * d;
+        }
+    }
+
+    private void compare(Pattern p, RunningStatistics stats) {
+        int m = p.length;
+        double mean = stats.mean;
+        double variance = stats.squares / m;
+        // Flat subsequences are normalized to zeros, as flat patterns are. The variance is compared with the
+        // magnitude of the mean, as the incremental updates may leave a tiny residue for flat subsequences.
+        double scale = variance > 1e-16 * Math.max(1, mean * mean) ? 1 / Math.sqrt(variance) : 0;
+        long first = position - m;
+        double bound = p.threshold * p.threshold;
+        double sum = 0;
+        for (int k = 0; k < m && sum <= bound; k++) {
+            int i = p.order[k];
+            double d = (sample(first + i) - mean) * scale - p.values[i];
+            sum += d * d;
+        }
+        if (sum <= bound && listener != null) {
+            listener.matchFound(p.id, first, Math.sqrt(sum));
+        }
+    }
+
+    /**
+     * Gets the number of samples consumed.
+     *
+     * @return The number of samples.
+     */
+    public long getPosition() {
+        return position;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Khiva Time Series k-NN Index class. It stores a collection of reference time series once, prepared for the chosen
+ * metric, and answers batches of k nearest neighbour queries keeping only the best k candidates of every query, so
+ * the full distance matrix is never built.
+ * <p>
+ * Every inserted time series receives an identifier, which is the one reported by the queries and the one used to
+ * delete it. Identifiers are not reused.
+ */
+public class TimeSeriesKnnIndex {
+
+    private final int length;
+
+    private final Distances.Metric metric;
+
+    private final DtwWindow window;
+
+    private final Map<Integer, Integer> slots = new HashMap<>();
+
+    private double[] data = new double[0];
+
+    private int[] ids = new int[0];
+
+    private int size;
+
+    private int nextId;
+
+    /**
+     * Creates an empty index.
+     *
+     * @param length Length of the time series.
+     * @param metric The distance metric.
+     */
+    public TimeSeriesKnnIndex(int length, Distances.Metric metric) {
+        this(length, metric, DtwWindow.none());
+    }
+
+    /**
+     * Creates an empty index whose DTW distances are restricted to the given window.
+     *
+     * @param length Length of the time series.
+     * @param metric The distance metric.
+     * @param window The warping window, only used by the DTW metric.
+     */
+    public TimeSeriesKnnIndex(int length, Distances.Metric metric, DtwWindow window) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("The length must be positive");
+        }
+        this.length = length;
+        this.metric = metric;
+        this.window = window;
+    }
+
+    /**
+     * Creates an index containing the given references, whose identifiers are their positions in the array.
+     *
+     * @param references Array whose first dimension is the length of the time series and the second dimension is
+     *                   the number of references.
+     * @param metric     The distance metric.
+     * @throws KhivaException If the native function call fails.
+     */
+    public TimeSeriesKnnIndex(Array references, Distances.Metric metric) {
+        this((int) references.getDims()[0], metric);
+        insert(references);
+    }
+
+    /**
+     * Inserts time series in the index.
+     *
+     * @param tss Array whose first dimension is the length of the time series and the second dimension is the
+     *            number of time series.
+     * @return The identifiers assigned to the inserted time series.
+     * @throws IllegalArgumentException If the length of the time series does not match the index one.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public int[] insert(Array tss) {
+        long[] dims = tss.getDims();
+        if (dims[0] != length) {
+            throw new IllegalArgumentException("The time series must have length " + length);
+        }
+        int count = (int) dims[1];
+        double[] prepared = DistanceKernels.prepare(metric, tss.getDataAsDouble(), length, count);
+        if (size + count > ids.length) {
+            int capacity = Math.max(size + count, 2 * ids.length);
+            ids = Arrays.copyOf(ids, capacity);
+            data = Arrays.copyOf(data, capacity * length);
+        }
+        int[] result = new int[count];
+        System.arraycopy(prepared, 0, data, size * length, count * length);
+        for (int i = 0; i < count; i++) {
+            int id = nextId++;
+            ids[size] = id;
+            slots.put(id, size);
+            size++;
+            result[i] = id;
+        }
+        return result;
+    }
+
+    /**
+     * Deletes a time series from the index.
+     *
+     * @param id Identifier of the time series.
+     * @return Whether the time series was in the index.
+     */
+    public boolean delete(int id) {
+        Integer slot = slots.remove(id);
+        if (slot == null) {
+            return false;
+        }
+        // The last time series takes the place of the deleted one.
+        int last = size - 1;
+        if (slot != last) {
+            System.arraycopy(data, last * length, data, slot * length, length);
+            ids[slot] = ids[last];
+            slots.put(ids[slot], slot);
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * Gets the number of time series in the index.
+     *
+     * @return The number of time series.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the k nearest time series of the index for every query.
+     *
+     * @param queries Array whose first dimension is the length of the time series and the second dimension is the
+     *                number of queries.
+     * @param k       Number of neighbours to return.
+     * @return Array of arrays with the distances and the identifiers of the neighbours, both with k in the first
+     * dimension and the queries in the second one, sorted from the nearest to the farthest. If the index holds less
+     * than k time series, the remaining positions have infinite distance and -1 identifier.
+     * @throws IllegalArgumentException If the length of the queries does not match the index one or k is not
+     *                                  positive.
+     * @throws KhivaException           If the native function call fails.
+     */
+    public Array[] kNearest(Array queries, int k) {
+        long[] dims = queries.getDims();
+        if (dims[0] != length) {
+            throw new IllegalArgumentException("The queries must have length " + length);
+        }
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        int nQueries = (int) dims[1];
+        double[] q = DistanceKernels.prepare(metric, queries.getDataAsDouble(), length, nQueries);
+        double[] distances = new double[k * nQueries];
+        int[] neighbours = new int[k * nQueries];
+        DistanceKernels.Workspace workspace = new DistanceKernels.Workspace(window);
+        for (int query = 0; query < nQueries; query++) {
+            int out = query * k;
+            Arrays.fill(distances, out, out + k, Double.POSITIVE_INFINITY);
+            Arrays.fill(neighbours, out, out + k, -1);
+            for (int slot = 0; slot < size; slot++) {
+                double threshold = distances[out + k - 1];
+                double d = DistanceKernels.distance(metric, q, query * length, data, slot * length, length,
+                        threshold, workspace);
+                int id = ids[slot];
+                int worst = neighbours[out + k - 1];
+                if (d > threshold || (d == threshold && worst >= 0 && id > worst)) {
+                    continue;
+                }
+                // Insertion in the sorted list of the k best, ties broken by identifier.
+                int p = out + k - 1;
+                while (p > out && (distances[p - 1] > d || (distances[p - 1] == d && neighbours[p - 1] > id))) {
+                    distances[p] = distances[p - 1];
+                    neighbours[p] = neighbours[p - 1];
+                    p--;
+                }
+                distances[p] = d;
+                neighbours[p] = id;
+            }
+        }
+        long[] outDims = {k, nQueries};
+        return new Array[]{Array.fromDoubleData(distances, outDims, queries.getType()),
+                           Array.fromPrimitiveArray(neighbours, outDims)};
+    }
+}
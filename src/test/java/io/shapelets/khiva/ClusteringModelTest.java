@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ClusteringModelTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Library.setKhivaBackend(Library.Backend.KHIVA_BACKEND_CPU);
+    }
+
+    @Test
+    public void testPredictEuclidean() throws Exception {
+        double[] centroids = {0, 0, 0, 10, 10, 10};
+        double[] tss = {1, 0, 1, 9, 11, 10, 4, 4, 4, 6, 6, 6};
+        try (Array c = Array.fromPrimitiveArray(centroids, new long[]{3, 2, 1, 1});
+             Array a = Array.fromPrimitiveArray(tss, new long[]{3, 4, 1, 1});
+             ClusteringModel model = new ClusteringModel(c, Distances.Metric.EUCLIDEAN);
+             Array labels = model.predict(a)) {
+            int[] result = labels.getData();
+            assertArrayEquals(new int[]{0, 1, 0, 1}, result);
+            assertEquals(3, model.getLength());
+            assertEquals(2, model.getCount());
+        }
+    }
+
+    @Test
+    public void testPredictSbd() throws Exception {
+        double[] centroids = {0, 1, 0, 0, 0, 0, 1, 1};
+        double[] tss = {2, 2, 2, 7, 5, 9, 0, 0, 0, 0, 1, 1};
+        try (Array c = Array.fromPrimitiveArray(centroids, new long[]{4, 2, 1, 1});
+             Array a = Array.fromPrimitiveArray(tss, new long[]{4, 3, 1, 1});
+             ClusteringModel model = new ClusteringModel(c, Distances.Metric.SBD);
+             Array labels = model.predict(a)) {
+            int[] result = labels.getData();
+            // A bump is a shifted copy of the first centroid; a step matches the second one.
+            assertEquals(0, result[1]);
+            assertEquals(1, result[2]);
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        float[] centroids = {0, 0, 0, 10, 10, 10};
+        float[] tss = {1, 0, 1, 9, 11, 10, 4, 4, 4, 6, 6, 6};
+        Path path = folder.newFile("model.kcm").toPath();
+        try (Array c = Array.fromPrimitiveArray(centroids, new long[]{3, 2, 1, 1});
+             ClusteringModel model = new ClusteringModel(c, Distances.Metric.EUCLIDEAN)) {
+            model.save(path);
+        }
+        try (ClusteringModel model = ClusteringModel.load(path);
+             Array a = Array.fromPrimitiveArray(tss, new long[]{3, 4, 1, 1});
+             Array labels = model.predict(a)) {
+            assertEquals(Distances.Metric.EUCLIDEAN, model.getMetric());
+            assertEquals(Dtype.f32, model.getCentroids().getType());
+            float[] stored = model.getCentroids().getData();
+            assertArrayEquals(centroids, stored, 0);
+            int[] result = labels.getData();
+            assertArrayEquals(new int[]{0, 1, 0, 1}, result);
+        }
+    }
+
+    @Test
+    public void testSaveHeaderCodes() throws Exception {
+        double[] centroids = {0, 1, 0, 0, 0, 0, 1, 1};
+        Path path = folder.newFile("header.kcm").toPath();
+        try (Array c = Array.fromPrimitiveArray(centroids, new long[]{4, 2, 1, 1});
+             ClusteringModel model = new ClusteringModel(c, Distances.Metric.SBD)) {
+            model.save(path);
+        }
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0x4B434C4D, header.getInt());
+        assertEquals(1, header.getInt());
+        // The data type and metric codes do not depend on the order of the enums: f64 is 1 and SBD is 1.
+        assertEquals(1, header.getInt());
+        assertEquals(1, header.getInt());
+        assertEquals(4, header.getLong());
+        assertEquals(2, header.getLong());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedMetric() throws Exception {
+        double[] centroids = {0, 0, 0, 10, 10, 10};
+        try (Array c = Array.fromPrimitiveArray(centroids, new long[]{3, 2, 1, 1})) {
+            new ClusteringModel(c, Distances.Metric.DTW);
+        }
+    }
+}
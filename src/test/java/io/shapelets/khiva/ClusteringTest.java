@@ -13,7 +13,17 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class ClusteringTest {
 
@@ -75,4 +85,434 @@ public class ClusteringTest {
             }
         }
     }
+
+    // Three groups of 20 time series of length 32, shifted and scaled versions of a sine, a bump and a step,
+    // interleaved.
+    private static double[] shapes() {
+        double[] tss = new double[32 * 60];
+        for (int i = 0; i < 60; i++) {
+            int shift = i % 5;
+            double scale = 1 + (i % 7) * 0.5;
+            for (int t = 0; t < 32; t++) {
+                double value;
+                if (i % 3 == 0) {
+                    value = Math.sin(2 * Math.PI * (t + shift) / 16);
+                } else if (i % 3 == 1) {
+                    value = Math.exp(-(t - 12 - shift) * (t - 12 - shift) / 8.0);
+                } else {
+                    value = t + shift < 16 ? 0 : 1;
+                }
+                tss[i * 32 + t] = scale * value + i % 4;
+            }
+        }
+        return tss;
+    }
+
+    // Three groups of 20 time series of length 32, a bump, two bumps and a step, shifted by up to 6 points,
+    // interleaved.
+    private static double[] warped() {
+        double[] tss = new double[32 * 60];
+        for (int i = 0; i < 60; i++) {
+            int shift = (i * 5) % 7;
+            for (int t = 0; t < 32; t++) {
+                double u = t - shift;
+                double value;
+                if (i % 3 == 0) {
+                    value = 4 * Math.exp(-(u - 12) * (u - 12) / 4);
+                } else if (i % 3 == 1) {
+                    value = 4 * Math.exp(-(u - 8) * (u - 8) / 4) + 4 * Math.exp(-(u - 18) * (u - 18) / 4);
+                } else {
+                    value = u < 14 ? 4 : 0;
+                }
+                tss[i * 32 + t] = value + 0.1 * Math.sin(i * 7 + t * 3);
+            }
+        }
+        return tss;
+    }
+
+    // Three groups of 20 time series of length 8 around the levels 0, 10 and 20, interleaved.
+    private static double[] groups() {
+        double[] tss = new double[8 * 60];
+        for (int i = 0; i < 60; i++) {
+            for (int t = 0; t < 8; t++) {
+                tss[i * 8 + t] = 10 * (i % 3) + Math.sin(i * 7 + t * 3);
+            }
+        }
+        return tss;
+    }
+
+    private static void assertGroups(int[] labels) {
+        for (int i = 3; i < labels.length; i++) {
+            assertEquals(labels[i - 3], labels[i]);
+        }
+        assertNotEquals(labels[0], labels[1]);
+        assertNotEquals(labels[0], labels[2]);
+        assertNotEquals(labels[1], labels[2]);
+    }
+
+    @Test
+    public void testMiniBatchKMeans() throws Exception {
+        try (Array a = Array.fromPrimitiveArray(groups(), new long[]{8, 60, 1, 1})) {
+            Array[] result = Clustering.miniBatchKMeans(a, 3, 16, 1e-6f, 100, 42);
+            double[] centroids = result[0].getData();
+            int[] labels = result[1].getData();
+            assertEquals(24, centroids.length);
+            assertEquals(60, labels.length);
+            assertGroups(labels);
+            for (int c = 0; c < 3; c++) {
+                double level = 0;
+                for (int t = 0; t < 8; t++) {
+                    level += centroids[c * 8 + t] / 8;
+                }
+                assertEquals(10 * Math.round(level / 10), level, 1);
+            }
+            for (Array r : result) {
+                r.close();
+            }
+        }
+    }
+
+    @Test
+    public void testMiniBatchKMeansChunks() throws Exception {
+        double[] tss = groups();
+        List<Array> chunks = new ArrayList<>();
+        for (int c = 0; c < 4; c++) {
+            double[] chunk = new double[8 * 15];
+            System.arraycopy(tss, c * chunk.length, chunk, 0, chunk.length);
+            chunks.add(Array.fromPrimitiveArray(chunk, new long[]{8, 15, 1, 1}));
+        }
+        Array[] result = Clustering.miniBatchKMeans(chunks, 3, 10, 1e-6f, 100, 42);
+        int[] labels = result[1].getData();
+        assertEquals(60, labels.length);
+        assertGroups(labels);
+        for (Array r : result) {
+            r.close();
+        }
+        for (Array chunk : chunks) {
+            chunk.close();
+        }
+    }
+
+    @Test
+    public void testKMeansPlusPlus() throws Exception {
+        try (Array a = Array.fromPrimitiveArray(groups(), new long[]{8, 60, 1, 1})) {
+            ClusteringOptions options = new ClusteringOptions().setSeed(7);
+            Array[] first = Clustering.kMeans(a, 3, 1e-10f, 100, options);
+            Array[] second = Clustering.kMeans(a, 3, 1e-10f, 100, options);
+            int[] labels = first[1].getData();
+            assertGroups(labels);
+            assertArrayEquals(labels, (int[]) second[1].getData());
+            assertArrayEquals((double[]) first[0].getData(), (double[]) second[0].getData(), 0);
+            for (Array r : first) {
+                r.close();
+            }
+            for (Array r : second) {
+                r.close();
+            }
+        }
+    }
+
+    @Test
+    public void testKMeansWarmStart() throws Exception {
+        double[] initial = new double[24];
+        for (int t = 0; t < 8; t++) {
+            initial[8 + t] = 10;
+            initial[16 + t] = 20;
+        }
+        try (Array a = Array.fromPrimitiveArray(groups(), new long[]{8, 60, 1, 1});
+             Array centroids = Array.fromPrimitiveArray(initial, new long[]{8, 3, 1, 1})) {
+            Array[] result = Clustering.kMeans(a, 3, 1e-10f, 100,
+                    new ClusteringOptions().setInitialCentroids(centroids));
+            int[] labels = result[1].getData();
+            for (int i = 0; i < labels.length; i++) {
+                assertEquals(i % 3, labels[i]);
+            }
+            for (Array r : result) {
+                r.close();
+            }
+        }
+    }
+
+    @Test
+    public void testKShapeOptions() throws Exception {
+        try (Array a = Array.fromPrimitiveArray(shapes(), new long[]{32, 60, 1, 1})) {
+            ClusteringOptions options = new ClusteringOptions().setSeed(3);
+            Array[] first = Clustering.kShape(a, 3, 1e-10f, 100, options);
+            Array[] second = Clustering.kShape(a, 3, 1e-10f, 100, options);
+            int[] labels = first[1].getData();
+            assertGroups(labels);
+            assertArrayEquals(labels, (int[]) second[1].getData());
+            double[] centroids = first[0].getData();
+            for (int c = 0; c < 3; c++) {
+                double sum = 0;
+                for (int t = 0; t < 32; t++) {
+                    sum += centroids[c * 32 + t];
+                }
+                assertEquals(0, sum, 1e-6);
+            }
+            for (Array r : first) {
+                r.close();
+            }
+            for (Array r : second) {
+                r.close();
+            }
+        }
+    }
+
+    @Test
+    public void testKMeansAccelerated() throws Exception {
+        try (Array a = Array.fromPrimitiveArray(shapes(), new long[]{32, 60, 1, 1})) {
+            Array[] expected = Clustering.kMeans(a, 6, 0, 100, new ClusteringOptions().setSeed(5));
+            for (ClusteringOptions.Algorithm algorithm : new ClusteringOptions.Algorithm[]{
+                    ClusteringOptions.Algorithm.ELKAN, ClusteringOptions.Algorithm.HAMERLY}) {
+                ClusteringStatistics statistics = new ClusteringStatistics();
+                Array[] result = Clustering.kMeans(a, 6, 0, 100,
+                        new ClusteringOptions().setSeed(5).setAlgorithm(algorithm).setStatistics(statistics));
+                assertArrayEquals((double[]) expected[0].getData(), (double[]) result[0].getData(), 0);
+                assertArrayEquals((int[]) expected[1].getData(), (int[]) result[1].getData());
+                assertTrue(statistics.getSkippedRatio() > 0);
+                assertEquals(statistics.getCandidates(), statistics.getComputed() + statistics.getSkipped());
+                for (Array r : result) {
+                    r.close();
+                }
+            }
+            for (Array r : expected) {
+                r.close();
+            }
+        }
+    }
+
+    @Test
+    public void testKShapeRestarts() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try (Array a = Array.fromPrimitiveArray(shapes(), new long[]{32, 60, 1, 1})) {
+            ClusteringStatistics statistics = new ClusteringStatistics();
+            Array[] first = Clustering.kShape(a, 3, 1e-10f, 100,
+                    new ClusteringOptions().setSeed(11).setRestarts(4).setStatistics(statistics));
+            Array[] second = Clustering.kShape(a, 3, 1e-10f, 100,
+                    new ClusteringOptions().setSeed(11).setRestarts(4).setPool(pool));
+            int[] labels = first[1].getData();
+            assertGroups(labels);
+            assertArrayEquals(labels, (int[]) second[1].getData());
+            assertArrayEquals((double[]) first[0].getData(), (double[]) second[0].getData(), 0);
+            assertTrue(statistics.getInertia() >= 0);
+            assertTrue(statistics.getIterations() > 0);
+            for (Array r : first) {
+                r.close();
+            }
+            for (Array r : second) {
+                r.close();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testDbaKMeans() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try (Array a = Array.fromPrimitiveArray(warped(), new long[]{32, 60, 1, 1})) {
+            ClusteringStatistics statistics = new ClusteringStatistics();
+            Array[] first = Clustering.dbaKMeans(a, 3, DtwWindow.sakoeChiba(8), 1e-10f, 100,
+                    new ClusteringOptions().setSeed(5).setStatistics(statistics));
+            Array[] second = Clustering.dbaKMeans(a, 3, DtwWindow.sakoeChiba(8), 1e-10f, 100,
+                    new ClusteringOptions().setSeed(5).setPool(pool));
+            int[] labels = first[1].getData();
+            assertGroups(labels);
+            assertArrayEquals(labels, (int[]) second[1].getData());
+            assertArrayEquals((double[]) first[0].getData(), (double[]) second[0].getData(), 0);
+            assertTrue(statistics.getSkipped() > 0);
+            assertTrue(statistics.getInertia() >= 0);
+            for (Array r : first) {
+                r.close();
+            }
+            for (Array r : second) {
+                r.close();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testDbaKMeansInertia() throws Exception {
+        List<Double> inertias = new ArrayList<>();
+        try (Array a = Array.fromPrimitiveArray(warped(), new long[]{32, 60, 1, 1})) {
+            ClusteringStatistics statistics = new ClusteringStatistics();
+            ClusteringOptions options = new ClusteringOptions().setSeed(3).setStatistics(statistics)
+                    .setInitialization(ClusteringOptions.Initialization.RANDOM)
+                    .setProgressListener((restart, iteration, inertia, shift, elapsedNanos) -> inertias.add(inertia));
+            Array[] result = Clustering.dbaKMeans(a, 3, DtwWindow.sakoeChiba(8), 0, 20, options);
+            inertias.add(statistics.getInertia());
+            assertTrue(inertias.size() > 2);
+            for (int i = 1; i < inertias.size(); i++) {
+                assertTrue(inertias.get(i) <= inertias.get(i - 1) + 1e-9);
+            }
+            for (Array r : result) {
+                r.close();
+            }
+        }
+    }
+
+    @Test
+    public void testHierarchical() throws Exception {
+        double[] points = {0, 1, 3, 7, 8.5};
+        try (Array a = Array.fromPrimitiveArray(points, new long[]{1, 5, 1, 1});
+             Array distances = Distances.condensed(a, Distances.Metric.EUCLIDEAN);
+             Array complete = Clustering.hierarchical(distances, Clustering.Linkage.COMPLETE);
+             Array ward = Clustering.hierarchical(distances, Clustering.Linkage.WARD)) {
+            double[] expectedComplete = {0, 1, 1, 2, 3, 4, 1.5, 2, 2, 5, 3, 3, 6, 7, 8.5, 5};
+            assertArrayEquals(expectedComplete, (double[]) complete.getData(), 1e-6);
+            double[] expectedWard = {0, 1, 1, 2, 3, 4, 1.5, 2, 2, 5, Math.sqrt(4.0 / 3) * 2.5, 3, 6, 7,
+                                     Math.sqrt(2.4) * (7.75 - 4.0 / 3), 5};
+            assertArrayEquals(expectedWard, (double[]) ward.getData(), 1e-6);
+        }
+    }
+
+    @Test
+    public void testHierarchicalDense() throws Exception {
+        double[] points = {0, 1, 3, 7, 8.5};
+        double[] dense = new double[25];
+        for (int j = 0; j < 5; j++) {
+            for (int i = 0; i < j; i++) {
+                dense[i + j * 5] = points[j] - points[i];
+            }
+        }
+        try (Array a = Array.fromPrimitiveArray(points, new long[]{1, 5, 1, 1});
+             Array condensed = Distances.condensed(a, Distances.Metric.EUCLIDEAN);
+             Array d = Array.fromPrimitiveArray(dense, new long[]{5, 5, 1, 1});
+             Array expected = Clustering.hierarchical(condensed, Clustering.Linkage.AVERAGE);
+             Array result = Clustering.hierarchical(d, Clustering.Linkage.AVERAGE)) {
+            double[] linkage = result.getData();
+            assertArrayEquals((double[]) expected.getData(), linkage, 1e-12);
+            assertEquals(2.5, linkage[10], 1e-12);
+            assertEquals(38.5 / 6, linkage[14], 1e-12);
+        }
+    }
+
+    @Test
+    public void testHierarchicalInfinite() throws Exception {
+        double inf = Double.POSITIVE_INFINITY;
+        // Two groups infinitely far from each other, and a member infinitely far from the rest.
+        double[] groups = {1, inf, inf, inf, inf, 2};
+        double[] isolated = {inf, inf, 3};
+        for (Clustering.Linkage linkage : Clustering.Linkage.values()) {
+            try (Array g = Array.fromPrimitiveArray(groups, new long[]{6, 1, 1, 1});
+                 Array i = Array.fromPrimitiveArray(isolated, new long[]{3, 1, 1, 1});
+                 Array groupsLinkage = Clustering.hierarchical(g, linkage);
+                 Array isolatedLinkage = Clustering.hierarchical(i, linkage)) {
+                assertArrayEquals(new double[]{0, 1, 1, 2, 2, 3, 2, 2, 4, 5, inf, 4},
+                        (double[]) groupsLinkage.getData(), 1e-12);
+                assertArrayEquals(new double[]{1, 2, 3, 2, 0, 3, inf, 3}, (double[]) isolatedLinkage.getData(),
+                        1e-12);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHierarchicalNaN() throws Exception {
+        double[] distances = {1, Double.NaN, 2};
+        try (Array d = Array.fromPrimitiveArray(distances, new long[]{3, 1, 1, 1})) {
+            Clustering.hierarchical(d, Clustering.Linkage.AVERAGE);
+        }
+    }
+
+    @Test
+    public void testCutTree() throws Exception {
+        double[] points = {0, 1, 3, 7, 8.5};
+        try (Array a = Array.fromPrimitiveArray(points, new long[]{1, 5, 1, 1});
+             Array distances = Distances.condensed(a, Distances.Metric.EUCLIDEAN);
+             Array linkage = Clustering.hierarchical(distances, Clustering.Linkage.SINGLE);
+             Array two = Clustering.cutTree(linkage, 2);
+             Array three = Clustering.cutTreeAtHeight(linkage, 1.5)) {
+            assertArrayEquals(new int[]{0, 0, 0, 1, 1}, (int[]) two.getData());
+            assertArrayEquals(new int[]{0, 0, 1, 2, 2}, (int[]) three.getData());
+        }
+    }
+
+    @Test
+    public void testProgressListener() throws Exception {
+        List<Double> inertias = new ArrayList<>();
+        try (Array a = Array.fromPrimitiveArray(groups(), new long[]{8, 60, 1, 1})) {
+            ClusteringStatistics statistics = new ClusteringStatistics();
+            ClusteringOptions options = new ClusteringOptions().setSeed(7).setStatistics(statistics)
+                    .setProgressListener((restart, iteration, inertia, shift, elapsedNanos) -> {
+                        assertEquals(0, restart);
+                        assertEquals(inertias.size() + 1, iteration);
+                        assertTrue(elapsedNanos >= 0);
+                        inertias.add(inertia);
+                        return true;
+                    });
+            Array[] result = Clustering.kMeans(a, 3, 1e-10f, 100, options);
+            assertEquals(statistics.getIterations(), inertias.size());
+            for (int i = 1; i < inertias.size(); i++) {
+                assertTrue(inertias.get(i) <= inertias.get(i - 1) + 1e-9);
+            }
+            assertEquals(statistics.getInertia(), inertias.get(inertias.size() - 1), 1e-9);
+            for (Array r : result) {
+                r.close();
+            }
+        }
+    }
+
+    @Test
+    public void testFirstRestartMatchesSingleRun() throws Exception {
+        List<Double> single = new ArrayList<>();
+        List<Double> first = Collections.synchronizedList(new ArrayList<>());
+        try (Array a = Array.fromPrimitiveArray(groups(), new long[]{8, 60, 1, 1})) {
+            Array[] one = Clustering.kMeans(a, 3, 1e-10f, 100, new ClusteringOptions().setSeed(7)
+                    .setProgressListener((restart, iteration, inertia, shift, elapsedNanos) -> single.add(inertia)));
+            Array[] many = Clustering.kMeans(a, 3, 1e-10f, 100, new ClusteringOptions().setSeed(7).setRestarts(3)
+                    .setProgressListener((restart, iteration, inertia, shift, elapsedNanos) ->
+                            restart != 0 || first.add(inertia)));
+            assertEquals(single, first);
+            for (Array r : one) {
+                r.close();
+            }
+            for (Array r : many) {
+                r.close();
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFailedRestart() throws Exception {
+        try (Array a = Array.fromPrimitiveArray(groups(), new long[]{8, 60, 1, 1})) {
+            ClusteringOptions options = new ClusteringOptions().setSeed(7).setRestarts(3)
+                    .setProgressListener((restart, iteration, inertia, shift, elapsedNanos) -> {
+                        if (restart == 1) {
+                            throw new IllegalStateException("Restart failed");
+                        }
+                        return true;
+                    });
+            Clustering.kMeans(a, 3, 0, 100, options);
+        }
+    }
+
+    @Test
+    public void testProgressListenerStops() throws Exception {
+        try (Array a = Array.fromPrimitiveArray(shapes(), new long[]{32, 60, 1, 1})) {
+            ClusteringStatistics statistics = new ClusteringStatistics();
+            ClusteringOptions options = new ClusteringOptions().setSeed(7).setStatistics(statistics)
+                    .setProgressListener((restart, iteration, inertia, shift, elapsedNanos) -> false);
+            Array[] result = Clustering.kShape(a, 3, 0, 100, options);
+            assertEquals(1, statistics.getIterations());
+            for (Array r : result) {
+                r.close();
+            }
+        }
+    }
+
+    @Test(expected = CancellationException.class)
+    public void testCancellation() throws Exception {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        try (Array a = Array.fromPrimitiveArray(groups(), new long[]{8, 60, 1, 1})) {
+            ClusteringOptions options = new ClusteringOptions().setRestarts(2).setCancellation(cancelled::get)
+                    .setProgressListener((restart, iteration, inertia, shift, elapsedNanos) -> {
+                        cancelled.set(true);
+                        return true;
+                    });
+            Clustering.kMeans(a, 3, 0, 100, options);
+        }
+    }
 }
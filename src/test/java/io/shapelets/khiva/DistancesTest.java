@@ -10,14 +10,27 @@
 package io.shapelets.khiva;
 
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class DistancesTest {
 
     private static final double DELTA = 1e-6;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @BeforeClass
     public static void setUp() throws Exception {
         Library.setKhivaBackend(Library.Backend.KHIVA_BACKEND_CPU);
@@ -56,6 +69,67 @@ public class DistancesTest {
         }
     }
 
+    @Test
+    public void testDtwWindow() throws Exception {
+        float[] timeSeries = {0, 0, 1, 2, 3, 0, 1, 2, 3, 3};
+        long[] dims = {5, 2, 1, 1};
+        try (Array arrayOfTimeSeries = Array.fromPrimitiveArray(timeSeries, dims);
+             Array unconstrained = Distances.dtw(arrayOfTimeSeries, DtwWindow.none());
+             Array diagonal = Distances.dtw(arrayOfTimeSeries, DtwWindow.sakoeChiba(0));
+             Array band = Distances.dtw(arrayOfTimeSeries, DtwWindow.sakoeChiba(1));
+             Array fraction = Distances.dtw(arrayOfTimeSeries, DtwWindow.sakoeChibaFraction(0.2));
+             Array itakura = Distances.dtw(arrayOfTimeSeries, DtwWindow.itakura(2))) {
+            float[] unconstrainedResult = unconstrained.getData();
+            float[] diagonalResult = diagonal.getData();
+            float[] bandResult = band.getData();
+            float[] fractionResult = fraction.getData();
+            float[] itakuraResult = itakura.getData();
+
+            assertEquals(0, unconstrainedResult[2], DELTA);
+            assertEquals(3, diagonalResult[2], DELTA);
+            assertEquals(0, bandResult[2], DELTA);
+            assertEquals(0, fractionResult[2], DELTA);
+            // The parallelogram forbids the vertical step at the start of the path.
+            assertEquals(2, itakuraResult[2], DELTA);
+            assertEquals(0, diagonalResult[1], DELTA);
+        }
+    }
+
+    @Test
+    public void testDtwWindowMatchesUnconstrained() throws Exception {
+        float[] timeSeries = {1, 1, 1, 1, 1, 2, 2, 2, 2, 2, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 5, 5, 5, 5, 5};
+        long[] dims = {5, 5, 1, 1};
+        try (Array arrayOfTimeSeries = Array.fromPrimitiveArray(timeSeries, dims);
+             Array resultArray = Distances.dtw(arrayOfTimeSeries, DtwWindow.sakoeChiba(2))) {
+            float[] result = resultArray.getData();
+            float[] expectedResult = {0, 0, 0, 0, 0, 5, 0, 0, 0, 0, 10, 5, 0, 0, 0, 15, 10, 5, 0, 0, 20, 15, 10, 5, 0};
+            assertEquals(expectedResult.length, result.length, DELTA);
+            for (int i = 0; i < result.length; i++) {
+                assertEquals(expectedResult[i], result[i], DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void testDtwUpperBound() throws Exception {
+        float[] timeSeries = {1, 1, 1, 1, 1, 2, 2, 2, 2, 2, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 5, 5, 5, 5, 5};
+        long[] dims = {5, 5, 1, 1};
+        try (Array arrayOfTimeSeries = Array.fromPrimitiveArray(timeSeries, dims);
+             Array resultArray = Distances.dtw(arrayOfTimeSeries, DtwWindow.sakoeChiba(1), 10)) {
+            float[] result = resultArray.getData();
+            float inf = Float.POSITIVE_INFINITY;
+            float[] expectedResult = {0, 0, 0, 0, 0, 5, 0, 0, 0, 0, 10, 5, 0, 0, 0, inf, 10, 5, 0, 0, inf, inf, 10, 5, 0};
+            for (int i = 0; i < result.length; i++) {
+                assertEquals(expectedResult[i], result[i], DELTA);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDtwInvalidWindow() throws Exception {
+        DtwWindow.sakoeChibaFraction(1.5);
+    }
+
     @Test
     public void testHamming() throws Exception {
         float[] timeSeries = {1, 1, 1, 1, 1, 2, 2, 2, 2, 2, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 5, 5, 5, 5, 5};
@@ -116,4 +190,206 @@ public class DistancesTest {
             assertEquals(0, result[8], DELTA);
         }
     }
+
+    @Test
+    public void testPairwiseBlocks() throws Exception {
+        float[] timeSeries = {1, 1, 1, 1, 1, 2, 2, 2, 2, 2, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 5, 5, 5, 5, 5};
+        long[] dims = {5, 5, 1, 1};
+        try (Array a = Array.fromPrimitiveArray(timeSeries, dims)) {
+            double[] result = new double[25];
+            int[] blocks = {0};
+            Distances.pairwise(a, Distances.Metric.MANHATTAN, 2, (firstRow, firstColumn, rows, columns, block) -> {
+                blocks[0]++;
+                for (int c = 0; c < columns; c++) {
+                    for (int r = 0; r < rows; r++) {
+                        result[(int) (firstRow + r + (firstColumn + c) * 5)] = block[r + c * rows];
+                    }
+                }
+            });
+            double[] expectedResult = {0, 0, 0, 0, 0, 5, 0, 0, 0, 0, 10, 5, 0, 0, 0, 15, 10, 5, 0, 0, 20, 15, 10, 5, 0};
+            // Only the 6 blocks intersecting the upper triangle of the 3 x 3 grid.
+            assertEquals(6, blocks[0]);
+            for (int i = 0; i < result.length; i++) {
+                assertEquals(expectedResult[i], result[i], DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void testPairwiseSbd() throws Exception {
+        float[] timeSeries = {1, 2, 3, 4, 5, 1, 1, 0, 1, 1, 10, 12, 0, 0, 1};
+        long[] dims = {5, 3, 1, 1};
+        try (Array a = Array.fromPrimitiveArray(timeSeries, dims)) {
+            double[] result = new double[9];
+            Distances.pairwise(a, Distances.Metric.SBD, 3, (firstRow, firstColumn, rows, columns, block) ->
+                    System.arraycopy(block, 0, result, 0, 9));
+            double[] expectedResult = {0, 0, 0, 0.505025, 0, 0, 0.458583, 0.564093, 0};
+            for (int i = 0; i < result.length; i++) {
+                assertEquals(expectedResult[i], result[i], DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void testPairwiseFile() throws Exception {
+        float[] timeSeries = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+        long[] dims = {4, 3, 1, 1};
+        Path path = folder.getRoot().toPath().resolve("distances.bin");
+        try (Array a = Array.fromPrimitiveArray(timeSeries, dims)) {
+            Distances.pairwise(a, Distances.Metric.EUCLIDEAN, 2, path);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        float[] expectedResult = {0, 0, 0, 8, 0, 0, 16, 8, 0};
+        assertEquals(expectedResult.length * Float.BYTES, buffer.capacity());
+        for (float expected : expectedResult) {
+            assertEquals(expected, buffer.getFloat(), DELTA);
+        }
+    }
+
+    @Test
+    public void testPairwiseFileInvalidBlockSize() throws Exception {
+        float[] timeSeries = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+        long[] dims = {4, 3, 1, 1};
+        Path path = folder.getRoot().toPath().resolve("existing.bin");
+        byte[] existing = {1, 2, 3, 4};
+        Files.write(path, existing);
+        try (Array a = Array.fromPrimitiveArray(timeSeries, dims)) {
+            Distances.pairwise(a, Distances.Metric.EUCLIDEAN, 0, path);
+            fail("testPairwiseFileInvalidBlockSize should throw");
+        } catch (IllegalArgumentException e) {
+            // The existing file is left untouched.
+            assertArrayEquals(existing, Files.readAllBytes(path));
+        }
+    }
+
+    @Test
+    public void testCondensed() throws Exception {
+        float[] timeSeries = {1, 1, 1, 1, 1, 2, 2, 2, 2, 2, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 5, 5, 5, 5, 5};
+        long[] dims = {5, 5, 1, 1};
+        try (Array a = Array.fromPrimitiveArray(timeSeries, dims);
+             Array b = Distances.condensed(a, Distances.Metric.MANHATTAN)) {
+            float[] result = b.getData();
+            float[] expectedResult = {5, 10, 15, 20, 5, 10, 15, 5, 10, 5};
+            assertEquals(expectedResult.length, result.length);
+            for (int i = 0; i < result.length; i++) {
+                assertEquals(expectedResult[i], result[i], DELTA);
+            }
+            assertEquals(15, result[(int) Distances.condensedIndex(5, 3, 0)], DELTA);
+            assertEquals(5, result[(int) Distances.condensedIndex(5, 3, 4)], DELTA);
+        }
+    }
+
+    @Test
+    public void testCondensedIndex() throws Exception {
+        assertEquals(0, Distances.condensedIndex(4, 0, 1));
+        assertEquals(2, Distances.condensedIndex(4, 0, 3));
+        assertEquals(3, Distances.condensedIndex(4, 1, 2));
+        assertEquals(5, Distances.condensedIndex(4, 3, 2));
+    }
+
+    @Test
+    public void testCrossEuclidean() throws Exception {
+        float[] queries = {0, 1, 2, 3, 8, 9, 10, 11};
+        float[] references = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+        try (Array q = Array.fromPrimitiveArray(queries, new long[]{4, 2, 1, 1});
+             Array r = Array.fromPrimitiveArray(references, new long[]{4, 3, 1, 1});
+             Array b = Distances.euclidean(q, r)) {
+            float[] result = b.getData();
+            long[] dims = b.getDims();
+            float[] expectedResult = {0, 16, 8, 8, 16, 0};
+            assertEquals(2, dims[0]);
+            assertEquals(3, dims[1]);
+            for (int i = 0; i < result.length; i++) {
+                assertEquals(expectedResult[i], result[i], DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void testCrossMetrics() throws Exception {
+        float[] queries = {1, 2, 3, 4, 5, 10, 12, 0, 0, 1};
+        float[] references = {1, 1, 0, 1, 1, 1, 2, 3, 4, 5};
+        try (Array q = Array.fromPrimitiveArray(queries, new long[]{5, 2, 1, 1});
+             Array r = Array.fromPrimitiveArray(references, new long[]{5, 2, 1, 1});
+             Array sbd = Distances.sbd(q, r);
+             Array dtw = Distances.dtw(q, r, DtwWindow.sakoeChiba(0));
+             Array manhattan = Distances.manhattan(q, r);
+             Array hamming = Distances.hamming(q, r);
+             Array squared = Distances.squaredEuclidean(q, r)) {
+            float[] sbdResult = sbd.getData();
+            assertEquals(0.505025, sbdResult[0], DELTA);
+            assertEquals(0.564093, sbdResult[1], DELTA);
+            assertEquals(0, sbdResult[2], DELTA);
+            assertEquals(0.458583, sbdResult[3], DELTA);
+            float[] manhattanResult = manhattan.getData();
+            assertEquals(11, manhattanResult[0], DELTA);
+            assertEquals(((float[]) dtw.getData())[0], manhattanResult[0], DELTA);
+            float[] hammingResult = hamming.getData();
+            assertEquals(4, hammingResult[0], DELTA);
+            assertEquals(0, hammingResult[2], DELTA);
+            float[] squaredResult = squared.getData();
+            assertEquals(35, squaredResult[0], DELTA);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCrossMismatchingLength() throws Exception {
+        try (Array q = Array.fromPrimitiveArray(new float[]{1, 2, 3}, new long[]{3, 1, 1, 1});
+             Array r = Array.fromPrimitiveArray(new float[]{1, 2, 3, 4}, new long[]{2, 2, 1, 1})) {
+            Distances.euclidean(q, r);
+        }
+    }
+
+    @Test
+    public void testSquaredEuclideanPrecision() throws Exception {
+        int n = 1000;
+        double[] timeSeries = new double[n * 3];
+        for (int i = 0; i < timeSeries.length; i++) {
+            timeSeries[i] = 1000 + Math.sin(i * 0.1) + (i / n) * 0.001;
+        }
+        long[] dims = {n, 3, 1, 1};
+        double u = Math.pow(2, -24);
+        try (Array a = Array.fromPrimitiveArray(timeSeries, dims);
+             Array fp64 = Distances.squaredEuclidean(a, Precision.FP64);
+             Array fp32 = Distances.squaredEuclidean(a, Precision.FP32)) {
+            assertEquals(Dtype.f64, fp64.getType());
+            assertEquals(Dtype.f32, fp32.getType());
+            double[] reference = fp64.getData();
+            float[] single = fp32.getData();
+            for (int j = 0; j < 3; j++) {
+                for (int i = 0; i < j; i++) {
+                    double magnitude = 0;
+                    for (int t = 0; t < n; t++) {
+                        double sum = Math.abs(timeSeries[i * n + t]) + Math.abs(timeSeries[j * n + t]);
+                        magnitude += sum * sum;
+                    }
+                    double expected = reference[i + j * 3];
+                    assertEquals(expected, single[i + j * 3], (n + 5) * u * magnitude);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDtwParallel() throws Exception {
+        int n = 30;
+        int count = 50;
+        double[] timeSeries = new double[n * count];
+        for (int i = 0; i < timeSeries.length; i++) {
+            timeSeries[i] = Math.sin(i * 0.7) * Math.cos(i * 0.05);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (Array a = Array.fromPrimitiveArray(timeSeries, new long[]{n, count, 1, 1});
+             Array sequential = Distances.dtw(a, DtwWindow.sakoeChiba(3), 5);
+             Array parallel = Distances.dtw(a, DtwWindow.sakoeChiba(3), 5, pool)) {
+            double[] expectedResult = sequential.getData();
+            double[] result = parallel.getData();
+            assertEquals(expectedResult.length, result.length);
+            for (int i = 0; i < result.length; i++) {
+                assertEquals(expectedResult[i], result[i], 0);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
 }
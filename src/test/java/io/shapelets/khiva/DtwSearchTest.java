@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DtwSearchTest {
+
+    private static final double DELTA = 1e-6;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Library.setKhivaBackend(Library.Backend.KHIVA_BACKEND_CPU);
+    }
+
+    @Test
+    public void testKNearest() throws Exception {
+        float[] references = {1, 1, 1, 1, 1, 2, 2, 2, 2, 2, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 5, 5, 5, 5, 5};
+        float[] queries = {2.2f, 2.2f, 2.2f, 2.2f, 2.2f, 4, 4, 4, 4, 4};
+        try (Array r = Array.fromPrimitiveArray(references, new long[]{5, 5, 1, 1});
+             Array q = Array.fromPrimitiveArray(queries, new long[]{5, 2, 1, 1})) {
+            DtwSearch search = new DtwSearch(r, DtwWindow.sakoeChiba(1));
+            Array[] result = search.kNearest(q, 2);
+            float[] distances = result[0].getData();
+            int[] indices = result[1].getData();
+
+            assertArrayEquals(new float[]{1, 4, 0, 5}, distances, (float) DELTA);
+            assertArrayEquals(new int[]{1, 2, 3, 2}, indices);
+
+            DtwSearch.Statistics statistics = search.getStatistics();
+            assertEquals(10, statistics.getCandidates());
+            assertEquals(statistics.getCandidates(),
+                    statistics.getPrunedByKim() + statistics.getPrunedByKeogh()
+                    + statistics.getPrunedByReverseKeogh() + statistics.getAbandoned() + statistics.getComputed());
+            assertTrue(statistics.getPruningRatio() > 0);
+
+            result[0].close();
+            result[1].close();
+        }
+    }
+
+    @Test
+    public void testCompletedAboveThreshold() throws Exception {
+        double[] references = {0, 2, 0, 1, 0, 1, 2, 0};
+        double[] queries = {2, 0, 0, 0};
+        try (Array r = Array.fromPrimitiveArray(references, new long[]{4, 2, 1, 1});
+             Array q = Array.fromPrimitiveArray(queries, new long[]{4, 1, 1, 1})) {
+            DtwSearch search = new DtwSearch(r, DtwWindow.sakoeChiba(1));
+            Array[] result = search.nearest(q);
+            double[] distances = result[0].getData();
+            int[] indices = result[1].getData();
+
+            assertEquals(3, distances[0], DELTA);
+            assertEquals(0, indices[0]);
+            // The second distance only exceeds the first one in its last row, so it is not abandoned.
+            DtwSearch.Statistics statistics = search.getStatistics();
+            assertEquals(0, statistics.getAbandoned());
+            assertEquals(2, statistics.getComputed());
+
+            result[0].close();
+            result[1].close();
+        }
+    }
+
+    @Test
+    public void testNearestWarped() throws Exception {
+        double[] references = {0, 0, 1, 2, 3, 0, 3, 0, 3, 0, 3, 2, 1, 0, 0};
+        double[] queries = {0, 1, 2, 3, 3};
+        try (Array r = Array.fromPrimitiveArray(references, new long[]{5, 3, 1, 1});
+             Array q = Array.fromPrimitiveArray(queries, new long[]{5, 1, 1, 1})) {
+            DtwSearch search = new DtwSearch(r, DtwWindow.none());
+            Array[] result = search.nearest(q);
+            double[] distances = result[0].getData();
+            int[] indices = result[1].getData();
+
+            assertEquals(0, distances[0], DELTA);
+            assertEquals(0, indices[0]);
+
+            result[0].close();
+            result[1].close();
+        }
+    }
+
+    @Test
+    public void testKGreaterThanReferences() throws Exception {
+        double[] references = {1, 2, 3, 3, 2, 1};
+        double[] queries = {1, 2, 2};
+        try (Array r = Array.fromPrimitiveArray(references, new long[]{3, 2, 1, 1});
+             Array q = Array.fromPrimitiveArray(queries, new long[]{3, 1, 1, 1})) {
+            DtwSearch search = new DtwSearch(r, DtwWindow.sakoeChiba(1));
+            Array[] result = search.kNearest(q, 3);
+            double[] distances = result[0].getData();
+            int[] indices = result[1].getData();
+
+            assertArrayEquals(new int[]{0, 1, -1}, indices);
+            assertEquals(1, distances[0], DELTA);
+            assertEquals(Double.POSITIVE_INFINITY, distances[2], 0);
+
+            result[0].close();
+            result[1].close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchingLength() throws Exception {
+        try (Array r = Array.fromPrimitiveArray(new double[]{1, 2, 3, 4}, new long[]{2, 2, 1, 1});
+             Array q = Array.fromPrimitiveArray(new double[]{1, 2, 3}, new long[]{3, 1, 1, 1})) {
+            new DtwSearch(r, DtwWindow.none()).kNearest(q, 1);
+        }
+    }
+}
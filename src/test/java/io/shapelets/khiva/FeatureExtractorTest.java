@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FeatureExtractorTest {
+
+    private static final double DELTA = 1e-6;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Library.setKhivaBackend(Library.Backend.KHIVA_BACKEND_CPU);
+    }
+
+    @Test
+    public void testExtract() throws Exception {
+        double[] tss = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+        FeatureExtractor extractor = new FeatureExtractor()
+                .add(FeatureExtractor.Feature.MEAN)
+                .add(FeatureExtractor.Feature.C3, 2)
+                .add(FeatureExtractor.Feature.CID_CE)
+                .add(FeatureExtractor.Feature.CID_CE_Z_NORMALIZED)
+                .add(FeatureExtractor.Feature.FFT_REAL, 0)
+                .add(FeatureExtractor.Feature.LENGTH)
+                .add(FeatureExtractor.Feature.RANGE_COUNT, 2, 8);
+        assertEquals(7, extractor.size());
+        try (Array a = Array.fromPrimitiveArray(tss, new long[]{6, 2, 1, 1}); Array b = extractor.extract(a)) {
+            assertArrayEquals(new long[]{7, 2, 1, 1}, b.getDims());
+            double[] result = b.getData();
+            assertArrayEquals(new double[]{2.5, 7.5, 2.23606797749979, 1.30930734141595, 15, 6, 4,
+                                           8.5, 586.5, 2.23606797749979, 1.30930734141595, 51, 6, 2}, result, DELTA);
+        }
+    }
+
+    @Test
+    public void testMoments() throws Exception {
+        double[] tss = {3, 0, 0, 4, 0, 0, 13, 2, 2, 2, 20, 30, 25, 1};
+        FeatureExtractor extractor = new FeatureExtractor()
+                .add(FeatureExtractor.Feature.SKEWNESS)
+                .add(FeatureExtractor.Feature.RATIO_BEYOND_R_SIGMA, 0.5)
+                .add(FeatureExtractor.Feature.MEDIAN)
+                .add(FeatureExtractor.Feature.LAST_LOCATION_OF_MINIMUM)
+                .add(FeatureExtractor.Feature.VALUE_COUNT, 2);
+        try (Array a = Array.fromPrimitiveArray(tss, new long[]{7, 2, 1, 1}); Array b = extractor.extract(a)) {
+            double[] result = b.getData();
+            assertEquals(2.038404735373753, result[0], DELTA);
+            assertEquals(0.7142857142857143, result[1], DELTA);
+            assertEquals(0, result[2], DELTA);
+            assertEquals(6.0 / 7.0, result[3], DELTA);
+            assertEquals(0, result[4], DELTA);
+            assertEquals(2, result[7], DELTA);
+            assertEquals(1, result[8], DELTA);
+            assertEquals(3, result[9], DELTA);
+        }
+    }
+
+    @Test
+    public void testKurtosis() throws Exception {
+        double[] tss = {0, 1, 2, 3, 4, 5, 2, 2, 2, 20, 30, 25};
+        FeatureExtractor extractor = new FeatureExtractor().add(FeatureExtractor.Feature.KURTOSIS);
+        try (Array a = Array.fromPrimitiveArray(tss, new long[]{6, 2, 1, 1}); Array b = extractor.extract(a)) {
+            double[] result = b.getData();
+            assertEquals(-1.2, result[0], DELTA);
+            assertEquals(-2.66226722, result[1], DELTA);
+        }
+    }
+
+    @Test
+    public void testSpectral() throws Exception {
+        double[] tss = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+        FeatureExtractor extractor = new FeatureExtractor()
+                .add(FeatureExtractor.Feature.SPECTRAL_CENTROID)
+                .add(FeatureExtractor.Feature.SPECTRAL_VARIANCE)
+                .add(FeatureExtractor.Feature.SPECTRAL_SKEWNESS)
+                .add(FeatureExtractor.Feature.SPECTRAL_KURTOSIS)
+                .add(FeatureExtractor.Feature.FFT_ABSOLUTE, 0);
+        try (Array a = Array.fromPrimitiveArray(tss, new long[]{10, 2, 1, 1}); Array b = extractor.extract(a)) {
+            double[] result = b.getData();
+            for (int s = 0; s < 2; s++) {
+                assertEquals(1.135143, result[s * 5], DELTA);
+                assertEquals(2.368324, result[s * 5 + 1], DELTA);
+                assertEquals(1.248777, result[s * 5 + 2], DELTA);
+                assertEquals(3.642666, result[s * 5 + 3], DELTA);
+                assertEquals(45, result[s * 5 + 4], DELTA);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingParameter() throws Exception {
+        new FeatureExtractor().add(FeatureExtractor.Feature.C3);
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+public class MatrixProfileFileTest {
+    private static final double DELTA = 1e-6;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Library.setKhivaBackend(Library.Backend.KHIVA_BACKEND_CPU);
+    }
+
+    @Test
+    public void testWriteAndOpen() throws Exception {
+        double[] ta = {10, 10, 10, 11, 12, 11, 10, 10, 11, 12, 11, 10, 10, 10};
+        long[] dims = {14, 1, 1, 1};
+        Path path = folder.newFile("profile.kmp").toPath();
+
+        try (Array a = Array.fromPrimitiveArray(ta, dims)) {
+            Array[] stompSelfJoinResult = Matrix.stompSelfJoin(a, 3);
+            long hash = MatrixProfileFile.hash(a);
+            MatrixProfileFile.write(path, stompSelfJoinResult[0], stompSelfJoinResult[1], 3, hash);
+
+            MatrixProfileFile profile = MatrixProfileFile.open(path);
+            assertEquals(3, profile.getM());
+            assertEquals(1, profile.getExclusionZone());
+            assertEquals(hash, profile.getSeriesHash());
+            assertEquals(Dtype.f64, profile.getType());
+            assertEquals(12, profile.getLength());
+            assertEquals(1, profile.getCount());
+
+            double[] matrix = stompSelfJoinResult[0].getData();
+            int[] index = stompSelfJoinResult[1].getData();
+            for (int i = 0; i < matrix.length; i++) {
+                assertEquals(matrix[i], profile.getDistance(0, i), DELTA);
+                assertEquals(index[i], profile.getIndex(0, i));
+            }
+
+            Array[] loaded = profile.toArrays();
+            double[] loadedMatrix = loaded[0].getData();
+            int[] loadedIndex = loaded[1].getData();
+            assertArrayEquals(matrix, loadedMatrix, DELTA);
+            assertArrayEquals(index, loadedIndex);
+
+            stompSelfJoinResult[0].close();
+            stompSelfJoinResult[1].close();
+            loaded[0].close();
+            loaded[1].close();
+        }
+    }
+
+    @Test
+    public void testWriteHeaderCodes() throws Exception {
+        float[] profile = {1, 2, 3};
+        int[] index = {2, 0, 1};
+        Path path = folder.newFile("header.kmp").toPath();
+        try (Array p = Array.fromPrimitiveArray(profile, new long[]{3, 1, 1, 1});
+             Array i = Array.fromPrimitiveArray(index, new long[]{3, 1, 1, 1})) {
+            MatrixProfileFile.write(path, p, i, 4, 1, 7);
+        }
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0x4B4D5046, header.getInt());
+        assertEquals(1, header.getInt());
+        // The data type code does not depend on the order of the enum: f32 is 0 and f64 is 1.
+        assertEquals(0, header.getInt());
+        assertEquals(0, header.getInt());
+        assertEquals(4, header.getLong());
+        assertEquals(1, header.getLong());
+        assertEquals(7, header.getLong());
+        assertEquals(3, header.getLong());
+        assertEquals(Dtype.f32, MatrixProfileFile.open(path).getType());
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        double[] ta = {10, 10, 10, 11, 12, 11, 10, 10, 11, 12, 11, 10, 10, 10};
+        long[] dims = {14, 1, 1, 1};
+        Path first = folder.newFile("first.kmp").toPath();
+        Path second = folder.newFile("second.kmp").toPath();
+        Path merged = folder.newFile("merged.kmp").toPath();
+
+        try (Array a = Array.fromPrimitiveArray(ta, dims)) {
+            long hash = MatrixProfileFile.hash(a);
+            Array[] firstBand = Matrix.stompSelfJoinDiagonals(a, 3, 0, 5);
+            Array[] secondBand = Matrix.stompSelfJoinDiagonals(a, 3, 6, 11);
+            MatrixProfileFile.write(first, firstBand[0], firstBand[1], 3, hash);
+            MatrixProfileFile.write(second, secondBand[0], secondBand[1], 3, hash);
+
+            MatrixProfileFile.merge(merged, first, second);
+            MatrixProfileFile profile = MatrixProfileFile.open(merged);
+
+            int[] expectedIndex = {11, 6, 7, 8, 9, 10, 1, 2, 3, 4, 5, 0};
+            assertEquals(hash, profile.getSeriesHash());
+            for (int i = 0; i < expectedIndex.length; i++) {
+                assertEquals(0, profile.getDistance(0, i), 1e-3);
+                assertEquals(expectedIndex[i], profile.getIndex(0, i));
+            }
+
+            firstBand[0].close();
+            firstBand[1].close();
+            secondBand[0].close();
+            secondBand[1].close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeMismatching() throws Exception {
+        double[] ta = {10, 10, 10, 11, 12, 11, 10, 10, 11, 12, 11, 10, 10, 10};
+        long[] dims = {14, 1, 1, 1};
+        Path first = folder.newFile("first.kmp").toPath();
+        Path second = folder.newFile("second.kmp").toPath();
+
+        try (Array a = Array.fromPrimitiveArray(ta, dims)) {
+            Array[] firstBand = Matrix.stompSelfJoinDiagonals(a, 3, 0, 5);
+            MatrixProfileFile.write(first, firstBand[0], firstBand[1], 3, 1);
+            MatrixProfileFile.write(second, firstBand[0], firstBand[1], 3, 2);
+            firstBand[0].close();
+            firstBand[1].close();
+
+            MatrixProfileFile.merge(folder.newFile("merged.kmp").toPath(), first, second);
+        }
+    }
+
+    @Test
+    public void testMergeChunks() throws Exception {
+        int length = 40000;
+        float[] firstProfile = new float[length];
+        float[] secondProfile = new float[length];
+        int[] firstIndex = new int[length];
+        int[] secondIndex = new int[length];
+        for (int i = 0; i < length; i++) {
+            firstProfile[i] = (i * 7919) % 1000;
+            secondProfile[i] = (i * 104729) % 1000;
+            firstIndex[i] = i;
+            secondIndex[i] = length + i;
+        }
+        long[] dims = {length, 1, 1, 1};
+        Path first = folder.newFile("first-chunks.kmp").toPath();
+        Path second = folder.newFile("second-chunks.kmp").toPath();
+        Path merged = folder.newFile("merged-chunks.kmp").toPath();
+
+        try (Array p1 = Array.fromPrimitiveArray(firstProfile, dims);
+             Array i1 = Array.fromPrimitiveArray(firstIndex, dims);
+             Array p2 = Array.fromPrimitiveArray(secondProfile, dims);
+             Array i2 = Array.fromPrimitiveArray(secondIndex, dims)) {
+            MatrixProfileFile.write(first, p1, i1, 8, 4, 3);
+            MatrixProfileFile.write(second, p2, i2, 8, 4, 3);
+        }
+        MatrixProfileFile.merge(merged, first, second);
+        MatrixProfileFile profile = MatrixProfileFile.open(merged);
+        assertEquals(Dtype.f32, profile.getType());
+        for (int i = 0; i < length; i++) {
+            // The first partial is kept in case of a tie.
+            boolean fromSecond = secondProfile[i] < firstProfile[i];
+            assertEquals(Math.min(firstProfile[i], secondProfile[i]), profile.getDistance(0, i), 0);
+            assertEquals(fromSecond ? length + i : i, profile.getIndex(0, i));
+        }
+    }
+
+    @Test
+    public void testMergeIntoPartial() throws Exception {
+        float[] profileData = {2, 3, 1, 4};
+        int[] indexData = {2, 3, 0, 1};
+        long[] dims = {4, 1, 1, 1};
+        Path first = folder.newFile("first-into.kmp").toPath();
+        Path second = folder.newFile("second-into.kmp").toPath();
+
+        try (Array p = Array.fromPrimitiveArray(profileData, dims); Array i = Array.fromPrimitiveArray(indexData, dims)) {
+            MatrixProfileFile.write(first, p, i, 2, 1, 0);
+            MatrixProfileFile.write(second, p, i, 2, 1, 0);
+        }
+        try {
+            MatrixProfileFile.merge(first, first, second);
+            fail("testMergeIntoPartial should throw");
+        } catch (IllegalArgumentException e) {
+            // The partial file is left untouched.
+            MatrixProfileFile profile = MatrixProfileFile.open(first);
+            assertEquals(4, profile.getLength());
+            assertEquals(1, profile.getDistance(0, 2), 0);
+        }
+    }
+
+    @Test
+    public void testHash() throws Exception {
+        double[] ta = {10, 10, 10, 11, 12, 11};
+        double[] tb = {10, 10, 10, 11, 12, 12};
+        long[] dims = {6, 1, 1, 1};
+
+        try (Array a = Array.fromPrimitiveArray(ta, dims); Array a2 = Array.fromPrimitiveArray(ta, dims);
+             Array b = Array.fromPrimitiveArray(tb, dims)) {
+            assertEquals(MatrixProfileFile.hash(a), MatrixProfileFile.hash(a2));
+            assertNotEquals(MatrixProfileFile.hash(a), MatrixProfileFile.hash(b));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOpenInvalidFile() throws Exception {
+        Path path = folder.newFile("invalid.kmp").toPath();
+        Files.write(path, new byte[100]);
+        MatrixProfileFile.open(path);
+    }
+
+    @Test
+    public void testFindBestNMotifs() throws Exception {
+        float[] profileData = {3, 0.5f, 0.4f, 2, 5, 0.1f, 0.2f, 4, 1, 6};
+        int[] indexData = {9, 8, 7, 6, 5, 4, 3, 2, 1, 0};
+        long[] dims = {10, 1, 1, 1};
+        Path path = folder.newFile("motifs.kmp").toPath();
+
+        try (Array p = Array.fromPrimitiveArray(profileData, dims); Array i = Array.fromPrimitiveArray(indexData, dims)) {
+            MatrixProfileFile.write(path, p, i, 2, 1, 0);
+            MatrixProfileFile profile = MatrixProfileFile.open(path);
+
+            Array[] findMotifs = Matrix.findBestNMotifs(profile, 3);
+            float[] distances = findMotifs[0].getData();
+            int[] index = findMotifs[1].getData();
+            int[] subsequenceIndex = findMotifs[2].getData();
+
+            assertArrayEquals(new float[]{0.1f, 0.4f, 1}, distances, 1e-6f);
+            assertArrayEquals(new int[]{4, 7, 1}, index);
+            assertArrayEquals(new int[]{5, 2, 8}, subsequenceIndex);
+
+            findMotifs[0].close();
+            findMotifs[1].close();
+            findMotifs[2].close();
+        }
+    }
+
+    @Test
+    public void testFindBestNMotifsMirror() throws Exception {
+        float[] profileData = {3, 0.5f, 0.4f, 2, 5, 0.1f, 0.2f, 4, 1, 6};
+        int[] indexData = {9, 8, 7, 6, 5, 4, 3, 2, 1, 0};
+        long[] dims = {10, 1, 1, 1};
+        Path path = folder.newFile("mirror.kmp").toPath();
+
+        try (Array p = Array.fromPrimitiveArray(profileData, dims); Array i = Array.fromPrimitiveArray(indexData, dims)) {
+            MatrixProfileFile.write(path, p, i, 2, 1, 0);
+            MatrixProfileFile profile = MatrixProfileFile.open(path);
+
+            Array[] findMotifs = Matrix.findBestNMotifs(profile, 4, true);
+            float[] distances = findMotifs[0].getData();
+            int[] subsequenceIndex = findMotifs[2].getData();
+
+            assertArrayEquals(new int[]{5, 2, 0, -1}, subsequenceIndex);
+            assertEquals(Float.NaN, distances[3], 0);
+
+            findMotifs[0].close();
+            findMotifs[1].close();
+            findMotifs[2].close();
+        }
+    }
+
+    @Test
+    public void testFindBestNMotifsPartial() throws Exception {
+        float inf = Float.POSITIVE_INFINITY;
+        float[] profileData = {2, 3, inf, 0.1f, inf, 1, 4, inf, 5, 6};
+        int[] indexData = {5, 8, -1, -1, -1, 9, 0, -1, 1, 5};
+        long[] dims = {10, 1, 1, 1};
+        Path path = folder.newFile("partial.kmp").toPath();
+
+        try (Array p = Array.fromPrimitiveArray(profileData, dims); Array i = Array.fromPrimitiveArray(indexData, dims)) {
+            MatrixProfileFile.write(path, p, i, 2, 1, 0);
+            MatrixProfileFile profile = MatrixProfileFile.open(path);
+
+            // Position 3 has no neighbour, so it does not exclude the start of the series.
+            Array[] findMotifs = Matrix.findBestNMotifs(profile, 3, true);
+            int[] subsequenceIndex = findMotifs[2].getData();
+
+            assertArrayEquals(new int[]{3, 5, 0}, subsequenceIndex);
+
+            findMotifs[0].close();
+            findMotifs[1].close();
+            findMotifs[2].close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindBestNMotifsInvalidN() throws Exception {
+        float[] profileData = {2, 3, 1, 4};
+        int[] indexData = {2, 3, 0, 1};
+        long[] dims = {4, 1, 1, 1};
+        Path path = folder.newFile("invalid-n.kmp").toPath();
+
+        try (Array p = Array.fromPrimitiveArray(profileData, dims); Array i = Array.fromPrimitiveArray(indexData, dims)) {
+            MatrixProfileFile.write(path, p, i, 2, 1, 0);
+            Matrix.findBestNMotifs(MatrixProfileFile.open(path), -1);
+        }
+    }
+
+    @Test
+    public void testFindBestNDiscords() throws Exception {
+        float[] dataA = {11, 10, 11, 10, 11, 10, 11, 10, 11, 10, 11, 10, 1};
+        float[] dataB = {9, 10.1f, 10.2f, 10.1f, 10.2f, 10.1f, 10.2f, 10.1f, 10.2f, 10.1f, 10.2f, 10.1f, 9};
+        long[] dims = {13, 1, 1, 1};
+        Path path = folder.newFile("discords.kmp").toPath();
+
+        try (Array a = Array.fromPrimitiveArray(dataA, dims); Array b = Array.fromPrimitiveArray(dataB, dims)) {
+            Array[] stompResult = Matrix.stomp(a, b, 3);
+            MatrixProfileFile.write(path, stompResult[0], stompResult[1], 3, MatrixProfileFile.hash(b));
+            MatrixProfileFile profile = MatrixProfileFile.open(path);
+
+            Array[] findDiscords = Matrix.findBestNDiscords(profile, 2);
+            int[] subsequenceIndex = findDiscords[2].getData();
+
+            assertEquals(0, subsequenceIndex[0], DELTA);
+            assertEquals(10, subsequenceIndex[1], DELTA);
+
+            stompResult[0].close();
+            stompResult[1].close();
+            findDiscords[0].close();
+            findDiscords[1].close();
+            findDiscords[2].close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MatrixProfileTopKTest {
+    private static final double DELTA = 1e-6;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Library.setKhivaBackend(Library.Backend.KHIVA_BACKEND_CPU);
+    }
+
+    @Test
+    public void testMotifs() throws Exception {
+        double[] profile = {3, 0.5, 0.4, 2, 5, 0.1, 0.2, 4, 1, 6};
+        int[] index = {9, 8, 7, 6, 5, 4, 3, 2, 1, 0};
+        List<long[]> changes = new ArrayList<>();
+        MatrixProfileTopK topK = new MatrixProfileTopK(3, 1, false, false,
+                (distances, indices, subsequenceIndices) -> changes.add(subsequenceIndices));
+
+        assertTrue(topK.accept(0, new double[]{3, 0.5, 0.4, 2, 5}, new int[]{9, 8, 7, 6, 5}));
+        assertArrayEquals(new long[]{2, 0, 4}, topK.getSubsequenceIndices());
+        assertTrue(topK.accept(5, new double[]{0.1, 0.2, 4, 1, 6}, new int[]{4, 3, 2, 1, 0}));
+
+        assertArrayEquals(new long[]{5, 2, 8}, topK.getSubsequenceIndices());
+        assertArrayEquals(new double[]{0.1, 0.4, 1}, topK.getDistances(), DELTA);
+        assertArrayEquals(new int[]{4, 7, 1}, topK.getIndices());
+        assertEquals(2, changes.size());
+
+        MatrixProfileTopK whole = new MatrixProfileTopK(3, 1, false, false, null);
+        whole.accept(0, profile, index);
+        assertArrayEquals(whole.getSubsequenceIndices(), topK.getSubsequenceIndices());
+    }
+
+    @Test
+    public void testDiscordsSelfJoin() throws Exception {
+        MatrixProfileTopK topK = new MatrixProfileTopK(2, 1, true, true, null);
+
+        topK.accept(0, new double[]{Double.POSITIVE_INFINITY, 1, 7, 2, 6, 3}, new int[]{-1, 3, 0, 1, 5, 4});
+
+        assertArrayEquals(new long[]{2, 4}, topK.getSubsequenceIndices());
+        assertArrayEquals(new double[]{7, 6}, topK.getDistances(), DELTA);
+    }
+
+    @Test
+    public void testPartialSelfJoin() throws Exception {
+        double inf = Double.POSITIVE_INFINITY;
+        MatrixProfileTopK topK = new MatrixProfileTopK(3, 1, true, false, null);
+
+        // Position 3 has no neighbour, so it does not exclude the start of the series.
+        topK.accept(0, new double[]{2, 3, inf, 0.1, inf, 1, 4, inf, 5, 6}, new int[]{5, 8, -1, -1, -1, 9, 0, -1, 1, 5});
+
+        assertArrayEquals(new long[]{3, 5, 0}, topK.getSubsequenceIndices());
+        assertFalse(topK.accept(2, new double[]{inf}, new int[]{-1}));
+    }
+
+    @Test
+    public void testRepeatedPositions() throws Exception {
+        MatrixProfileTopK topK = new MatrixProfileTopK(2, 1, false, false, null);
+
+        topK.accept(0, new double[]{5, 4, 3, 2}, new int[]{9, 9, 9, 9});
+        assertArrayEquals(new long[]{3, 1}, topK.getSubsequenceIndices());
+        assertFalse(topK.accept(2, new double[]{8}, new int[]{9}));
+        assertTrue(topK.accept(0, new double[]{1}, new int[]{7}));
+
+        assertArrayEquals(new long[]{0, 3}, topK.getSubsequenceIndices());
+        assertArrayEquals(new double[]{1, 2}, topK.getDistances(), DELTA);
+    }
+
+    @Test
+    public void testRepeatedDiscordPositions() throws Exception {
+        MatrixProfileTopK exact = new MatrixProfileTopK(1, 0, false, true, 3, null);
+        MatrixProfileTopK bounded = new MatrixProfileTopK(1, 0, false, true, 2, null);
+
+        for (MatrixProfileTopK topK : new MatrixProfileTopK[]{exact, bounded}) {
+            topK.accept(0, new double[]{5, 10, 20}, new int[]{9, 9, 9});
+            assertArrayEquals(new long[]{2}, topK.getSubsequenceIndices());
+            // A later tile lowers the distances of the two best discords.
+            assertTrue(topK.accept(1, new double[]{2, 1}, new int[]{8, 8}));
+        }
+
+        // With a capacity covering the whole profile, the first position takes over.
+        assertArrayEquals(new long[]{0}, exact.getSubsequenceIndices());
+        assertArrayEquals(new double[]{5}, exact.getDistances(), DELTA);
+        // Otherwise, the position evicted before the repetition is not recovered.
+        assertArrayEquals(new long[]{1}, bounded.getSubsequenceIndices());
+        assertArrayEquals(new double[]{2}, bounded.getDistances(), DELTA);
+    }
+
+    @Test
+    public void testTiledSelfJoin() throws Exception {
+        double[] ta = {10, 10, 10, 11, 12, 11, 10, 10, 11, 12, 11, 10, 10, 10};
+        long[] dims = {14, 1, 1, 1};
+
+        try (Array a = Array.fromPrimitiveArray(ta, dims)) {
+            MatrixProfileTopK topK = new MatrixProfileTopK(2, 1, true, false, null);
+            Array[] firstRows = Matrix.stompSelfJoinRows(a, 3, 0, 5);
+            Array[] secondRows = Matrix.stompSelfJoinRows(a, 3, 6, 11);
+            topK.accept(0, firstRows[0], firstRows[1]);
+            topK.accept(0, secondRows[0], secondRows[1]);
+
+            Array[] result = topK.getResult();
+            double[] distances = result[0].getData();
+            int[] subsequenceIndex = result[2].getData();
+
+            assertEquals(0, distances[0], 1e-3);
+            assertEquals(0, distances[1], 1e-3);
+            assertEquals(0, subsequenceIndex[0]);
+
+            firstRows[0].close();
+            firstRows[1].close();
+            secondRows[0].close();
+            secondRows[1].close();
+            for (Array r : result) {
+                r.close();
+            }
+        }
+    }
+
+    @Test
+    public void testResultPadding() throws Exception {
+        MatrixProfileTopK topK = new MatrixProfileTopK(3, 2, false, false, null);
+        topK.accept(0, new double[]{1, 2, 3}, new int[]{5, 5, 5});
+
+        Array[] result = topK.getResult();
+        double[] distances = result[0].getData();
+        int[] subsequenceIndex = result[2].getData();
+
+        assertArrayEquals(new int[]{0, -1, -1}, subsequenceIndex);
+        assertEquals(Double.NaN, distances[1], 0);
+
+        for (Array r : result) {
+            r.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() throws Exception {
+        new MatrixProfileTopK(4, 1, false, false, 2, null);
+    }
+}
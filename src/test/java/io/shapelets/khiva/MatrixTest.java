@@ -15,6 +15,7 @@ import org.junit.Test;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class MatrixTest {
     private static final double DELTA = 1e-6;
@@ -69,6 +70,28 @@ public class MatrixTest {
 
     }
 
+    @Test
+    public void testMassPrecision() throws Exception {
+        double[] tss = {10, 10, 10, 11, 12, 11, 10, 10, 11, 12, 11, 14, 10, 10};
+        long[] dimsTss = {14, 1, 1, 1};
+
+        double[] query = {4, 3, 8};
+        long[] dimsQuery = {3, 1, 1, 1};
+
+        try (Array t = Array.fromPrimitiveArray(tss, dimsTss); Array q = Array.fromPrimitiveArray(query, dimsQuery);
+             Array fp64 = Matrix.mass(q, t, Precision.FP64);
+             Array fp32 = Matrix.mass(q, t, Precision.FP32)) {
+            assertEquals(Dtype.f64, fp64.getType());
+            assertEquals(Dtype.f32, fp32.getType());
+
+            double[] reference = fp64.getData();
+            float[] single = fp32.getData();
+            for (int i = 0; i < reference.length; i++) {
+                assertEquals(reference[i], single[i], 1e-3);
+            }
+        }
+    }
+
     @Test
     public void testMassMultiple() throws Exception {
         double[] tss = {10, 10, 10, 11, 12, 11, 10, 10, 11, 12, 11, 14, 10, 10};
@@ -177,6 +200,125 @@ public class MatrixTest {
         }
     }
 
+    @Test
+    public void testStompSelfJoinLeftRight() throws Exception {
+        double[] ta = {10, 10, 10, 11, 12, 11, 10, 10, 11, 12, 11, 10, 10, 10};
+        long[] dims = {14, 1, 1, 1};
+        try (Array a = Array.fromPrimitiveArray(ta, dims)) {
+            Array[] result = Matrix.stompSelfJoinLeftRight(a, 3);
+            int[] expectedIndex = {11, 6, 7, 8, 9, 10, 1, 2, 3, 4, 5, 0};
+            int[] expectedLeftIndex = {-1, -1, 0, 0, 0, 0, 1, 2, 3, 4, 5, 0};
+            int[] expectedRightIndex = {11, 6, 7, 8, 9, 10, 11, 11, 11, 11, -1, -1};
+
+            double[] matrix = result[0].getData();
+            int[] index = result[1].getData();
+            double[] leftMatrix = result[2].getData();
+            int[] leftIndex = result[3].getData();
+            double[] rightMatrix = result[4].getData();
+            int[] rightIndex = result[5].getData();
+
+            assertArrayEquals(expectedIndex, index);
+            assertArrayEquals(expectedLeftIndex, leftIndex);
+            assertArrayEquals(expectedRightIndex, rightIndex);
+            for (int i = 0; i < matrix.length; i++) {
+                assertEquals(0, matrix[i], 1e-3);
+                assertEquals(Math.min(leftMatrix[i], rightMatrix[i]), matrix[i], DELTA);
+            }
+            assertEquals(Double.POSITIVE_INFINITY, leftMatrix[0], DELTA);
+            assertEquals(Double.POSITIVE_INFINITY, rightMatrix[11], DELTA);
+
+            for (Array r : result) {
+                r.close();
+            }
+        }
+    }
+
+    @Test
+    public void testStompSelfJoinPartials() throws Exception {
+        double[] ta = {10, 10, 10, 11, 12, 11, 10, 10, 11, 12, 11, 10, 10, 10};
+        long[] dims = {14, 1, 1, 1};
+        try (Array a = Array.fromPrimitiveArray(ta, dims)) {
+            Array[] firstBand = Matrix.stompSelfJoinDiagonals(a, 3, 0, 5);
+            Array[] secondBand = Matrix.stompSelfJoinDiagonals(a, 3, 6, 11);
+            Array[] diagonals = Matrix.mergeProfiles(firstBand[0], firstBand[1], secondBand[0], secondBand[1]);
+
+            Array[] firstRows = Matrix.stompSelfJoinRows(a, 3, 0, 3);
+            Array[] secondRows = Matrix.stompSelfJoinRows(a, 3, 4, 11);
+            Array[] rows = Matrix.mergeProfiles(firstRows[0], firstRows[1], secondRows[0], secondRows[1]);
+
+            int[] expectedIndex = {11, 6, 7, 8, 9, 10, 1, 2, 3, 4, 5, 0};
+            int[] firstBandIndex = firstBand[1].getData();
+            int[] diagonalsIndex = diagonals[1].getData();
+            int[] rowsIndex = rows[1].getData();
+            double[] diagonalsMatrix = diagonals[0].getData();
+            double[] rowsMatrix = rows[0].getData();
+
+            // The nearest neighbour of position 0 lies on diagonal 11, outside the first band.
+            assertTrue(firstBandIndex[0] >= 2 && firstBandIndex[0] <= 5);
+            assertArrayEquals(expectedIndex, diagonalsIndex);
+            assertArrayEquals(expectedIndex, rowsIndex);
+            for (int i = 0; i < expectedIndex.length; i++) {
+                assertEquals(0, diagonalsMatrix[i], 1e-3);
+                assertEquals(0, rowsMatrix[i], 1e-3);
+            }
+
+            for (Array[] result : new Array[][]{firstBand, secondBand, diagonals, firstRows, secondRows, rows}) {
+                result[0].close();
+                result[1].close();
+            }
+        }
+    }
+
+    @Test
+    public void testChains() throws Exception {
+        int[] left = {-1, -1, 0, 1, 2};
+        int[] right = {2, 3, 4, -1, -1};
+        long[] dims = {5, 1, 1, 1};
+        try (Array leftIndex = Array.fromPrimitiveArray(left, dims);
+             Array rightIndex = Array.fromPrimitiveArray(right, dims);
+             Array longest = Matrix.longestChain(leftIndex, rightIndex);
+             Array anchored = Matrix.anchoredChain(leftIndex, rightIndex, 1)) {
+            int[] longestChain = longest.getData();
+            int[] anchoredChain = anchored.getData();
+
+            assertArrayEquals(new int[]{0, 2, 4}, longestChain);
+            assertArrayEquals(new int[]{1, 3}, anchoredChain);
+        }
+    }
+
+    @Test
+    public void testMstamp() throws Exception {
+        double[] tss = {1, 2, 3, 1, 5, 1, 2, 3, 7, 4, 2, 7, 1, 8, 3, 5, 4, 9, 2, 6};
+        long[] dims = {10, 2, 1, 1};
+
+        try (Array a = Array.fromPrimitiveArray(tss, dims)) {
+            Array[] mstampResult = Matrix.mstamp(a, 3, true);
+            double[] profile = mstampResult[0].getData();
+            int[] index = mstampResult[1].getData();
+            int[] dimensions = mstampResult[2].getData();
+
+            assertArrayEquals(new long[]{8, 2, 1, 1}, mstampResult[0].getDims());
+            assertArrayEquals(new long[]{2, 2, 8, 1}, mstampResult[2].getDims());
+
+            // The first channel repeats the subsequence at positions 0 and 5.
+            assertEquals(0, profile[0], DELTA);
+            assertEquals(5, index[0]);
+            assertEquals(0, profile[5], DELTA);
+            assertEquals(0, index[5]);
+            assertEquals(0, dimensions[0]);
+            assertEquals(-1, dimensions[1]);
+
+            // The k-dimensional profile averages the k smallest distances, so it cannot decrease with k.
+            for (int i = 0; i < 8; i++) {
+                assertTrue(profile[i] <= profile[i + 8] + DELTA);
+            }
+
+            for (Array r : mstampResult) {
+                r.close();
+            }
+        }
+    }
+
     @Test
     public void testFindBestNMotifs() throws Exception {
         float[][] tss = {{10, 10, 10, 10, 10, 10, 9, 10, 10, 10, 10, 10, 11, 10, 9}, {10, 11, 10, 9}};
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OnlineKMeansTest {
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Library.setKhivaBackend(Library.Backend.KHIVA_BACKEND_CPU);
+    }
+
+    // A batch of 30 time series of length 4 around the levels offset, offset + 10 and offset + 20, interleaved.
+    private static double[] batch(int b, double offset) {
+        double[] tss = new double[4 * 30];
+        for (int i = 0; i < 30; i++) {
+            for (int t = 0; t < 4; t++) {
+                tss[i * 4 + t] = offset + 10 * (i % 3) + 0.5 * Math.sin(b * 31 + i * 7 + t * 3);
+            }
+        }
+        return tss;
+    }
+
+    private static double level(double[] centroids, int c) {
+        double sum = 0;
+        for (int t = 0; t < 4; t++) {
+            sum += centroids[c * 4 + t];
+        }
+        return sum / 4;
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        OnlineKMeans clustering = new OnlineKMeans(4, 3, 1);
+        for (int b = 0; b < 10; b++) {
+            try (Array a = Array.fromPrimitiveArray(batch(b, 0), new long[]{4, 30, 1, 1});
+                 Array labels = clustering.update(a)) {
+                int[] result = labels.getData();
+                for (int i = 3; i < result.length; i++) {
+                    assertEquals(result[i - 3], result[i]);
+                }
+            }
+        }
+        assertEquals(300, clustering.getSeen());
+        Array[] snapshot = clustering.snapshot();
+        double[] centroids = snapshot[0].getData();
+        int[] labels = snapshot[1].getData();
+        assertEquals(12, centroids.length);
+        assertEquals(30, labels.length);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(10 * i, level(centroids, labels[i]), 0.1);
+        }
+        double total = 0;
+        for (double w : clustering.getWeights()) {
+            total += w;
+        }
+        assertEquals(300, total, 1e-9);
+        for (Array r : snapshot) {
+            r.close();
+        }
+    }
+
+    @Test
+    public void testDecayFollowsDrift() throws Exception {
+        OnlineKMeans forgetful = new OnlineKMeans(4, 3, 0.5);
+        OnlineKMeans plain = new OnlineKMeans(4, 3, 1);
+        for (int b = 0; b < 20; b++) {
+            try (Array a = Array.fromPrimitiveArray(batch(b, b < 10 ? 0 : 3), new long[]{4, 30, 1, 1})) {
+                forgetful.update(a).close();
+                plain.update(a).close();
+            }
+        }
+        try (Array f = forgetful.getCentroids(); Array p = plain.getCentroids()) {
+            double[] forgetfulCentroids = f.getData();
+            double[] plainCentroids = p.getData();
+            for (int c = 0; c < 3; c++) {
+                double expected = 3 + 10 * Math.round((level(forgetfulCentroids, c) - 3) / 10);
+                assertEquals(expected, level(forgetfulCentroids, c), 0.1);
+                assertTrue(Math.abs(expected - level(plainCentroids, c)) > 1);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDecay() throws Exception {
+        new OnlineKMeans(4, 3, 0);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PreparedSbdTest {
+
+    private static final double DELTA = 1e-6;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Library.setKhivaBackend(Library.Backend.KHIVA_BACKEND_CPU);
+    }
+
+    @Test
+    public void testDistances() throws Exception {
+        float[] references = {1, 1, 0, 1, 1, 10, 12, 0, 0, 1};
+        float[] queries = {1, 2, 3, 4, 5, 10, 12, 0, 0, 1};
+        try (Array r = Array.fromPrimitiveArray(references, new long[]{5, 2, 1, 1});
+             Array q = Array.fromPrimitiveArray(queries, new long[]{5, 2, 1, 1})) {
+            PreparedSbd sbd = new PreparedSbd(r);
+            try (Array b = sbd.distances(q)) {
+                float[] result = b.getData();
+                float[] expectedResult = {0.505025f, 0.564093f, 0.458583f, 0};
+                for (int i = 0; i < result.length; i++) {
+                    assertEquals(expectedResult[i], result[i], DELTA);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesSbd() throws Exception {
+        double[] references = new double[100 * 6];
+        double[] queries = new double[100 * 3];
+        for (int i = 0; i < references.length; i++) {
+            references[i] = Math.sin(i * 0.37) + Math.cos(i * 0.011);
+        }
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = Math.sin(i * 0.21 + 1);
+        }
+        try (Array r = Array.fromPrimitiveArray(references, new long[]{100, 6, 1, 1});
+             Array q = Array.fromPrimitiveArray(queries, new long[]{100, 3, 1, 1});
+             Array expected = Distances.sbd(q, r);
+             Array b = new PreparedSbd(r).distances(q)) {
+            double[] expectedResult = expected.getData();
+            double[] result = b.getData();
+            for (int i = 0; i < result.length; i++) {
+                assertEquals(expectedResult[i], result[i], DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void testFlat() throws Exception {
+        try (Array r = Array.fromPrimitiveArray(new double[]{2, 2, 2}, new long[]{3, 1, 1, 1});
+             Array q = Array.fromPrimitiveArray(new double[]{1, 2, 3}, new long[]{3, 1, 1, 1});
+             Array b = new PreparedSbd(r).distances(q)) {
+            double[] result = b.getData();
+            assertEquals(1, result[0], DELTA);
+        }
+    }
+}
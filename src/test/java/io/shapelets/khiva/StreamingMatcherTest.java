@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingMatcherTest {
+
+    private static final double DELTA = 1e-6;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Library.setKhivaBackend(Library.Backend.KHIVA_BACKEND_CPU);
+    }
+
+    @Test
+    public void testMatchesMass() throws Exception {
+        double[] tss = {10, 10, 10, 11, 12, 11, 10, 10, 11, 12, 11, 14, 10, 10};
+        double[] query = {4, 3, 8};
+        double[] expectedDistance = {1.732051, 0.328954, 1.210135, 3.150851, 3.245858, 2.822044, 0.328954, 1.210135,
+                                     3.150851, 0.248097, 3.30187, 2.82205};
+        double[] distances = new double[expectedDistance.length];
+        StreamingMatcher matcher = new StreamingMatcher(8, (pattern, position, distance) ->
+                distances[(int) position] = distance);
+        matcher.addPattern(query, Double.POSITIVE_INFINITY);
+        matcher.accept(tss);
+
+        assertEquals(14, matcher.getPosition());
+        assertArrayEquals(expectedDistance, distances, 1e-3);
+    }
+
+    @Test
+    public void testThreshold() throws Exception {
+        double[] tss = {10, 10, 11, 11, 12, 11, 10, 10, 11, 12, 11, 10, 10, 11, 10, 10, 11, 11, 12, 11, 10, 10, 11, 12,
+                        11, 10, 10, 11};
+        List<long[]> matches = new ArrayList<>();
+        StreamingMatcher matcher = new StreamingMatcher(3, (pattern, position, distance) ->
+                matches.add(new long[]{pattern, position}));
+        int rising = matcher.addPattern(new double[]{10, 11, 12}, 0.1);
+        int falling = matcher.addPattern(new double[]{3, 2, 1}, 0.1);
+        try (Array stream = Array.fromPrimitiveArray(tss, new long[]{28, 1, 1, 1})) {
+            matcher.accept(stream);
+        }
+
+        List<Long> risingPositions = new ArrayList<>();
+        List<Long> fallingPositions = new ArrayList<>();
+        for (long[] match : matches) {
+            (match[0] == rising ? risingPositions : fallingPositions).add(match[1]);
+        }
+        assertTrue(risingPositions.contains(7L));
+        assertTrue(risingPositions.contains(21L));
+        assertTrue(fallingPositions.contains(9L));
+        assertEquals(falling, 1);
+    }
+
+    @Test
+    public void testRemovePattern() throws Exception {
+        int[] count = {0};
+        StreamingMatcher matcher = new StreamingMatcher(4, (pattern, position, distance) -> count[0]++);
+        int id = matcher.addPattern(new double[]{1, 2}, Double.POSITIVE_INFINITY);
+        matcher.accept(new double[]{1, 2, 3});
+        assertTrue(matcher.removePattern(id));
+        matcher.accept(new double[]{4, 5});
+
+        assertEquals(2, count[0]);
+    }
+
+    @Test
+    public void testLongStream() throws Exception {
+        double[] pattern = new double[50];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = Math.sin(i * 0.3);
+        }
+        List<Long> positions = new ArrayList<>();
+        StreamingMatcher matcher = new StreamingMatcher(64, (p, position, distance) -> positions.add(position));
+        matcher.addPattern(pattern, 1e-3);
+        for (int t = 0; t < 100000; t++) {
+            // Noise with a large offset, with the pattern scaled and shifted at position 70000.
+            double value = 1000 + Math.sin(t * 1.7) * Math.cos(t * 0.013);
+            if (t >= 70000 && t < 70050) {
+                value = 500 + 3 * pattern[t - 70000];
+            }
+            matcher.accept(value);
+        }
+
+        assertEquals(1, positions.size());
+        assertEquals(70000L, (long) positions.get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPatternTooLong() throws Exception {
+        new StreamingMatcher(2, null).addPattern(new double[]{1, 2, 3}, 1);
+    }
+}
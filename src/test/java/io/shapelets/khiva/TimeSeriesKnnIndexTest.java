@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2019 Shapelets.io
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package io.shapelets.khiva;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimeSeriesKnnIndexTest {
+
+    private static final double DELTA = 1e-6;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Library.setKhivaBackend(Library.Backend.KHIVA_BACKEND_CPU);
+    }
+
+    @Test
+    public void testKNearest() throws Exception {
+        float[] references = {1, 1, 1, 1, 1, 2, 2, 2, 2, 2, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 5, 5, 5, 5, 5};
+        float[] queries = {2.2f, 2.2f, 2.2f, 2.2f, 2.2f, 5, 5, 5, 5, 5};
+        try (Array r = Array.fromPrimitiveArray(references, new long[]{5, 5, 1, 1});
+             Array q = Array.fromPrimitiveArray(queries, new long[]{5, 2, 1, 1})) {
+            TimeSeriesKnnIndex index = new TimeSeriesKnnIndex(r, Distances.Metric.MANHATTAN);
+            Array[] result = index.kNearest(q, 2);
+            float[] distances = result[0].getData();
+            int[] neighbours = result[1].getData();
+
+            assertArrayEquals(new float[]{1, 4, 0, 5}, distances, (float) DELTA);
+            assertArrayEquals(new int[]{1, 2, 4, 3}, neighbours);
+
+            result[0].close();
+            result[1].close();
+        }
+    }
+
+    @Test
+    public void testInsertDelete() throws Exception {
+        double[] first = {0, 0, 0, 1, 1, 1};
+        double[] second = {2, 2, 2};
+        double[] queries = {1.9, 1.9, 1.9};
+        try (Array a = Array.fromPrimitiveArray(first, new long[]{3, 2, 1, 1});
+             Array b = Array.fromPrimitiveArray(second, new long[]{3, 1, 1, 1});
+             Array q = Array.fromPrimitiveArray(queries, new long[]{3, 1, 1, 1})) {
+            TimeSeriesKnnIndex index = new TimeSeriesKnnIndex(3, Distances.Metric.EUCLIDEAN);
+            assertArrayEquals(new int[]{0, 1}, index.insert(a));
+            assertArrayEquals(new int[]{2}, index.insert(b));
+            assertEquals(3, index.size());
+
+            assertTrue(index.delete(0));
+            assertFalse(index.delete(0));
+            assertTrue(index.delete(2));
+            assertEquals(1, index.size());
+
+            Array[] result = index.kNearest(q, 2);
+            double[] distances = result[0].getData();
+            int[] neighbours = result[1].getData();
+
+            assertArrayEquals(new int[]{1, -1}, neighbours);
+            assertEquals(Math.sqrt(3 * 0.81), distances[0], DELTA);
+            assertEquals(Double.POSITIVE_INFINITY, distances[1], 0);
+
+            result[0].close();
+            result[1].close();
+        }
+    }
+
+    @Test
+    public void testDtw() throws Exception {
+        double[] references = {0, 0, 1, 2, 3, 0, 3, 0, 3, 0, 3, 2, 1, 0, 0};
+        double[] queries = {0, 1, 2, 3, 3};
+        try (Array r = Array.fromPrimitiveArray(references, new long[]{5, 3, 1, 1});
+             Array q = Array.fromPrimitiveArray(queries, new long[]{5, 1, 1, 1})) {
+            TimeSeriesKnnIndex index = new TimeSeriesKnnIndex(5, Distances.Metric.DTW, DtwWindow.sakoeChiba(1));
+            index.insert(r);
+            Array[] result = index.kNearest(q, 1);
+            double[] distances = result[0].getData();
+            int[] neighbours = result[1].getData();
+
+            assertEquals(0, distances[0], DELTA);
+            assertEquals(0, neighbours[0]);
+
+            result[0].close();
+            result[1].close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInsertMismatchingLength() throws Exception {
+        try (Array a = Array.fromPrimitiveArray(new double[]{1, 2}, new long[]{2, 1, 1, 1})) {
+            new TimeSeriesKnnIndex(3, Distances.Metric.EUCLIDEAN).insert(a);
+        }
+    }
+}